@@ -1,16 +1,26 @@
 package org.corfudb.infrastructure;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.github.benmanes.caffeine.cache.CacheWriter;
 import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 
@@ -29,32 +39,112 @@ import org.corfudb.runtime.exceptions.TrimmedException;
 @Slf4j
 public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
 
-    static final int BATCH_SIZE = 50;
+    public static final int BATCH_SIZE = 50;
+    public static final long MAX_BATCH_BYTES = 4 * 1024 * 1024;
+    public static final long MAX_LINGER_MICROS = 0;
+    public static final long ASYNC_SYNC_INTERVAL_MS = 10;
+    private static final String METRICS_PREFIX = "corfu.server.logunit.batch-writer.";
+
     private StreamLog streamLog;
-    private BlockingQueue<BatchWriterOperation> operationsQueue;
-    final ExecutorService writerService = Executors
-            .newSingleThreadExecutor(new ThreadFactoryBuilder()
-                    .setDaemon(false)
-                    .setNameFormat("LogUnit-Write-Processor-%d")
-                    .build());
+    private final int maxBatchOps;
+    private final long maxBatchBytes;
+    private final long maxLingerNanos;
+    private final long asyncSyncIntervalNanos;
+    private final Histogram batchSizeHistogram;
+    private final Histogram batchBytesHistogram;
+    private final Timer fsyncTimer;
+    private final ThreadFactory writerThreadFactory = new ThreadFactoryBuilder()
+            .setDaemon(false)
+            .setNameFormat("LogUnit-Write-Processor-%d")
+            .build();
+    private final ThreadFactory syncThreadFactory = new ThreadFactoryBuilder()
+            .setDaemon(false)
+            .setNameFormat("LogUnit-Sync-Processor-%d")
+            .build();
+
+    /**
+     * The write pipelines of the devices of the stream log, indexed by device.
+     */
+    private final List<WritePipeline> pipelines = new ArrayList<>();
 
     /**
-     * Returns a new BatchWriter for a stream log.
+     * The addresses of the asynchronous writes that were acknowledged (or are being
+     * applied) but aren't synced yet, with the number of such writes per address.
+     */
+    private final ConcurrentSkipListMap<Long, Integer> unsyncedAsyncWrites =
+            new ConcurrentSkipListMap<>();
+
+    /**
+     * Returns a new BatchWriter for a stream log, with the default batching parameters.
      *
      * @param streamLog stream log for writes (can be in memory or file)
      */
     public BatchWriter(StreamLog streamLog) {
+        this(streamLog, BATCH_SIZE, MAX_BATCH_BYTES, MAX_LINGER_MICROS,
+                ASYNC_SYNC_INTERVAL_MS, ServerContext.getMetrics());
+    }
+
+    /**
+     * Returns a new BatchWriter for a stream log. Each device of the stream log gets
+     * its own writer and sync threads, so that devices are written and synced in
+     * parallel.
+     *
+     * @param streamLog       stream log for writes (can be in memory or file)
+     * @param maxBatchOps     maximum number of operations in a sync batch
+     * @param maxBatchBytes   maximum number of payload bytes in a sync batch
+     * @param maxLingerMicros maximum time to wait for more operations before
+     *                        closing a batch, in microseconds
+     * @param asyncSyncIntervalMillis maximum time that asynchronous writes stay unsynced,
+     *                        in milliseconds, or 0 to sync them like other writes
+     * @param metrics         registry for the batch size and fsync latency metrics
+     */
+    public BatchWriter(StreamLog streamLog, int maxBatchOps, long maxBatchBytes,
+                       long maxLingerMicros, long asyncSyncIntervalMillis,
+                       MetricRegistry metrics) {
         this.streamLog = streamLog;
-        operationsQueue = new LinkedBlockingQueue<>();
-        writerService.submit(this::batchWriteProcessor);
+        this.maxBatchOps = maxBatchOps;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxLingerNanos = TimeUnit.MICROSECONDS.toNanos(maxLingerMicros);
+        this.asyncSyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(asyncSyncIntervalMillis);
+        batchSizeHistogram = metrics.histogram(METRICS_PREFIX + "batch-size");
+        batchBytesHistogram = metrics.histogram(METRICS_PREFIX + "batch-bytes");
+        fsyncTimer = metrics.timer(METRICS_PREFIX + "fsync");
+        for (int device = 0; device < streamLog.getDevices(); device++) {
+            pipelines.add(new WritePipeline(device));
+        }
+    }
+
+    /**
+     * Queues an operation on the pipeline of the device that stores an address.
+     */
+    private void submit(long address, BatchWriterOperation operation) {
+        pipelines.get(streamLog.getDevice(address)).operationsQueue.add(operation);
     }
 
     @Override
     public void write(@Nonnull K key, @Nonnull V value) {
+        write((Long) key, (LogData) value, false);
+    }
+
+    /**
+     * Write an entry to the log, and return once the entry is written but before it is
+     * durable. The entry is synced within the async sync interval, until then it is
+     * past the durable tail (see {@link #getDurableTail()}).
+     *
+     * @param address log address to write to
+     * @param entry   entry to write
+     */
+    public void writeAsync(long address, LogData entry) {
+        write(address, entry, true);
+    }
+
+    private void write(long address, LogData entry, boolean async) {
         try {
             CompletableFuture<Void> cf = new CompletableFuture();
-            operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.WRITE,
-                    (Long) key, (LogData) value, null, cf));
+            BatchWriterOperation operation = new BatchWriterOperation(
+                    BatchWriterOperation.Type.WRITE, address, entry, null, cf);
+            operation.setAsync(async);
+            submit(address, operation);
             cf.get();
         } catch (Exception e) {
             log.trace("Write Exception {}", e);
@@ -66,11 +156,59 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
         }
     }
 
+    /**
+     * Write a set of entries to the log. The writes are queued together, so that they
+     * are batched and synced together, and each one succeeds or fails on its own.
+     *
+     * @param entries entries to write
+     * @return the exceptions of the writes which failed, by address
+     */
+    public Map<Long, RuntimeException> writeAll(List<LogData> entries) {
+        Map<Long, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        for (LogData entry : entries) {
+            long address = entry.getGlobalAddress();
+            CompletableFuture<Void> cf = new CompletableFuture();
+            submit(address, new BatchWriterOperation(BatchWriterOperation.Type.WRITE,
+                    address, entry, null, cf));
+            futures.put(address, cf);
+        }
+
+        Map<Long, RuntimeException> exceptions = new HashMap<>();
+        futures.forEach((address, cf) -> {
+            try {
+                cf.join();
+            } catch (CompletionException e) {
+                log.trace("Write Exception {}", e);
+                exceptions.put(address, e.getCause() instanceof RuntimeException
+                        ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause()));
+            }
+        });
+        return exceptions;
+    }
+
+    /**
+     * Write a range of consecutive entries to the log. The range is split into the
+     * ranges of consecutive entries that are stored on the same device.
+     *
+     * @param entries entries ordered by their addresses
+     */
     public void bulkWrite(List<LogData> entries) {
         try {
-            CompletableFuture<Void> cf = new CompletableFuture();
-            operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.RANGE_WRITE,
-                    null, null, entries, cf));
+            int start = 0;
+            while (start < entries.size()) {
+                long address = entries.get(start).getGlobalAddress();
+                int device = streamLog.getDevice(address);
+                int end = start + 1;
+                while (end < entries.size()
+                        && streamLog.getDevice(entries.get(end).getGlobalAddress()) == device) {
+                    end++;
+                }
+
+                CompletableFuture<Void> cf = new CompletableFuture();
+                submit(address, new BatchWriterOperation(BatchWriterOperation.Type.RANGE_WRITE,
+                        null, null, entries.subList(start, end), cf));
+                start = end;
+            }
         } catch (Exception e) {
             log.trace("Write Exception {}", e);
             if (e.getCause() instanceof RuntimeException) {
@@ -89,7 +227,7 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
     public void trim(@Nonnull long address) {
         try {
             CompletableFuture<Void> cf = new CompletableFuture();
-            operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.TRIM,
+            submit(address, new BatchWriterOperation(BatchWriterOperation.Type.TRIM,
                     address, null, null, cf));
             cf.get();
         } catch (Exception e) {
@@ -105,8 +243,9 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
     public void prefixTrim(@Nonnull long address) {
         try {
             CompletableFuture<Void> cf = new CompletableFuture();
-            operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.PREFIX_TRIM,
-                    address, null, null, cf));
+            // The trim mark isn't stored on a log device
+            pipelines.get(0).operationsQueue.add(new BatchWriterOperation(
+                    BatchWriterOperation.Type.PREFIX_TRIM, address, null, null, cf));
             cf.get();
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -117,6 +256,22 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
     public void delete(K key, V value, RemovalCause removalCause) {
     }
 
+    /**
+     * Returns the last durable address of the log. Every acknowledged write up to this
+     * address survives a crash, only asynchronous writes past it may be lost.
+     */
+    public long getDurableTail() {
+        // The tail is read first, an asynchronous write is registered before it is
+        // appended, so a write that is part of the tail is either synced or registered
+        long tail = streamLog.getGlobalTail();
+        Map.Entry<Long, Integer> firstUnsynced = unsyncedAsyncWrites.firstEntry();
+        return firstUnsynced == null ? tail : Math.min(tail, firstUnsynced.getKey() - 1);
+    }
+
+    private void removeUnsyncedAsyncWrite(long address) {
+        unsyncedAsyncWrites.computeIfPresent(address, (a, count) -> count == 1 ? null : count - 1);
+    }
+
     private void handleOperationResults(BatchWriterOperation operation) {
         if (operation.getException() == null) {
             operation.getFuture().complete(null);
@@ -125,80 +280,253 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
         }
     }
 
-    private void batchWriteProcessor() {
+    /**
+     * Returns the number of payload bytes an operation appends to the log.
+     */
+    private static long getOperationBytes(BatchWriterOperation operation) {
+        switch (operation.getType()) {
+            case WRITE:
+                return getEntryBytes(operation.getLogData());
+            case RANGE_WRITE:
+                long bytes = 0;
+                for (LogData entry : operation.getEntries()) {
+                    bytes += getEntryBytes(entry);
+                }
+                return bytes;
+            default:
+                return 0;
+        }
+    }
+
+    private static long getEntryBytes(LogData entry) {
+        return entry == null || entry.getData() == null ? 0 : entry.getData().length;
+    }
+
+    /**
+     * Applies an operation to the stream log. The operation result is only
+     * completed after the batch it belongs to has been synced.
+     */
+    private void processOperation(BatchWriterOperation currOp) {
         try {
-            BatchWriterOperation lastOp = null;
-            int processed = 0;
-            List<BatchWriterOperation> res = new LinkedList();
+            switch (currOp.getType()) {
+                case TRIM:
+                    streamLog.trim(currOp.getAddress());
+                    break;
+                case PREFIX_TRIM:
+                    streamLog.prefixTrim(currOp.getAddress());
+                    break;
+                case WRITE:
+                    streamLog.append(currOp.getAddress(), currOp.getLogData());
+                    break;
+                case RANGE_WRITE:
+                    streamLog.append(currOp.getEntries());
+                    break;
+                default:
+                    log.warn("Unknown BatchWriterOperation {}", currOp);
+            }
+        } catch (Exception e) {
+            currOp.setException(e);
+        }
+    }
 
-            while (true) {
-                BatchWriterOperation currOp;
+    /**
+     * Adds an operation to the current batch.
+     *
+     * @return the number of payload bytes the operation added to the batch
+     */
+    private long addToBatch(List<BatchWriterOperation> batch, BatchWriterOperation currOp) {
+        if (currOp.isAsync()) {
+            unsyncedAsyncWrites.merge(currOp.getAddress(), 1, Integer::sum);
+        }
 
-                if (lastOp == null) {
-                    currOp = operationsQueue.take();
-                } else {
-                    currOp = operationsQueue.poll();
+        processOperation(currOp);
+        batch.add(currOp);
 
-                    if (currOp == null || processed == BATCH_SIZE
-                            || currOp == BatchWriterOperation.SHUTDOWN) {
-                        streamLog.sync(true);
-                        log.trace("Sync'd {} writes", processed);
+        if (currOp.isAsync()) {
+            // Asynchronous writes are acknowledged before they are synced
+            if (currOp.getException() != null) {
+                removeUnsyncedAsyncWrite(currOp.getAddress());
+            }
+            handleOperationResults(currOp);
+        }
+        return getOperationBytes(currOp);
+    }
 
-                        for (BatchWriterOperation operation : res) {
-                            handleOperationResults(operation);
-                        }
-                        res.clear();
-                        processed = 0;
+    /**
+     * Returns whether a batch only holds asynchronous writes.
+     */
+    private static boolean isAsync(List<BatchWriterOperation> batch) {
+        for (BatchWriterOperation operation : batch) {
+            if (!operation.isAsync()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        for (WritePipeline pipeline : pipelines) {
+            pipeline.operationsQueue.add(BatchWriterOperation.SHUTDOWN);
+        }
+        for (WritePipeline pipeline : pipelines) {
+            pipeline.close();
+        }
+    }
+
+    /**
+     * The group commit pipeline of a device, which appends the operations on the
+     * addresses of the device and syncs them.
+     */
+    private class WritePipeline {
+        private final int device;
+        private final BlockingQueue<BatchWriterOperation> operationsQueue =
+                new LinkedBlockingQueue<>();
+        private final ExecutorService writerService =
+                Executors.newSingleThreadExecutor(writerThreadFactory);
+        private final ExecutorService syncService =
+                Executors.newSingleThreadExecutor(syncThreadFactory);
+
+        WritePipeline(int device) {
+            this.device = device;
+            writerService.submit(this::batchWriteProcessor);
+        }
+
+        /**
+         * Syncs the device and completes the operations of a batch.
+         */
+        private void syncBatch(List<BatchWriterOperation> batch, long batchBytes) {
+            try (Timer.Context context = fsyncTimer.time()) {
+                streamLog.sync(device, true);
+            } catch (Exception e) {
+                log.error("Failed to sync batch of {} operations on device {}", batch.size(),
+                        device, e);
+                for (BatchWriterOperation operation : batch) {
+                    if (operation.getException() == null) {
+                        operation.setException(e);
                     }
                 }
+            }
 
-                if (currOp == null) {
-                    lastOp = null;
-                    continue;
-                } else if (currOp == BatchWriterOperation.SHUTDOWN) {
-                    log.trace("Shutting down the write processor");
-                    streamLog.sync(true);
-                    break;
-                } else {
-                    try {
-                        switch (currOp.getType()) {
-                            case TRIM:
-                                streamLog.trim(currOp.getAddress());
-                                res.add(currOp);
-                                break;
-                            case PREFIX_TRIM:
-                                streamLog.prefixTrim(currOp.getAddress());
-                                res.add(currOp);
-                                break;
-                            case WRITE:
-                                streamLog.append(currOp.getAddress(), currOp.getLogData());
-                                res.add(currOp);
+            batchSizeHistogram.update(batch.size());
+            batchBytesHistogram.update(batchBytes);
+            log.trace("Sync'd {} writes on device {}", batch.size(), device);
+
+            for (BatchWriterOperation operation : batch) {
+                if (!operation.isAsync()) {
+                    handleOperationResults(operation);
+                } else if (operation.getException() == null) {
+                    // A write that failed to sync stays unsynced, it may have been lost
+                    removeUnsyncedAsyncWrite(operation.getAddress());
+                }
+            }
+        }
+
+        /**
+         * Group commit loop. Operations are applied to the stream log as they are dequeued
+         * and grouped into a batch until the batch reaches maxBatchOps or maxBatchBytes, or
+         * no operation arrives within maxLingerNanos. The batch is then synced on the sync
+         * processor, while the next batch is being appended. At most one sync is in flight.
+         *
+         * <p>A batch that only holds asynchronous writes, which are already acknowledged,
+         * is deferred and joins the following batches, until a batch has an operation that
+         * waits to be synced, reaches its size limits, or asyncSyncIntervalNanos elapse.
+         */
+        private void batchWriteProcessor() {
+            try {
+                CompletableFuture<Void> inFlightSync = CompletableFuture.completedFuture(null);
+                List<BatchWriterOperation> deferred = new ArrayList<>();
+                long deferredBytes = 0;
+                long deferredDeadline = 0;
+                boolean shutdown = false;
+
+                while (!shutdown) {
+                    BatchWriterOperation currOp = deferred.isEmpty()
+                            ? operationsQueue.take()
+                            : operationsQueue.poll(deferredDeadline - System.nanoTime(),
+                                    TimeUnit.NANOSECONDS);
+                    if (currOp == BatchWriterOperation.SHUTDOWN) {
+                        break;
+                    }
+
+                    boolean wasDeferred = !deferred.isEmpty();
+                    List<BatchWriterOperation> batch = deferred;
+                    long batchBytes = deferredBytes;
+                    deferred = new ArrayList<>();
+                    deferredBytes = 0;
+
+                    // Collect the batch, lingering for more operations if configured. The
+                    // deferred writes are synced right away if no operation arrived in time.
+                    if (currOp != null) {
+                        batchBytes += addToBatch(batch, currOp);
+                        final long deadline = System.nanoTime() + maxLingerNanos;
+                        while (batch.size() < maxBatchOps && batchBytes < maxBatchBytes) {
+                            long remaining = deadline - System.nanoTime();
+                            currOp = remaining > 0
+                                    ? operationsQueue.poll(remaining, TimeUnit.NANOSECONDS)
+                                    : operationsQueue.poll();
+                            if (currOp == null) {
                                 break;
-                            case RANGE_WRITE:
-                                streamLog.append(currOp.getEntries());
-                                res.add(currOp);
+                            } else if (currOp == BatchWriterOperation.SHUTDOWN) {
+                                shutdown = true;
                                 break;
-                            default:
-                                log.warn("Unknown BatchWriterOperation {}", currOp);
+                            }
+                            batchBytes += addToBatch(batch, currOp);
+                        }
+                    }
+
+                    // Operations that arrive while the previous batch is being synced
+                    // join the current batch
+                    inFlightSync.join();
+                    while (!shutdown && batch.size() < maxBatchOps
+                            && batchBytes < maxBatchBytes) {
+                        currOp = operationsQueue.poll();
+                        if (currOp == null) {
+                            break;
+                        } else if (currOp == BatchWriterOperation.SHUTDOWN) {
+                            shutdown = true;
+                            break;
+                        }
+                        batchBytes += addToBatch(batch, currOp);
+                    }
+
+                    if (!shutdown && asyncSyncIntervalNanos > 0 && isAsync(batch)
+                            && batch.size() < maxBatchOps && batchBytes < maxBatchBytes
+                            && (!wasDeferred || System.nanoTime() < deferredDeadline)) {
+                        if (!wasDeferred) {
+                            deferredDeadline = System.nanoTime() + asyncSyncIntervalNanos;
                         }
-                    } catch (Exception e) {
-                        currOp.setException(e);
-                        res.add(currOp);
+                        deferred = batch;
+                        deferredBytes = batchBytes;
+                        continue;
                     }
 
-                    processed++;
-                    lastOp = currOp;
+                    final long syncBytes = batchBytes;
+                    inFlightSync = CompletableFuture.runAsync(() ->
+                            syncBatch(batch, syncBytes), syncService);
+                }
+
+                inFlightSync.join();
+                log.trace("Shutting down the write processor of device {}", device);
+                if (deferred.isEmpty()) {
+                    streamLog.sync(device, true);
+                } else {
+                    syncBatch(deferred, deferredBytes);
                 }
+            } catch (Exception e) {
+                log.error("Caught exception in the write processor of device {}", device, e);
             }
-        } catch (Exception e) {
-            log.error("Caught exception in the write processor {}", e);
         }
-    }
 
-    @Override
-    public void close() {
-        operationsQueue.add(BatchWriterOperation.SHUTDOWN);
-        writerService.shutdown();
+        private void close() {
+            writerService.shutdown();
+            try {
+                writerService.awaitTermination(ServerContext.SHUTDOWN_TIMER.toMillis(),
+                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            syncService.shutdown();
+        }
     }
-
-}
\ No newline at end of file
+}
@@ -28,6 +28,11 @@ public class BatchWriterOperation {
     private final CompletableFuture future;
     private Exception exception;
 
+    /**
+     * Whether the operation is acknowledged once it is applied, before it is synced.
+     */
+    private boolean async = false;
+
 
     public static BatchWriterOperation SHUTDOWN = new BatchWriterOperation(Type.SHUTDOWN,
             null, null, null, null);
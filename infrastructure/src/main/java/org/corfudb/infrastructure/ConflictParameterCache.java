@@ -0,0 +1,363 @@
+package org.corfudb.infrastructure;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.function.LongConsumer;
+
+import lombok.Getter;
+
+/**
+ * The sequencer's cache of the latest update timestamp of recent conflict parameters.
+ *
+ * <p>A conflict parameter of a stream is identified by a 64 bit fingerprint of the stream
+ * id and the parameter, and the fingerprints and timestamps are kept in an open addressing
+ * table of primitive longs (linear probing, backward shift deletion). Looking up or updating
+ * a parameter does not allocate.
+ *
+ * <p>The entries are also linked in the order of their last update, through two primitive
+ * int arrays indexed by slot, so that an entry costs 24 bytes of table space. The sequencer
+ * updates parameters with increasing timestamps, so this is also the order of their
+ * timestamps: the oldest entries are found without a scan, and removing the entries older
+ * than a trim mark takes time proportional to the number of entries removed.
+ *
+ * <p>Two parameters with the same fingerprint share an entry, which then holds the latest
+ * timestamp of both. A collision can therefore only cause a transaction to abort spuriously,
+ * it can never let a conflicting transaction commit.
+ *
+ * <p>Once the cache holds {@code maxSize} entries, inserting a new parameter first evicts the
+ * oldest entry, and reports its timestamp to the eviction listener.
+ *
+ * <p>This class is not thread-safe, it is confined to the single writer thread of the sequencer.
+ */
+public class ConflictParameterCache {
+
+    /**
+     * The timestamp returned for a parameter which is not in the cache.
+     */
+    public static final long ABSENT = Long.MIN_VALUE;
+
+    /**
+     * The fingerprint which marks an empty slot.
+     */
+    private static final long EMPTY = 0L;
+
+    /**
+     * The largest supported maximum number of entries, which keeps the table within 2^29 slots.
+     */
+    private static final long MAX_SUPPORTED_SIZE = 1L << 28;
+
+    /**
+     * The link which marks the end of the update order.
+     */
+    private static final int NIL = -1;
+
+    /**
+     * The maximum number of entries.
+     */
+    @Getter
+    private final long maxSize;
+
+    /**
+     * Called with the timestamp of each entry evicted to respect {@link #maxSize}.
+     */
+    private final LongConsumer evictionListener;
+
+    private final long[] fingerprints;
+
+    private final long[] timestamps;
+
+    /**
+     * The slot of the entry updated before the entry of a slot, or {@link #NIL}.
+     */
+    private final int[] olderLinks;
+
+    /**
+     * The slot of the entry updated after the entry of a slot, or {@link #NIL}.
+     */
+    private final int[] newerLinks;
+
+    private final int mask;
+
+    /**
+     * The number of entries.
+     */
+    private int size = 0;
+
+    /**
+     * The slot of the least recently updated entry, or {@link #NIL}.
+     */
+    private int oldest = NIL;
+
+    /**
+     * The slot of the most recently updated entry, or {@link #NIL}.
+     */
+    private int newest = NIL;
+
+    /**
+     * Returns an empty cache.
+     *
+     * @param maxSize          the maximum number of entries
+     * @param evictionListener called with the timestamp of each evicted entry
+     */
+    public ConflictParameterCache(long maxSize, LongConsumer evictionListener) {
+        if (maxSize < 0 || maxSize > MAX_SUPPORTED_SIZE) {
+            throw new IllegalArgumentException("Invalid conflict cache size " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.evictionListener = evictionListener;
+
+        // Keep the load factor at or below 3/4
+        int capacity = Integer.highestOneBit((int) Math.max(maxSize + maxSize / 3, 1L)) << 1;
+        this.fingerprints = new long[capacity];
+        this.timestamps = new long[capacity];
+        this.olderLinks = new int[capacity];
+        this.newerLinks = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Returns the fingerprint of a conflict parameter of a stream.
+     *
+     * @param streamId      the stream ID
+     * @param conflictParam the conflict parameter
+     * @return the fingerprint, which is never {@link #EMPTY}
+     */
+    static long fingerprint(UUID streamId, byte[] conflictParam) {
+        long hash = mix(streamId.getMostSignificantBits() ^ conflictParam.length);
+        hash = mix(hash ^ streamId.getLeastSignificantBits());
+        for (int i = 0; i < conflictParam.length; i += Long.BYTES) {
+            long word = 0L;
+            for (int j = i; j < Math.min(i + Long.BYTES, conflictParam.length); j++) {
+                word = (word << Byte.SIZE) | (conflictParam[j] & 0xFFL);
+            }
+            hash = mix(hash ^ word);
+        }
+        return hash == EMPTY ? 1L : hash;
+    }
+
+    /**
+     * The finalizer of MurmurHash3, a bijection which spreads every input bit over the output.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private int home(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+    }
+
+    /**
+     * Returns the slot of a fingerprint, or the empty slot where it would be inserted.
+     */
+    private int find(long fingerprint) {
+        int slot = home(fingerprint);
+        while (fingerprints[slot] != EMPTY && fingerprints[slot] != fingerprint) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the latest update timestamp of a conflict parameter.
+     *
+     * @param streamId      the stream ID
+     * @param conflictParam the conflict parameter
+     * @return the timestamp, or {@link #ABSENT} if the parameter is not in the cache
+     */
+    public long get(UUID streamId, byte[] conflictParam) {
+        int slot = find(fingerprint(streamId, conflictParam));
+        return fingerprints[slot] == EMPTY ? ABSENT : timestamps[slot];
+    }
+
+    /**
+     * Records an update of a conflict parameter.
+     *
+     * @param streamId      the stream ID
+     * @param conflictParam the conflict parameter
+     * @param timestamp     the timestamp of the update
+     */
+    public void put(UUID streamId, byte[] conflictParam, long timestamp) {
+        putFingerprint(fingerprint(streamId, conflictParam), timestamp);
+    }
+
+    /**
+     * Records an update of the conflict parameter of a fingerprint.
+     *
+     * @param fingerprint the fingerprint of the conflict parameter
+     * @param timestamp   the timestamp of the update
+     */
+    void putFingerprint(long fingerprint, long timestamp) {
+        int slot = find(fingerprint);
+        if (fingerprints[slot] != EMPTY) {
+            timestamps[slot] = Math.max(timestamps[slot], timestamp);
+            unlink(slot);
+            linkNewest(slot);
+            return;
+        }
+
+        if (maxSize == 0) {
+            evictionListener.accept(timestamp);
+            return;
+        }
+        if (size >= maxSize) {
+            long evictedTimestamp = timestamps[oldest];
+            removeAt(oldest);
+            evictionListener.accept(evictedTimestamp);
+            // The eviction may have shifted the probe sequence of the fingerprint
+            slot = find(fingerprint);
+        }
+
+        fingerprints[slot] = fingerprint;
+        timestamps[slot] = timestamp;
+        linkNewest(slot);
+        size++;
+    }
+
+    /**
+     * Links the entry of a slot as the most recently updated entry.
+     */
+    private void linkNewest(int slot) {
+        olderLinks[slot] = newest;
+        newerLinks[slot] = NIL;
+        if (newest == NIL) {
+            oldest = slot;
+        } else {
+            newerLinks[newest] = slot;
+        }
+        newest = slot;
+    }
+
+    /**
+     * Removes the entry of a slot from the update order.
+     */
+    private void unlink(int slot) {
+        int older = olderLinks[slot];
+        int newer = newerLinks[slot];
+        if (older == NIL) {
+            oldest = newer;
+        } else {
+            newerLinks[older] = newer;
+        }
+        if (newer == NIL) {
+            newest = older;
+        } else {
+            olderLinks[newer] = older;
+        }
+    }
+
+    /**
+     * Moves the entry of a slot to an empty slot, keeping its place in the update order.
+     */
+    private void move(int from, int to) {
+        fingerprints[to] = fingerprints[from];
+        timestamps[to] = timestamps[from];
+        int older = olderLinks[from];
+        int newer = newerLinks[from];
+        olderLinks[to] = older;
+        newerLinks[to] = newer;
+        if (older == NIL) {
+            oldest = to;
+        } else {
+            newerLinks[older] = to;
+        }
+        if (newer == NIL) {
+            newest = to;
+        } else {
+            olderLinks[newer] = to;
+        }
+    }
+
+    /**
+     * Removes the entry of a slot, and shifts back the entries of its probe sequence.
+     */
+    private void removeAt(int slot) {
+        unlink(slot);
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (fingerprints[next] != EMPTY) {
+            // The entry can fill the hole if the hole is between its home slot and its slot
+            int home = home(fingerprints[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                move(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        fingerprints[hole] = EMPTY;
+        timestamps[hole] = 0L;
+        size--;
+    }
+
+    /**
+     * Removes the entries which were last updated before a timestamp. The eviction listener
+     * is not called for these entries.
+     *
+     * @param timestamp the timestamp
+     * @return the number of entries removed
+     */
+    public long invalidateOlderThan(long timestamp) {
+        return invalidateOlderThan(timestamp, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes up to a number of the entries which were last updated before a timestamp,
+     * oldest first. The eviction listener is not called for these entries.
+     *
+     * @param timestamp  the timestamp
+     * @param maxEntries the maximum number of entries to remove
+     * @return the number of entries removed, if it is less than {@code maxEntries} there
+     *     are no more entries older than the timestamp
+     */
+    public int invalidateOlderThan(long timestamp, int maxEntries) {
+        int removed = 0;
+        while (removed < maxEntries && oldest != NIL && timestamps[oldest] < timestamp) {
+            removeAt(oldest);
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all the entries. The eviction listener is not called for these entries.
+     */
+    public void invalidateAll() {
+        Arrays.fill(fingerprints, EMPTY);
+        Arrays.fill(timestamps, 0L);
+        size = 0;
+        oldest = NIL;
+        newest = NIL;
+    }
+
+    /**
+     * Calls a consumer with the fingerprint and the timestamp of every entry, from the least
+     * to the most recently updated. Putting the entries in this order into an empty cache
+     * restores the same cache.
+     *
+     * @param consumer the consumer of the entries
+     */
+    void forEachOldestFirst(EntryConsumer consumer) {
+        for (int slot = oldest; slot != NIL; slot = newerLinks[slot]) {
+            consumer.accept(fingerprints[slot], timestamps[slot]);
+        }
+    }
+
+    /**
+     * A consumer of the fingerprint and the timestamp of an entry.
+     */
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long fingerprint, long timestamp);
+    }
+
+    /**
+     * Returns the number of entries.
+     */
+    public int size() {
+        return size;
+    }
+}
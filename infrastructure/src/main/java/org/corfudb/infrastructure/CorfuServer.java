@@ -37,6 +37,7 @@ import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
+import org.corfudb.infrastructure.log.StreamLogFiles;
 import org.corfudb.protocols.wireprotocol.NettyCorfuMessageDecoder;
 import org.corfudb.protocols.wireprotocol.NettyCorfuMessageEncoder;
 import org.corfudb.runtime.exceptions.unrecoverable.UnrecoverableCorfuError;
@@ -81,6 +82,13 @@ public class CorfuServer {
                     + "<truststore_password_file>] [-b] [-g -o <username_file> -j <password_file>] "
                     + "[-k <seqcache>] [-T <threads>] [-i <channel-implementation>] [-H <seconds>] "
                     + "[-I <cluster-id>] [-x <ciphers>] [-z <tls-protocols>]] [-P <prefix>]"
+                    + " [--mmap-reads [--mmap-read-budget=<bytes>]] [--write-batch-size=<ops>]"
+                    + " [--write-batch-bytes=<bytes>] [--write-batch-linger=<micros>]"
+                    + " [--async-sync-interval=<ms>]"
+                    + " [--cache-off-heap=<bytes>] [--compaction-rate=<bytes>]"
+                    + " [--segment-records=<records>] [--segment-preallocation=<bytes>]"
+                    + " [--log-compression=<codec>] [--log-dirs=<paths>]"
+                    + " [--data-store=<type>] [--sequencer-snapshot-interval=<seconds>]"
                     + " [--agent] <port>\n"
                     + "\n"
                     + "Options:\n"
@@ -121,6 +129,35 @@ public class CorfuServer {
                     + "              If there is no log, then this will be the size of the log unit"
                     + "\n                                                                        "
                     + "                evicted entries will be auto-trimmed. [default: 0.5].\n"
+                    + " --cache-off-heap=<bytes>                                                 "
+                    + "              Keep the cached log entries serialized in pooled direct "
+                    + "memory, up to the given number of bytes, instead of on the heap.\n"
+                    + " --compaction-rate=<bytes>                                                "
+                    + "              The I/O bandwidth budget of log compaction in bytes per "
+                    + "second, or 0 for no limit [default: 67108864].\n"
+                    + " --segment-records=<records>                                              "
+                    + "              The number of addresses per segment file of a new log. "
+                    + "Existing logs keep the number they were created with [default: 10000].\n"
+                    + " --segment-preallocation=<bytes>                                          "
+                    + "              The size to which the next segment file is zero-filled in "
+                    + "the background, or 0 to grow segments by appends [default: 0].\n"
+                    + " --log-compression=<codec>                                                "
+                    + "              The codec that the data of new log records is compressed "
+                    + "with, none or deflate. Existing records are read with the codec they "
+                    + "were written with [default: none].\n"
+                    + " --log-dirs=<paths>                                                       "
+                    + "              Comma-separated paths, typically on separate devices, that "
+                    + "the log segments are spread across together with the log path, "
+                    + "round-robin by segment number. Each device is written and synced by "
+                    + "its own threads. The log directories of an existing log can't be "
+                    + "changed.\n"
+                    + " --data-store=<type>                                                      "
+                    + "              How the server state is persisted, journal or files. The "
+                    + "journal store appends updates to a journal that is synced in batches "
+                    + "and periodically snapshotted, and imports the files of the files "
+                    + "store on its first start, then renames them. The files store writes "
+                    + "a file per key, and refuses a log path kept by the journal store "
+                    + "[default: journal].\n"
                     + " -H <seconds>, --HandshakeTimeout=<sceonds>                               "
                     + "              Handshake timeout in seconds [default: 10].\n               "
                     + " -t <token>, --initial-token=<token>                                      "
@@ -130,6 +167,10 @@ public class CorfuServer {
                     + "                                                                          "
                     + " -k <seqcache>, --sequencer-cache-size=<seqcache>                         "
                     + "               The size of the sequencer's cache. [default: 250000].\n    "
+                    + " --sequencer-snapshot-interval=<seconds>                                  "
+                    + "              The interval between two snapshots of the sequencer state, "
+                    + "which a restarted sequencer resumes from, or 0 to disable them "
+                    + "[default: 30].\n"
                     + " -p <seconds>, --compact=<seconds>                                        "
                     + "              The rate the log unit should compact entries (find the,\n"
                     + "                                                                          "
@@ -142,6 +183,28 @@ public class CorfuServer {
                     + "              Layout endpoint to seed Management Server\n"
                     + " -n, --no-verify                                                          "
                     + "              Disable checksum computation and verification.\n"
+                    + " --mmap-reads                                                             "
+                    + "              Serve reads of full log segments from memory-mapped files.\n"
+                    + " --mmap-read-budget=<bytes>                                               "
+                    + "              The maximum number of bytes the log unit maps for reads\n"
+                    + "                                                                          "
+                    + "              [default: 1073741824].\n"
+                    + " --write-batch-size=<ops>                                                 "
+                    + "              The maximum number of log unit writes synced together\n"
+                    + "                                                                          "
+                    + "              [default: 50].\n"
+                    + " --write-batch-bytes=<bytes>                                              "
+                    + "              The maximum number of payload bytes synced together\n"
+                    + "                                                                          "
+                    + "              [default: 4194304].\n"
+                    + " --write-batch-linger=<micros>                                            "
+                    + "              The time a write batch waits for more writes before it is\n"
+                    + "                                                                          "
+                    + "              synced, in microseconds [default: 0].\n"
+                    + " --async-sync-interval=<ms>                                               "
+                    + "              The time that asynchronous writes, which are acknowledged "
+                    + "before they are durable, may stay unsynced, in milliseconds, or 0 to "
+                    + "sync them like other writes [default: 10].\n"
                     + " -e, --enable-tls                                                         "
                     + "              Enable TLS.\n"
                     + " -u <keystore>, --keystore=<keystore>                                     "
@@ -478,6 +541,12 @@ public class CorfuServer {
                         .get("--log-path"));
                 try {
                     FileUtils.cleanDirectory(serviceDir);
+                    for (String logDir : StreamLogFiles.getLogDirs(opts)) {
+                        File dir = new File(logDir);
+                        if (dir.exists()) {
+                            FileUtils.cleanDirectory(dir);
+                        }
+                    }
                 } catch (IOException ioe) {
                     throw new UnrecoverableCorfuError(ioe);
                 }
@@ -21,7 +21,6 @@ import java.util.Map;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
-import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import lombok.Getter;
 
@@ -77,10 +76,27 @@ public class DataStore implements IDataStore {
             // persistent dataSture case
             isPersistent = true;
             this.logDir = (String) opts.get("--log-path");
+            checkNotJournaled(logDir);
             cache = buildPersistentDs();
         }
     }
 
+    /**
+     * Refuses to use a log directory whose state is kept by a {@link JournaledDataStore}.
+     * Its files, if any, were imported and are stale, using them would roll back the epoch,
+     * the layout and the consensus state of the server.
+     *
+     * @param logDir the log directory
+     */
+    private static void checkNotJournaled(String logDir) {
+        if (Files.exists(Paths.get(logDir, JournaledDataStore.JOURNAL_FILE))
+                || Files.exists(Paths.get(logDir, JournaledDataStore.SNAPSHOT_FILE))) {
+            throw new IllegalStateException("The server state in " + logDir
+                    + " is kept by the journal data store, it can't be opened with the "
+                    + "files data store");
+        }
+    }
+
     /**
      * obtain an in-memory cache, no content loader, no writer, no size limit.
      * @return  new LoadingCache for the DataStore
@@ -94,12 +110,7 @@ public class DataStore implements IDataStore {
 
 
     public static int getChecksum(byte[] bytes) {
-        Hasher hasher = Hashing.crc32c().newHasher();
-        for (byte a : bytes) {
-            hasher.putByte(a);
-        }
-
-        return hasher.hash().asInt();
+        return Hashing.crc32c().hashBytes(bytes).asInt();
     }
 
     /**
@@ -0,0 +1,463 @@
+package org.corfudb.infrastructure;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.corfudb.format.Types.DataStoreEntry;
+import org.corfudb.format.Types.Metadata;
+import org.corfudb.runtime.exceptions.DataCorruptionException;
+import org.corfudb.runtime.exceptions.unrecoverable.UnrecoverableCorfuInterruptedError;
+import org.corfudb.util.JsonUtils;
+
+import static org.corfudb.infrastructure.log.StreamLogFiles.METADATA_SIZE;
+import static org.corfudb.infrastructure.log.StreamLogFiles.getByteBufferWithMetaData;
+import static org.corfudb.infrastructure.log.StreamLogFiles.getChecksum;
+import static org.corfudb.infrastructure.utils.Persistence.syncDirectory;
+
+/**
+ * Stores data as JSON, like {@link DataStore}, but keeps every value in memory and persists
+ * the updates to an append-only journal rather than to a file per key.
+ *
+ * <p>An update appends a record to the journal and returns once the journal is synced. The
+ * updates that wait for the journal at the same time share a single sync, so concurrent
+ * updates don't serialize on the disk. A value is only returned by a read once it is durable.
+ *
+ * <p>Once the journal grows past {@link #SNAPSHOT_THRESHOLD} bytes, all the values are
+ * written to a snapshot file and the journal is truncated. On startup, the snapshot is
+ * loaded and the journal is replayed over it. If neither exists, the values of the
+ * {@link DataStore} files in the same directory are imported.
+ */
+@Slf4j
+public class JournaledDataStore implements IDataStore, AutoCloseable {
+
+    static final String JOURNAL_FILE = "datastore.journal";
+    static final String SNAPSHOT_FILE = "datastore.snapshot";
+
+    /**
+     * The suffix appended to the {@link DataStore} files once their values are imported.
+     */
+    static final String IMPORTED_SUFFIX = ".imported";
+
+    /**
+     * The size of the journal past which the values are snapshotted.
+     */
+    static final long SNAPSHOT_THRESHOLD = 4L * 1024L * 1024L;
+
+    private final String logDir;
+    private final long snapshotThreshold;
+    private final Path journalPath;
+    private final Path snapshotPath;
+
+    /**
+     * The values by key, a deleted key is kept with a null value until the next snapshot.
+     */
+    private final Map<String, Value> values = new ConcurrentHashMap<>();
+
+    private final Object appendLock = new Object();
+    private final Object syncLock = new Object();
+    private final FileChannel journal;
+
+    /**
+     * The number of bytes appended to the journal since the store was opened, including
+     * the bytes of the journal that was truncated by snapshots.
+     */
+    private volatile long appended = 0L;
+
+    /**
+     * The number of appended bytes that are known to be durable.
+     */
+    private volatile long synced = 0L;
+
+    private boolean syncing = false;
+
+    @AllArgsConstructor
+    private static class Value {
+        @Nullable
+        final String json;
+        final long position;
+    }
+
+    /**
+     * Returns a data store that is persisted in a directory.
+     *
+     * @param logDir the directory of the journal and the snapshot
+     */
+    public JournaledDataStore(String logDir) {
+        this(logDir, SNAPSHOT_THRESHOLD);
+    }
+
+    @VisibleForTesting
+    JournaledDataStore(String logDir, long snapshotThreshold) {
+        this.logDir = logDir;
+        this.snapshotThreshold = snapshotThreshold;
+        this.journalPath = Paths.get(logDir, JOURNAL_FILE);
+        this.snapshotPath = Paths.get(logDir, SNAPSHOT_FILE);
+
+        try {
+            boolean imported = false;
+            if (Files.exists(snapshotPath)) {
+                readRecords(snapshotPath);
+            } else if (Files.notExists(journalPath)) {
+                imported = importDataStoreFiles();
+            }
+            if (Files.exists(journalPath)) {
+                readRecords(journalPath);
+            }
+
+            journal = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            syncDirectory(logDir);
+            if (imported) {
+                synchronized (appendLock) {
+                    snapshot();
+                }
+            }
+            // The imported values are durable, the files would go stale at the first update
+            retireDataStoreFiles();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Imports the values of the files of a {@link DataStore} in the log directory. The
+     * files are retired by {@link #retireDataStoreFiles()} once the values are durable.
+     *
+     * @return true if any value was imported
+     */
+    private boolean importDataStoreFiles() throws IOException {
+        File[] files = new File(logDir).listFiles((dir, name) ->
+                name.endsWith(DataStore.EXTENSION));
+        if (files == null || files.length == 0) {
+            return false;
+        }
+
+        for (File file : files) {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            int checksum = buf.getInt();
+            byte[] strBytes = Arrays.copyOfRange(bytes, Integer.BYTES, bytes.length);
+            if (checksum != DataStore.getChecksum(strBytes)) {
+                throw new DataCorruptionException();
+            }
+
+            String name = file.getName();
+            String key = name.substring(0, name.length() - DataStore.EXTENSION.length());
+            values.put(key, new Value(new String(strBytes), 0L));
+        }
+
+        log.info("importDataStoreFiles: imported {} values from {}", files.length, logDir);
+        return true;
+    }
+
+    /**
+     * Renames the files of a {@link DataStore} in the log directory, so that they are kept
+     * as a backup but never read again. The files are only present after an import, or if
+     * the server crashed before the previous start could rename them.
+     */
+    private void retireDataStoreFiles() throws IOException {
+        File[] files = new File(logDir).listFiles((dir, name) ->
+                name.endsWith(DataStore.EXTENSION));
+        if (files == null || files.length == 0) {
+            return;
+        }
+
+        for (File file : files) {
+            Path path = file.toPath();
+            Files.move(path, Paths.get(path + IMPORTED_SUFFIX),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        syncDirectory(logDir);
+        log.info("retireDataStoreFiles: renamed {} imported files in {}", files.length, logDir);
+    }
+
+    /**
+     * Applies the records of a journal or snapshot file to the values. A record at the end
+     * of the file that was partially written before a crash is truncated.
+     *
+     * @param path the file to read
+     */
+    private void readRecords(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        int offset = 0;
+        int count = 0;
+        while (offset < bytes.length) {
+            DataStoreEntry entry = parseRecord(bytes, offset);
+            if (entry == null) {
+                log.warn("readRecords: truncating partially written record at offset {} of {}",
+                        offset, path);
+                try (FileChannel fc = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    fc.truncate(offset);
+                    fc.force(true);
+                }
+                break;
+            }
+
+            if (entry.hasValue()) {
+                values.put(entry.getKey(), new Value(entry.getValue(), 0L));
+            } else {
+                values.remove(entry.getKey());
+            }
+            offset += METADATA_SIZE + entry.getSerializedSize();
+            count++;
+        }
+
+        log.debug("readRecords: applied {} records of {}", count, path);
+    }
+
+    /**
+     * Parses the record at an offset of a journal or snapshot file.
+     *
+     * @return the entry of the record, or null if it is the last record of the file and
+     *     was partially written.
+     */
+    private @Nullable DataStoreEntry parseRecord(byte[] bytes, int offset) {
+        if (bytes.length - offset < METADATA_SIZE) {
+            return null;
+        }
+
+        Metadata metadata;
+        try {
+            metadata = Metadata.parseFrom(Arrays.copyOfRange(bytes, offset,
+                    offset + METADATA_SIZE));
+        } catch (InvalidProtocolBufferException e) {
+            throw new DataCorruptionException();
+        }
+        if (metadata.getLengthChecksum() != getChecksum(metadata.getLength())) {
+            throw new DataCorruptionException();
+        }
+
+        int start = offset + METADATA_SIZE;
+        long end = (long) start + metadata.getLength();
+        if (end > bytes.length) {
+            return null;
+        }
+
+        if (metadata.getPayloadChecksum() != getChecksum(bytes, start, metadata.getLength())) {
+            if (end == bytes.length) {
+                // A torn append of the last record
+                return null;
+            }
+            throw new DataCorruptionException();
+        }
+
+        try {
+            return DataStoreEntry.parseFrom(Arrays.copyOfRange(bytes, start, (int) end));
+        } catch (InvalidProtocolBufferException e) {
+            throw new DataCorruptionException();
+        }
+    }
+
+    /**
+     * Writes all the values to a new snapshot and truncates the journal. The caller must
+     * hold the append lock.
+     */
+    private void snapshot() throws IOException {
+        Path tmpPath = Paths.get(snapshotPath + ".tmp");
+        try (FileChannel fc = FileChannel.open(tmpPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<String, Value> value : values.entrySet()) {
+                if (value.getValue().json != null) {
+                    write(fc, getByteBufferWithMetaData(DataStoreEntry.newBuilder()
+                            .setKey(value.getKey())
+                            .setValue(value.getValue().json)
+                            .build()));
+                }
+            }
+            fc.force(true);
+        }
+
+        Files.move(tmpPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(logDir);
+
+        // Replaying the journal over the snapshot yields the same values, so it can
+        // be truncated after the snapshot is durable
+        journal.truncate(0L);
+        journal.force(true);
+        values.values().removeIf(value -> value.json == null);
+
+        synchronized (syncLock) {
+            synced = Math.max(synced, appended);
+            syncLock.notifyAll();
+        }
+        log.debug("snapshot: wrote {} values to {}", values.size(), snapshotPath);
+    }
+
+    private static void write(FileChannel fc, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            fc.write(buf);
+        }
+    }
+
+    /**
+     * Appends an update of a key to the journal, and waits until it is durable.
+     *
+     * @param key  the key to update
+     * @param json the new value, or null to delete the key
+     */
+    private void update(String key, @Nullable String json) {
+        DataStoreEntry.Builder entry = DataStoreEntry.newBuilder().setKey(key);
+        if (json != null) {
+            entry.setValue(json);
+        }
+        ByteBuffer record = getByteBufferWithMetaData(entry.build());
+
+        long position;
+        try {
+            synchronized (appendLock) {
+                long size = journal.size();
+                try {
+                    write(journal, record);
+                } catch (IOException e) {
+                    // Truncate the partially written record, so that it isn't followed
+                    // by the next records
+                    journal.truncate(size);
+                    throw e;
+                }
+
+                position = appended + record.capacity();
+                appended = position;
+                values.put(key, new Value(json, position));
+
+                if (journal.size() >= snapshotThreshold) {
+                    snapshot();
+                }
+            }
+
+            awaitDurable(position);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Waits until the journal is durable up to a position. If no sync is in progress, the
+     * journal is synced by the calling thread, otherwise the thread waits for the sync in
+     * progress and the next one if needed.
+     *
+     * @param position the position in bytes appended since the store was opened
+     */
+    private void awaitDurable(long position) throws IOException {
+        while (synced < position) {
+            long target;
+            synchronized (syncLock) {
+                while (syncing && synced < position) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException e) {
+                        throw new UnrecoverableCorfuInterruptedError(e);
+                    }
+                }
+                if (synced >= position) {
+                    return;
+                }
+                syncing = true;
+                target = appended;
+            }
+
+            boolean success = false;
+            try {
+                journal.force(false);
+                success = true;
+            } finally {
+                synchronized (syncLock) {
+                    syncing = false;
+                    if (success) {
+                        synced = Math.max(synced, target);
+                    }
+                    syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private @Nullable Value getDurableValue(String key) throws IOException {
+        Value value = values.get(key);
+        if (value != null) {
+            awaitDurable(value.position);
+        }
+        return value;
+    }
+
+    @Override
+    public <T> void put(Class<T> tclass, String prefix, String key, T value) {
+        update(getKey(prefix, key), JsonUtils.parser.toJson(value, tclass));
+    }
+
+    @Override
+    public <T> T get(Class<T> tclass, String prefix, String key) {
+        try {
+            Value value = getDurableValue(getKey(prefix, key));
+            return value == null ? null : getObject(value.json, tclass);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public <T> List<T> getAll(Class<T> tclass, String prefix) {
+        List<T> list = new ArrayList<>();
+        try {
+            for (String key : values.keySet()) {
+                if (key.startsWith(prefix)) {
+                    Value value = getDurableValue(key);
+                    if (value != null && value.json != null) {
+                        list.add(getObject(value.json, tclass));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return list;
+    }
+
+    @Override
+    public <T> void delete(Class<T> tclass, String prefix, String key) {
+        update(getKey(prefix, key), null);
+    }
+
+    /**
+     * Closes the journal, the store can't be updated after.
+     */
+    @Override
+    public void close() {
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.warn("close: failed to close the journal {}", journalPath, e);
+        }
+    }
+
+    // Helper methods
+
+    private <T> T getObject(@Nullable String json, Class<T> tclass) {
+        return json != null && !json.trim().isEmpty()
+                ? JsonUtils.parser.fromJson(json, tclass) : null;
+    }
+
+    private String getKey(String prefix, String key) {
+        return prefix + "_" + key;
+    }
+}
@@ -1,6 +1,9 @@
 package org.corfudb.infrastructure;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.github.benmanes.caffeine.cache.RemovalCause;
@@ -10,13 +13,19 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.channel.ChannelHandlerContext;
 
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nonnull;
+
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
@@ -28,17 +37,23 @@ import org.corfudb.protocols.wireprotocol.CorfuMsgType;
 import org.corfudb.protocols.wireprotocol.CorfuPayloadMsg;
 import org.corfudb.protocols.wireprotocol.ILogData;
 import org.corfudb.protocols.wireprotocol.LogData;
+import org.corfudb.protocols.wireprotocol.MultipleFillHoleRequest;
+import org.corfudb.protocols.wireprotocol.MultipleFillHoleResponse;
 import org.corfudb.protocols.wireprotocol.MultipleReadRequest;
 import org.corfudb.protocols.wireprotocol.RangeWriteMsg;
 import org.corfudb.protocols.wireprotocol.ReadRequest;
 import org.corfudb.protocols.wireprotocol.ReadResponse;
+import org.corfudb.protocols.wireprotocol.StreamTailsResponse;
 import org.corfudb.protocols.wireprotocol.TrimRequest;
+import org.corfudb.protocols.wireprotocol.WriteMode;
 import org.corfudb.protocols.wireprotocol.WriteRequest;
 import org.corfudb.runtime.exceptions.DataCorruptionException;
 import org.corfudb.runtime.exceptions.DataOutrankedException;
+import org.corfudb.runtime.exceptions.LogUnitException;
 import org.corfudb.runtime.exceptions.OverwriteException;
 import org.corfudb.runtime.exceptions.TrimmedException;
 import org.corfudb.runtime.exceptions.ValueAdoptedException;
+import org.corfudb.util.MetricsUtils;
 import org.corfudb.util.Utils;
 
 
@@ -97,6 +112,34 @@ public class LogUnitServer extends AbstractServer {
     private final LoadingCache<Long, ILogData> dataCache;
     private final long maxCacheSize;
 
+    /**
+     * Whether cached entries are kept serialized in pooled direct memory, in which case
+     * {@link #maxCacheSize} is a budget of off-heap bytes.
+     */
+    private final boolean offHeapCache;
+
+    /**
+     * The approximate on-heap overhead of an off-heap cache entry, which is accounted
+     * for in the weight of the entry.
+     */
+    private static final int OFF_HEAP_ENTRY_OVERHEAD = 128;
+
+    private static final String METRICS_PREFIX = "corfu.server.logunit.";
+
+    /**
+     * Read requests for more addresses than this are bulk reads, whose entries are not
+     * admitted into the cache even if the client didn't ask for it.
+     */
+    @VisibleForTesting
+    static final int SCAN_READ_SIZE = 256;
+
+    /**
+     * Cache hits and misses of bulk reads, which are not recorded in the cache statistics,
+     * so that the hit rate of the cache is the one seen by the other reads.
+     */
+    private final Counter scanHits;
+    private final Counter scanMisses;
+
     private final StreamLog streamLog;
 
     private final BatchWriter<Long, ILogData> batchWriter;
@@ -109,7 +152,10 @@ public class LogUnitServer extends AbstractServer {
         this.opts = serverContext.getServerConfig();
         double cacheSizeHeapRatio = Double.parseDouble((String) opts.get("--cache-heap-ratio"));
 
-        maxCacheSize = (long) (Runtime.getRuntime().maxMemory() * cacheSizeHeapRatio);
+        long offHeapCacheSize = getLongOption("--cache-off-heap", 0L);
+        offHeapCache = offHeapCacheSize > 0;
+        maxCacheSize = offHeapCache ? offHeapCacheSize
+                : (long) (Runtime.getRuntime().maxMemory() * cacheSizeHeapRatio);
 
         if ((Boolean) opts.get("--memory")) {
             log.warn("Log unit opened in-memory mode (Maximum size={}). "
@@ -123,23 +169,258 @@ public class LogUnitServer extends AbstractServer {
             streamLog = new StreamLogFiles(serverContext, (Boolean) opts.get("--no-verify"));
         }
 
-        batchWriter = new BatchWriter(streamLog);
+        batchWriter = new BatchWriter(streamLog,
+                getIntOption("--write-batch-size", BatchWriter.BATCH_SIZE),
+                getLongOption("--write-batch-bytes", BatchWriter.MAX_BATCH_BYTES),
+                getLongOption("--write-batch-linger", BatchWriter.MAX_LINGER_MICROS),
+                getLongOption("--async-sync-interval", BatchWriter.ASYNC_SYNC_INTERVAL_MS),
+                serverContext.getMetrics());
 
         dataCache = Caffeine.<Long, ILogData>newBuilder()
-                .<Long, ILogData>weigher((k, v) -> ((LogData) v).getData() == null ? 1 : (
-                        (LogData) v).getData().length)
+                .<Long, ILogData>weigher((k, v) -> getCacheWeight((LogData) v))
                 .maximumWeight(maxCacheSize)
                 .removalListener(this::handleEviction)
                 .writer(batchWriter)
-                .build(this::handleRetrieval);
+                .recordStats()
+                .build(new CacheLoader<Long, ILogData>() {
+                    // Reads only load through loadAll, see readCacheEntry
+                    @Override
+                    public ILogData load(@Nonnull Long address) {
+                        return handleCacheLoad(address);
+                    }
+
+                    @Override
+                    public Map<Long, ILogData> loadAll(
+                            @Nonnull Iterable<? extends Long> addresses) {
+                        return handleCacheLoadAll(addresses);
+                    }
+                });
 
         MetricRegistry metrics = serverContext.getMetrics();
-//        MetricsUtils.addCacheGauges(metrics, metricsPrefix + "cache.", dataCache);
+        MetricsUtils.addCacheGauges(metrics, METRICS_PREFIX + "cache.", dataCache);
+        try {
+            metrics.register(METRICS_PREFIX + "cache.weighted-size", (Gauge<Long>) () ->
+                    dataCache.policy().eviction().get().weightedSize().orElse(0L));
+        } catch (IllegalArgumentException e) {
+            // Re-registering metrics during test runs, not a problem
+        }
+        scanHits = metrics.counter(METRICS_PREFIX + "cache.scan.hits");
+        scanMisses = metrics.counter(METRICS_PREFIX + "cache.scan.misses");
+        try {
+            metrics.register(METRICS_PREFIX + "cache.scan.hit-rate", (Gauge<Double>) () -> {
+                long requests = scanHits.getCount() + scanMisses.getCount();
+                return requests == 0 ? 1.0 : (double) scanHits.getCount() / requests;
+            });
+        } catch (IllegalArgumentException e) {
+            // Re-registering metrics during test runs, not a problem
+        }
 
         Runnable task = () -> streamLog.compact();
         compactor = scheduler.scheduleAtFixedRate(task, 10, 45, TimeUnit.MINUTES);
     }
 
+    private int getIntOption(String option, int defaultValue) {
+        return opts.get(option) != null ? Integer.parseInt((String) opts.get(option))
+                : defaultValue;
+    }
+
+    private long getLongOption(String option, long defaultValue) {
+        return opts.get(option) != null ? Long.parseLong((String) opts.get(option))
+                : defaultValue;
+    }
+
+    private int getCacheWeight(LogData entry) {
+        if (offHeapCache) {
+            return entry.getSizeEstimate() + OFF_HEAP_ENTRY_OVERHEAD;
+        }
+        return entry.getData() == null ? 1 : entry.getData().length;
+    }
+
+    /**
+     * Convert an entry into the form that is kept in the cache. When the cache is
+     * off-heap, the entry is serialized into a pooled direct buffer, which is released
+     * when the entry is evicted.
+     *
+     * @param entry The entry to be cached.
+     * @return The entry to insert into the cache.
+     */
+    private ILogData toCacheEntry(LogData entry) {
+        if (!offHeapCache || entry == null || entry.isSerializedOnly()) {
+            return entry;
+        }
+        return entry.serializeToDirectBuffer();
+    }
+
+    /**
+     * Load the cache misses of a multi-address read in bulk, so that the stream log can
+     * read adjacent records together.
+     */
+    private Map<Long, ILogData> handleCacheLoadAll(Iterable<? extends Long> addresses) {
+        Map<Long, LogData> entries = streamLog.readAll(addresses, offHeapCache);
+        log.trace("Retrieved[{} entries]", entries.size());
+
+        Map<Long, ILogData> cacheEntries = new HashMap<>();
+        entries.forEach((address, entry) -> cacheEntries.put(address, toCacheEntry(entry)));
+        return cacheEntries;
+    }
+
+    /**
+     * Load a cache miss. When the cache is off-heap, the entry is read from the stream log
+     * in its serialized form, so that it is served as is, without being decoded and
+     * encoded again on the log unit.
+     */
+    private ILogData handleCacheLoad(long address) {
+        if (!offHeapCache) {
+            return handleRetrieval(address);
+        }
+
+        LogData entry = streamLog.readSerialized(address);
+        log.trace("Retrieved[{} : {}]", address, entry);
+        return toCacheEntry(entry);
+    }
+
+    private void releaseCacheEntry(ILogData entry) {
+        if (offHeapCache && entry != null) {
+            entry.releaseBuffer();
+        }
+    }
+
+    /**
+     * Read a set of entries from the cache into a read response. The cache misses are
+     * loaded together. Off-heap entries are retained, so that they can't be released by
+     * an eviction before the response is serialized, and are added to the pinned entries
+     * to be released by {@link #sendReadResponse}.
+     *
+     * @param addresses The addresses to read.
+     * @param rr        The read response to fill.
+     * @param pinned    The entries retained for the response.
+     */
+    private void readCacheEntries(Iterable<Long> addresses, ReadResponse rr,
+                                  List<LogData> pinned) {
+        Map<Long, ILogData> entries = dataCache.getAll(addresses);
+        for (long address : addresses) {
+            LogData entry = (LogData) entries.get(address);
+            if (entry != null && offHeapCache) {
+                if (entry.tryAcquireBuffer()) {
+                    pinned.add(entry);
+                } else {
+                    // The entry was evicted and released concurrently, load it again
+                    entry = readCacheEntry(address, pinned);
+                }
+            }
+            rr.put(address, entry == null ? LogData.getEmpty(address) : entry);
+        }
+    }
+
+    /**
+     * Read the entries of a bulk read into a read response. The entries that are cached
+     * are served from the cache, without being promoted in its statistics, and the misses
+     * are read from the stream log without being admitted into the cache, so that a scan
+     * doesn't evict the entries the other reads keep hitting.
+     *
+     * @param addresses The addresses to read.
+     * @param rr        The read response to fill.
+     * @param pinned    The entries retained for the response.
+     */
+    private void readScanEntries(Iterable<Long> addresses, ReadResponse rr,
+                                 List<LogData> pinned) {
+        List<Long> misses = new ArrayList<>();
+        for (long address : addresses) {
+            LogData entry = (LogData) dataCache.asMap().get(address);
+            if (entry == null || (offHeapCache && !entry.tryAcquireBuffer())) {
+                misses.add(address);
+                continue;
+            }
+            if (offHeapCache) {
+                pinned.add(entry);
+            }
+            rr.put(address, entry);
+        }
+
+        scanHits.inc(rr.getAddresses().size());
+        scanMisses.inc(misses.size());
+        if (misses.isEmpty()) {
+            return;
+        }
+
+        Map<Long, LogData> entries = streamLog.readAll(misses, false);
+        for (long address : misses) {
+            LogData entry = entries.get(address);
+            rr.put(address, entry == null ? LogData.getEmpty(address) : entry);
+        }
+    }
+
+    private void readEntries(List<Long> addresses, boolean cacheable, ReadResponse rr,
+                             List<LogData> pinned) {
+        if (cacheable && addresses.size() <= SCAN_READ_SIZE) {
+            readCacheEntries(addresses, rr, pinned);
+        } else {
+            readScanEntries(addresses, rr, pinned);
+        }
+    }
+
+    /**
+     * Read an entry from the cache, retaining it if the cache is off-heap. A miss goes
+     * through the bulk loader like the other reads, since the cache runs the bulk loader
+     * outside of its map, while a single address load would hold a bin of the map for the
+     * duration of the segment I/O.
+     */
+    private LogData readCacheEntry(long address, List<LogData> pinned) {
+        while (true) {
+            LogData entry = (LogData) dataCache.getAll(Collections.singleton(address))
+                    .get(address);
+            if (entry == null || !offHeapCache) {
+                return entry;
+            }
+            if (entry.tryAcquireBuffer()) {
+                pinned.add(entry);
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * Send a read response and release the entries that were pinned for it. Responses are
+     * serialized on the channel's event loop in the order the writes are submitted, so
+     * releasing the entries through the same event loop happens after serialization.
+     */
+    private void sendReadResponse(CorfuPayloadMsg<?> msg, ChannelHandlerContext ctx,
+                                  IServerRouter r, ReadResponse rr, List<LogData> pinned) {
+        r.sendResponse(ctx, msg, CorfuMsgType.READ_RESPONSE.payloadMsg(rr));
+        releasePinned(ctx, pinned);
+    }
+
+    private void releasePinned(ChannelHandlerContext ctx, List<LogData> pinned) {
+        if (pinned.isEmpty()) {
+            return;
+        }
+
+        Runnable release = () -> pinned.forEach(LogData::releaseBuffer);
+        if (ctx == null || ctx.executor() == null) {
+            release.run();
+            return;
+        }
+
+        try {
+            ctx.executor().execute(release);
+        } catch (RejectedExecutionException e) {
+            release.run();
+        }
+    }
+
+    private void putCacheEntry(long address, LogData entry) {
+        ILogData cacheEntry = toCacheEntry(entry);
+        try {
+            dataCache.put(address, cacheEntry);
+        } catch (RuntimeException e) {
+            // The entry was rejected by the writer and never made it into the cache
+            if (cacheEntry != entry) {
+                releaseCacheEntry(cacheEntry);
+            }
+            throw e;
+        }
+    }
+
     /**
      * Service an incoming request for maximum global address the log unit server has written.
      */
@@ -148,6 +429,27 @@ public class LogUnitServer extends AbstractServer {
         r.sendResponse(ctx, msg, CorfuMsgType.TAIL_RESPONSE.payloadMsg(streamLog.getGlobalTail()));
     }
 
+    /**
+     * Service an incoming request for the last durable address of the log unit.
+     */
+    @ServerHandler(type = CorfuMsgType.DURABLE_TAIL_REQUEST)
+    public void handleDurableTailRequest(CorfuMsg msg, ChannelHandlerContext ctx,
+                                         IServerRouter r) {
+        r.sendResponse(ctx, msg, CorfuMsgType.DURABLE_TAIL_RESPONSE
+                .payloadMsg(batchWriter.getDurableTail()));
+    }
+
+    /**
+     * Service an incoming request for the highest address the log unit server has written
+     * for every stream.
+     */
+    @ServerHandler(type = CorfuMsgType.STREAM_TAILS_REQUEST)
+    public void handleStreamTailsRequest(CorfuMsg msg, ChannelHandlerContext ctx,
+                                         IServerRouter r) {
+        r.sendResponse(ctx, msg, CorfuMsgType.STREAM_TAILS_RESPONSE
+                .payloadMsg(new StreamTailsResponse(streamLog.getStreamTails())));
+    }
+
     /**
      * Service an incoming request to retrieve the starting address of this logging unit.
      */
@@ -165,7 +467,16 @@ public class LogUnitServer extends AbstractServer {
                 .getPayload().getGlobalAddress(), msg.getPayload().getData().getBackpointerMap());
 
         try {
-            dataCache.put(msg.getPayload().getGlobalAddress(), msg.getPayload().getData());
+            long address = msg.getPayload().getGlobalAddress();
+            LogData entry = (LogData) msg.getPayload().getData();
+            if (msg.getPayload().getWriteMode() == WriteMode.ASYNC) {
+                // The entry bypasses the cache, whose writer waits for the entry to be
+                // synced, it is loaded from the log on the next read
+                batchWriter.writeAsync(address, entry);
+                dataCache.invalidate(address);
+            } else {
+                putCacheEntry(address, entry);
+            }
             r.sendResponse(ctx, msg, CorfuMsgType.WRITE_OK.msg());
 
         } catch (OverwriteException ex) {
@@ -182,18 +493,17 @@ public class LogUnitServer extends AbstractServer {
     private void read(CorfuPayloadMsg<ReadRequest> msg, ChannelHandlerContext ctx, IServerRouter r) {
         log.trace("read: {}", msg.getPayload().getRange());
         ReadResponse rr = new ReadResponse();
+        List<LogData> pinned = new ArrayList<>();
         try {
+            List<Long> addresses = new ArrayList<>();
             for (Long l = msg.getPayload().getRange().lowerEndpoint();
                     l < msg.getPayload().getRange().upperEndpoint() + 1L; l++) {
-                ILogData e = dataCache.get(l);
-                if (e == null) {
-                    rr.put(l, LogData.getEmpty(l));
-                } else {
-                    rr.put(l, (LogData) e);
-                }
+                addresses.add(l);
             }
-            r.sendResponse(ctx, msg, CorfuMsgType.READ_RESPONSE.payloadMsg(rr));
+            readEntries(addresses, msg.getPayload().isCacheable(), rr, pinned);
+            sendReadResponse(msg, ctx, r, rr, pinned);
         } catch (DataCorruptionException e) {
+            releasePinned(ctx, pinned);
             r.sendResponse(ctx, msg, CorfuMsgType.ERROR_DATA_CORRUPTION.msg());
         }
     }
@@ -203,17 +513,13 @@ public class LogUnitServer extends AbstractServer {
         log.trace("multiRead: {}", msg.getPayload().getAddresses());
 
         ReadResponse rr = new ReadResponse();
+        List<LogData> pinned = new ArrayList<>();
         try {
-            for (Long l : msg.getPayload().getAddresses()) {
-                ILogData e = dataCache.get(l);
-                if (e == null) {
-                    rr.put(l, LogData.getEmpty(l));
-                } else {
-                    rr.put(l, (LogData) e);
-                }
-            }
-            r.sendResponse(ctx, msg, CorfuMsgType.READ_RESPONSE.payloadMsg(rr));
+            readEntries(msg.getPayload().getAddresses(), msg.getPayload().isCacheable(),
+                    rr, pinned);
+            sendReadResponse(msg, ctx, r, rr, pinned);
         } catch (DataCorruptionException e) {
+            releasePinned(ctx, pinned);
             r.sendResponse(ctx, msg, CorfuMsgType.ERROR_DATA_CORRUPTION.msg());
         }
     }
@@ -223,7 +529,7 @@ public class LogUnitServer extends AbstractServer {
         IServerRouter r) {
         try {
             long address = msg.getPayload().getAddress();
-            dataCache.put(address, LogData.getHole(address));
+            putCacheEntry(address, LogData.getHole(address));
             r.sendResponse(ctx, msg, CorfuMsgType.WRITE_OK.msg());
 
         } catch (OverwriteException e) {
@@ -237,6 +543,31 @@ public class LogUnitServer extends AbstractServer {
         }
     }
 
+    /**
+     * Fill the holes at a set of addresses. The holes are written together, and the
+     * addresses which were already written are returned to the client, which has to
+     * adopt their values.
+     */
+    @ServerHandler(type = CorfuMsgType.MULTIPLE_FILL_HOLE)
+    private void multiFillHole(CorfuPayloadMsg<MultipleFillHoleRequest> msg,
+                               ChannelHandlerContext ctx, IServerRouter r) {
+        List<LogData> holes = new ArrayList<>();
+        for (long address : msg.getPayload().getAddresses()) {
+            holes.add(LogData.getHole(address));
+        }
+
+        List<Long> written = new ArrayList<>();
+        for (Map.Entry<Long, RuntimeException> failed : batchWriter.writeAll(holes).entrySet()) {
+            if (!(failed.getValue() instanceof LogUnitException)) {
+                throw failed.getValue();
+            }
+            written.add(failed.getKey());
+        }
+        Collections.sort(written);
+        r.sendResponse(ctx, msg, CorfuMsgType.MULTIPLE_FILL_HOLE_RESPONSE.payloadMsg(
+                new MultipleFillHoleResponse(written)));
+    }
+
     @ServerHandler(type = CorfuMsgType.TRIM)
     private void trim(CorfuPayloadMsg<TrimRequest> msg, ChannelHandlerContext ctx, IServerRouter r) {
         batchWriter.trim(msg.getPayload().getAddress());
@@ -309,17 +640,21 @@ public class LogUnitServer extends AbstractServer {
      *     This function should not care about trimmed addresses, as that is handled in
      *     the read() and append(). Any address that cannot be retrieved should be returned as
      *     unwritten (null).
+     *
+     *     Retrievals aren't serialized, the cache only loads an address once and the
+     *     stream log coordinates concurrent reads with trims and compactions per segment.
      */
-    public synchronized ILogData handleRetrieval(long address) {
+    public ILogData handleRetrieval(long address) {
         LogData entry = streamLog.read(address);
         log.trace("Retrieved[{} : {}]", address, entry);
         return entry;
     }
 
 
-    public synchronized void handleEviction(long address, ILogData entry, RemovalCause cause) {
+    public void handleEviction(long address, ILogData entry, RemovalCause cause) {
         log.trace("Eviction[{}]: {}", address, cause);
         streamLog.release(address, (LogData) entry);
+        releaseCacheEntry(entry);
     }
 
     /**
@@ -330,6 +665,10 @@ public class LogUnitServer extends AbstractServer {
         compactor.cancel(true);
         scheduler.shutdownNow();
         batchWriter.close();
+        if (offHeapCache) {
+            // Release the buffers of the cached entries
+            dataCache.invalidateAll();
+        }
     }
 
     @VisibleForTesting
@@ -2,20 +2,30 @@ package org.corfudb.infrastructure;
 
 import static org.corfudb.protocols.wireprotocol.TokenType.TX_ABORT_SEQ_OVERFLOW;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.channel.ChannelHandlerContext;
+import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -24,20 +34,25 @@ import org.corfudb.protocols.wireprotocol.CorfuMsgType;
 import org.corfudb.protocols.wireprotocol.CorfuPayloadMsg;
 import org.corfudb.protocols.wireprotocol.SequencerTailsRecoveryMsg;
 import org.corfudb.protocols.wireprotocol.Token;
+import org.corfudb.protocols.wireprotocol.TokenBatchRequest;
+import org.corfudb.protocols.wireprotocol.TokenBatchResponse;
 import org.corfudb.protocols.wireprotocol.TokenRequest;
 import org.corfudb.protocols.wireprotocol.TokenResponse;
 import org.corfudb.protocols.wireprotocol.TokenType;
 import org.corfudb.protocols.wireprotocol.TxResolutionInfo;
+import org.corfudb.runtime.exceptions.unrecoverable.UnrecoverableCorfuInterruptedError;
 import org.corfudb.runtime.view.Address;
 import org.corfudb.util.Utils;
 
 /**
  * This server implements the sequencer functionality of Corfu.
  *
- * <p>It currently supports a single operation, which is a incoming request:
+ * <p>It currently supports two token operations:
  *
  * <p>TOKEN_REQ - Request the next address.
  *
+ * <p>TOKEN_BATCH_REQ - A batch of token requests, served in order and answered together.
+ *
  * <p>The sequencer server maintains the current tail of the log, the current
  * tail of every stream, and a cache of timestamps of updates on recent
  * conflict-parameters.
@@ -67,6 +82,18 @@ import org.corfudb.util.Utils;
  * commits, the sequencer updates the tails of all the streams and the cache
  * of conflict parameters.
  *
+ * <p>The sequencer state is only updated by a single writer thread: allocations,
+ * transaction resolutions, bootstraps and trims are queued to it by the handlers, and it
+ * serves them in order and sends their responses, without taking a lock. Queries are
+ * served by the handlers: an allocation updates the stream tails before it publishes the
+ * new global tail, so a query only has to read through the writer when it sees the
+ * stream tail of an allocation which is not yet published.
+ *
+ * <p>Unless the server runs in memory, the sequencer periodically writes a
+ * {@link SequencerSnapshot} of its state to the log directory. When the sequencer of the
+ * previous epoch is reset, it keeps its conflict resolution state, or restores it from the
+ * snapshot after a restart, rather than aborting every transaction which precedes the reset.
+ *
  * <p>Created by mwei on 12/8/15.
  */
 @Slf4j
@@ -84,7 +111,8 @@ public class SequencerServer extends AbstractServer {
 
     /**
      * - {@link SequencerServer::globalLogTail}:
-     * global log first available position (initially, 0).
+     * global log first available position (initially, 0). It is only advanced
+     * by the writer, once the stream tails of an allocation are updated.
      */
     @Getter
     private final AtomicLong globalLogTail = new AtomicLong(Address
@@ -92,6 +120,11 @@ public class SequencerServer extends AbstractServer {
 
     private long trimMark = Address.NON_ADDRESS;
 
+    /**
+     * The maximum number of conflict cache entries trimmed by one task of the writer.
+     */
+    private static final int TRIM_CHUNK_SIZE = 4096;
+
     /**
      * - {@link SequencerServer::streamTailToGlobalTailMap}:
      * per streams map to last issued global-log position. used for
@@ -105,7 +138,7 @@ public class SequencerServer extends AbstractServer {
      *
      * {@link SequencerServer::conflictToGlobalTailCache}:
      * a cache of recent conflict keys and their latest global-log
-     * position.
+     * position, bounded to --sequencer-cache-size entries.
      *
      * {@link SequencerServer::maxConflictWildcard} :
      * a "wildcard" representing the maximal update timestamp of
@@ -113,7 +146,68 @@ public class SequencerServer extends AbstractServer {
      */
     private long maxConflictWildcard = Address.NOT_FOUND;
 
-    private final Cache<String, Long> conflictToGlobalTailCache;
+    private final ConflictParameterCache conflictToGlobalTailCache;
+
+    /**
+     * The streams which were written at addresses whose conflict parameters are unknown,
+     * because the sequencer resumed its conflict resolution state after a reset and did not
+     * issue these addresses, or issued them after its last snapshot. A transaction on such a
+     * stream, with a snapshot preceding the tail of the stream, conservatively aborts.
+     */
+    private final Map<UUID, Long> unknownConflictStreamTails = new HashMap<>();
+
+    /**
+     * Whether the sequencer state was reset since the server started, the state is only
+     * complete, and worth a snapshot, once it was.
+     */
+    private boolean resetSinceStart = false;
+
+    /**
+     * The default interval between two snapshots of the sequencer state.
+     */
+    private static final long DEFAULT_SNAPSHOT_INTERVAL_SECONDS = 30;
+
+    /**
+     * The directory of the sequencer state snapshots, or null if they are disabled.
+     */
+    private final String snapshotDir;
+
+    /**
+     * Periodically snapshots the sequencer state, or null if the snapshots are disabled.
+     */
+    private final ScheduledExecutorService snapshotScheduler;
+
+    /**
+     * Serializes the writes of the snapshots.
+     */
+    private final Object snapshotLock = new Object();
+
+    private static final ThreadFactory WRITER_THREAD_FACTORY = new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("Sequencer-Writer-%d")
+            .build();
+
+    /**
+     * The thread of the writer, tasks which run on it can't wait for the writer.
+     */
+    private volatile Thread writerThread;
+
+    /**
+     * The single thread which updates the sequencer state, and serves every request but
+     * the queries.
+     */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        writerThread = WRITER_THREAD_FACTORY.newThread(runnable);
+        return writerThread;
+    });
+
+    /**
+     * Run by the writer between the update of the stream tails of an allocation and the
+     * publication of its global tail.
+     */
+    @VisibleForTesting
+    @Setter(AccessLevel.PACKAGE)
+    private volatile Runnable beforeTailPublished = () -> { };
 
     /**
      * Handler for this server.
@@ -159,29 +253,32 @@ public class SequencerServer extends AbstractServer {
 
         }
 
-        conflictToGlobalTailCache = Caffeine.newBuilder()
-                .maximumSize(cacheSize)
-                .removalListener((String k, Long v, RemovalCause cause) -> {
-                    if (!RemovalCause.REPLACED.equals(cause)) {
-                        log.trace("Updating maxConflictWildcard. Old value = '{}', new value='{}'"
-                                        + " conflictParam = '{}'. Removal cause = '{}'",
-                                maxConflictWildcard, v, k, cause);
-                        maxConflictWildcard = Math.max(v, maxConflictWildcard);
-                    }
-                })
-                .recordStats()
-                .build();
-    }
-
-    /**
-    * Get the conflict hash code for a stream ID and conflict param.
-    *
-    * @param streamId      The stream ID.
-    * @param conflictParam The conflict parameter.
-    * @return A conflict hash code.
-    */
-    private String getConflictHashCode(UUID streamId, byte[] conflictParam) {
-        return streamId.toString() + Utils.bytesToHex(conflictParam);
+        // Evictions are applied by the writer, so that the wildcard is updated
+        // before the next request is served
+        conflictToGlobalTailCache = new ConflictParameterCache(cacheSize, v -> {
+            log.trace("Updating maxConflictWildcard. Old value = '{}', new value='{}'",
+                    maxConflictWildcard, v);
+            maxConflictWildcard = Math.max(v, maxConflictWildcard);
+        });
+
+        long snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL_SECONDS;
+        if (opts.get("--sequencer-snapshot-interval") != null) {
+            snapshotInterval = Long.parseLong((String) opts.get("--sequencer-snapshot-interval"));
+        }
+        boolean memory = opts.get("--memory") != null && (Boolean) opts.get("--memory");
+        if (memory || opts.get("--log-path") == null || snapshotInterval <= 0) {
+            snapshotDir = null;
+            snapshotScheduler = null;
+        } else {
+            snapshotDir = (String) opts.get("--log-path");
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("Sequencer-Snapshot-%d")
+                            .build());
+            snapshotScheduler.scheduleWithFixedDelay(this::snapshot, snapshotInterval,
+                    snapshotInterval, TimeUnit.SECONDS);
+        }
     }
 
     /**
@@ -220,17 +317,25 @@ public class SequencerServer extends AbstractServer {
             // updates
             Set<byte[]> conflictParamSet = entry.getValue();
             if (conflictParamSet != null && conflictParamSet.size() > 0) {
+                // the conflict parameters of some writes on the stream may be unknown
+                Long unknownTail = unknownConflictStreamTails.get(entry.getKey());
+                if (unknownTail != null && txSnapshotTimestamp < unknownTail) {
+                    log.debug("ABORT[{}] snapshot-ts[{}] unknown-conflicts-stream[{}](ts={})",
+                            txInfo, txSnapshotTimestamp, Utils.toReadableId(entry.getKey()),
+                            unknownTail);
+                    response.set(TX_ABORT_SEQ_OVERFLOW);
+                    break;
+                }
+
                 // for each key pair, check for conflict;
                 // if not present, check against the wildcard
                 for (byte[] conflictParam : conflictParamSet) {
 
-                    String conflictKeyHash = getConflictHashCode(entry.getKey(),
-                            conflictParam);
-                    Long v = conflictToGlobalTailCache.getIfPresent(conflictKeyHash);
+                    long v = conflictToGlobalTailCache.get(entry.getKey(), conflictParam);
 
                     log.trace("Commit-ck[{}] conflict-key[{}](ts={})", txInfo, conflictParam, v);
 
-                    if (v != null && v > txSnapshotTimestamp) {
+                    if (v != ConflictParameterCache.ABSENT && v > txSnapshotTimestamp) {
                         log.debug("ABORT[{}] conflict-key[{}](ts={})", txInfo, conflictParam, v);
                         conflictKey.set(conflictParam);
                         response.set(TokenType.TX_ABORT_CONFLICT);
@@ -269,65 +374,104 @@ public class SequencerServer extends AbstractServer {
      * <p>This returns information about the tail of the
      * log and/or streams without changing/allocating anything.
      *
-     * @param msg corfu message containing token query
-     * @param ctx netty ChannelHandlerContext
-     * @param r   server router
+     * @param req         token query
+     * @param serverEpoch the epoch of the server
+     * @return the token response
      */
-    private void handleTokenQuery(CorfuPayloadMsg<TokenRequest> msg,
-                                 ChannelHandlerContext ctx, IServerRouter r) {
-        TokenRequest req = msg.getPayload();
-
+    private TokenResponse handleTokenQuery(TokenRequest req, long serverEpoch) {
         // sanity backward-compatibility assertion; TODO: remove
         if (req.getStreams().size() > 1) {
             log.error("TOKEN-QUERY[{}]", req.getStreams());
         }
 
-        long maxStreamGlobalTail = Address.NON_EXIST;
-
-        // see if this query is for a specific stream-tail
-        if (req.getStreams().size() == 1) {
-            UUID streamId = req.getStreams().iterator().next();
-
-            if (streamTailToGlobalTailMap.get(streamId) != null) {
-                maxStreamGlobalTail = streamTailToGlobalTailMap.get(streamId);
-            }
-        }
-
         // If no streams are specified in the request, this value returns the last global token
         // issued.
-        long responseGlobalTail = (req.getStreams().size() == 0) ? globalLogTail.get() - 1 :
-                maxStreamGlobalTail;
-        Token token = new Token(responseGlobalTail, r.getServerEpoch());
-        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(new TokenResponse(
-                TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token, Collections.emptyMap())));
+        long responseGlobalTail = req.getStreams().isEmpty() ? globalLogTail.get() - 1
+                : getStreamTail(req.getStreams().iterator().next());
+        Token token = new Token(responseGlobalTail, serverEpoch);
+        return new TokenResponse(TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token,
+                Collections.emptyMap());
     }
 
-    @ServerHandler(type = CorfuMsgType.SEQUENCER_TRIM_REQ)
-    public synchronized void trimCache(CorfuPayloadMsg<Long> msg,
-                                       ChannelHandlerContext ctx, IServerRouter r) {
-        log.info("trimCache: Starting cache eviction");
-        if (trimMark < msg.getPayload()) {
-            // Advance the trim mark, if the new trim request has a higher trim mark.
-            trimMark = msg.getPayload();
+    /**
+     * Returns the last address issued to a stream, without waiting for the writer, unless
+     * an allocation on the stream is in progress.
+     *
+     * @param streamId the stream to query
+     * @return the tail of the stream
+     */
+    private long getStreamTail(UUID streamId) {
+        // The global tail is read first, if the stream tail is past it, it belongs to an
+        // allocation which is not published yet
+        long globalTail = globalLogTail.get();
+        Long streamTail = streamTailToGlobalTailMap.get(streamId);
+        if (streamTail != null && streamTail >= globalTail) {
+            // A query batched with other requests is already served by the writer, which
+            // reads the stream tail directly, see onWriter
+            streamTail = onWriter(() -> streamTailToGlobalTailMap.get(streamId));
         }
+        return streamTail == null ? Address.NON_EXIST : streamTail;
+    }
 
-        long entries = 0;
-        for (Map.Entry<String, Long> entry : conflictToGlobalTailCache.asMap().entrySet()) {
-            if (entry.getValue() < trimMark) {
-                conflictToGlobalTailCache.invalidate(entry.getKey());
-                entries++;
+    /**
+     * Service an incoming request to trim the conflict cache.
+     *
+     * <p>The entries older than the trim mark are removed oldest first, in chunks of
+     * {@link SequencerServer::TRIM_CHUNK_SIZE}, each chunk is queued to the writer behind
+     * the requests which arrived in the meantime, so a large trim does not stall the
+     * token requests.
+     */
+    @ServerHandler(type = CorfuMsgType.SEQUENCER_TRIM_REQ)
+    public void trimCache(CorfuPayloadMsg<Long> msg,
+                          ChannelHandlerContext ctx, IServerRouter r) {
+        log.info("trimCache: Starting cache eviction");
+        writer.execute(() -> {
+            if (trimMark < msg.getPayload()) {
+                // Advance the trim mark, if the new trim request has a higher trim mark.
+                trimMark = msg.getPayload();
             }
+            // transactions preceding the trim mark abort regardless of these streams
+            unknownConflictStreamTails.values().removeIf(tail -> tail < trimMark);
+            trimCacheChunk(msg, ctx, r, 0L);
+        });
+    }
+
+    /**
+     * Removes a chunk of the conflict cache entries older than the trim mark, and queues
+     * the next chunk, or acknowledges the trim once there are no more entries to remove.
+     */
+    private void trimCacheChunk(CorfuPayloadMsg<Long> msg, ChannelHandlerContext ctx,
+                                IServerRouter r, long entries) {
+        int removed = conflictToGlobalTailCache.invalidateOlderThan(trimMark, TRIM_CHUNK_SIZE);
+        if (removed == TRIM_CHUNK_SIZE) {
+            writer.execute(() -> trimCacheChunk(msg, ctx, r, entries + removed));
+            return;
         }
-        log.info("trimCache: Evicted {} entries", entries);
+        log.info("trimCache: Evicted {} entries", entries + removed);
         r.sendResponse(ctx, msg, CorfuMsgType.ACK.msg());
     }
 
     /**
      * Service an incoming request to reset the sequencer.
+     *
+     * <p>The reset is applied by the writer, but the handler waits for it, since the
+     * readiness of the sequencer is checked before the requests are handed to the writer.
+     * A request which follows the bootstrap is thus never rejected as not ready.
      */
     @ServerHandler(type = CorfuMsgType.BOOTSTRAP_SEQUENCER)
-    public synchronized void resetServer(CorfuPayloadMsg<SequencerTailsRecoveryMsg> msg,
-                                         ChannelHandlerContext ctx, IServerRouter r) {
+    public void resetServer(CorfuPayloadMsg<SequencerTailsRecoveryMsg> msg,
+                            ChannelHandlerContext ctx, IServerRouter r) {
+        onWriter(() -> {
+            reset(msg, ctx, r);
+            return null;
+        });
+    }
+
+    /**
+     * Resets the sequencer, on the writer.
+     */
+    private void reset(CorfuPayloadMsg<SequencerTailsRecoveryMsg> msg,
+                       ChannelHandlerContext ctx, IServerRouter r) {
         long initialToken = msg.getPayload().getGlobalTail();
         final Map<UUID, Long> streamTails = msg.getPayload().getStreamTails();
         final long readyEpoch = msg.getPayload().getReadyStateEpoch();
@@ -351,16 +495,40 @@ public class SequencerServer extends AbstractServer {
         // We set the wildcard to the new start tail.
         //
         // Note, this is correct, but conservative (may lead to false abort).
-        // It is necessary because we reset the sequencer.
+        // It is necessary because we reset the sequencer, unless this sequencer
+        // issued the tokens of the previous epoch, and still knows, or can restore
+        // from its snapshot, the conflict parameters of most of them.
         //
         if (initialToken > globalLogTail.get()) {
+            Map<UUID, Long> tails = new HashMap<>(streamTails);
+            final long knownConflictsTail = resumeConflictResolution(readyEpoch, tails);
+            if (knownConflictsTail == Address.NON_ADDRESS) {
+                maxConflictWildcard = initialToken - 1;
+                conflictToGlobalTailCache.invalidateAll();
+                unknownConflictStreamTails.clear();
+            } else {
+                // The conflict parameters of the writes at or past this tail are unknown,
+                // only the streams written there have to abort conservatively.
+                streamTails.forEach((streamId, tail) -> {
+                    if (tail >= knownConflictsTail) {
+                        unknownConflictStreamTails.merge(streamId, tail, Math::max);
+                    }
+                });
+            }
+
+            // Replace the existing map as it could have been populated by an earlier reset.
+            // The tails are replaced in place, so that queries never see an empty map.
+            streamTailToGlobalTailMap.keySet().retainAll(tails.keySet());
+            streamTailToGlobalTailMap.putAll(tails);
             globalLogTail.set(initialToken);
-            maxConflictWildcard = initialToken - 1;
-            conflictToGlobalTailCache.invalidateAll();
 
-            // Clear the existing map as it could have been populated by an earlier reset.
-            streamTailToGlobalTailMap.clear();
-            streamTailToGlobalTailMap.putAll(streamTails);
+            // The snapshots taken before this reset can't be resumed from anymore
+            serverContext.setSequencerGeneration(serverContext.getSequencerGeneration() + 1);
+            resetSinceStart = true;
+        }
+
+        if (serverContext.getSequencerReadyEpoch() != readyEpoch) {
+            serverContext.setSequencerReadyEpoch(readyEpoch);
         }
 
         // Mark the sequencer as ready after the tails have been populated.
@@ -373,30 +541,211 @@ public class SequencerServer extends AbstractServer {
     }
 
     /**
-     * Service an incoming token request.
+     * Keeps the conflict resolution state of the sequencer across a reset, if it is known
+     * to be complete for the tokens of the previous epoch.
+     *
+     * <p>Only the sequencer which was bootstrapped at the previous epoch issued the tokens of
+     * that epoch, and the log units are sealed, so its state misses at most the conflict
+     * parameters of the writes past its tail, or past its last snapshot if it restarted.
+     *
+     * @param readyEpoch the epoch the sequencer is bootstrapped at
+     * @param tails      the recovered stream tails, into which the stream tails known to the
+     *                   sequencer are merged
+     * @return the global tail below which the conflict parameters of all the writes are known,
+     *     or {@link Address#NON_ADDRESS} if the conflict resolution state must be discarded
+     */
+    private long resumeConflictResolution(long readyEpoch, Map<UUID, Long> tails) {
+        long lastReadyEpoch = serverContext.getSequencerReadyEpoch();
+        if (lastReadyEpoch < 0 || lastReadyEpoch != readyEpoch - 1) {
+            return Address.NON_ADDRESS;
+        }
+
+        if (resetSinceStart) {
+            streamTailToGlobalTailMap.forEach((streamId, tail) ->
+                    tails.merge(streamId, tail, Math::max));
+            log.info("resumeConflictResolution: Keeping the conflict resolution state up to {}",
+                    globalLogTail.get());
+            return globalLogTail.get();
+        }
+
+        SequencerSnapshot snapshot = snapshotDir == null ? null
+                : SequencerSnapshot.read(snapshotDir);
+        if (snapshot == null
+                || snapshot.getGeneration() != serverContext.getSequencerGeneration()) {
+            return Address.NON_ADDRESS;
+        }
+
+        conflictToGlobalTailCache.invalidateAll();
+        unknownConflictStreamTails.clear();
+        // Set the wildcard first, the evictions of a smaller cache can only raise it
+        maxConflictWildcard = snapshot.getMaxConflictWildcard();
+        trimMark = Math.max(trimMark, snapshot.getTrimMark());
+        snapshot.restoreConflictParameters(conflictToGlobalTailCache);
+        // The parameters which were unknown to the snapshotted state are still unknown
+        snapshot.getUnknownConflictStreamTails().forEach((streamId, tail) -> {
+            if (tail >= trimMark) {
+                unknownConflictStreamTails.merge(streamId, tail, Math::max);
+            }
+        });
+        snapshot.getStreamTails().forEach((streamId, tail) ->
+                tails.merge(streamId, tail, Math::max));
+        log.info("resumeConflictResolution: Restored {} conflict parameters up to {}",
+                conflictToGlobalTailCache.size(), snapshot.getGlobalTail());
+        return snapshot.getGlobalTail();
+    }
+
+    /**
+     * Writes a snapshot of the sequencer state. The state is copied by the writer, and
+     * written by the calling thread.
+     */
+    @VisibleForTesting
+    void snapshot() {
+        if (snapshotDir == null) {
+            return;
+        }
+        synchronized (snapshotLock) {
+            final SequencerSnapshot snapshot = onWriter(this::copyState);
+            if (snapshot == null) {
+                return;
+            }
+
+            try {
+                snapshot.write(snapshotDir);
+            } catch (IOException e) {
+                log.error("snapshot: Failed to write the sequencer snapshot", e);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the sequencer state, on the writer.
+     *
+     * @return the copy, or null if the state was not reset since the server started
+     */
+    private SequencerSnapshot copyState() {
+        if (!resetSinceStart) {
+            return null;
+        }
+        final long[] fingerprints = new long[conflictToGlobalTailCache.size()];
+        final long[] timestamps = new long[fingerprints.length];
+        final int[] index = {0};
+        conflictToGlobalTailCache.forEachOldestFirst((fingerprint, timestamp) -> {
+            fingerprints[index[0]] = fingerprint;
+            timestamps[index[0]++] = timestamp;
+        });
+        return new SequencerSnapshot(serverContext.getSequencerGeneration(),
+                globalLogTail.get(), maxConflictWildcard, trimMark,
+                new HashMap<>(streamTailToGlobalTailMap),
+                new HashMap<>(unknownConflictStreamTails), fingerprints, timestamps);
+    }
+
+    /**
+     * Runs a task on the writer and waits for its result, so that it observes the state
+     * between two requests. A task of the writer which calls this method runs the task
+     * directly, since it can't wait for itself.
+     *
+     * @param task the task
+     * @return the result of the task
+     */
+    private <T> T onWriter(Callable<T> task) {
+        try {
+            if (Thread.currentThread() == writerThread) {
+                return task.call();
+            }
+            return writer.submit(task).get();
+        } catch (InterruptedException e) {
+            throw new UnrecoverableCorfuInterruptedError(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Waits until the writer has served the requests queued so far.
+     */
+    @VisibleForTesting
+    public void awaitQueuedRequests() {
+        onWriter(() -> null);
+    }
+
+    /**
+     * Shutdown the server, after a last snapshot of the sequencer state.
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+            snapshot();
+        }
+        writer.shutdown();
+    }
+
+    /**
+     * Service an incoming token request. Queries are served right away, the other requests
+     * are queued to the writer, which sends their response.
      */
     @ServerHandler(type = CorfuMsgType.TOKEN_REQ)
-    public synchronized void tokenRequest(CorfuPayloadMsg<TokenRequest> msg,
-                                          ChannelHandlerContext ctx, IServerRouter r) {
-        TokenRequest req = msg.getPayload();
+    public void tokenRequest(CorfuPayloadMsg<TokenRequest> msg,
+                             ChannelHandlerContext ctx, IServerRouter r) {
+        final TokenRequest req = msg.getPayload();
+        final long serverEpoch = r.getServerEpoch();
+        if (req.getReqType() == TokenRequest.TK_QUERY) {
+            r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(
+                    handleTokenQuery(req, serverEpoch)));
+            return;
+        }
+
+        writer.execute(() -> r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(
+                handleTokenRequest(req, serverEpoch))));
+    }
+
+    /**
+     * Service an incoming batch of token requests.
+     *
+     * <p>The requests are served in order by one task of the writer, and answered with one
+     * response which holds the token response of each request.
+     */
+    @ServerHandler(type = CorfuMsgType.TOKEN_BATCH_REQ)
+    public void tokenBatchRequest(CorfuPayloadMsg<TokenBatchRequest> msg,
+                                  ChannelHandlerContext ctx, IServerRouter r) {
+        final long serverEpoch = r.getServerEpoch();
+        final List<TokenRequest> requests = msg.getPayload().getRequests();
+
+        writer.execute(() -> {
+            final List<TokenResponse> responses = new ArrayList<>(requests.size());
+            for (TokenRequest req : requests) {
+                responses.add(handleTokenRequest(req, serverEpoch));
+            }
+            r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_BATCH_RES.payloadMsg(
+                    new TokenBatchResponse(responses)));
+        });
+    }
 
-        // dispatch request handler according to request type
+    /**
+     * Dispatch a token request to its handler, according to the request type.
+     *
+     * @param req         token request
+     * @param serverEpoch the epoch of the server
+     * @return the token response
+     */
+    private TokenResponse handleTokenRequest(TokenRequest req, long serverEpoch) {
         switch (req.getReqType()) {
             case TokenRequest.TK_QUERY:
-                handleTokenQuery(msg, ctx, r);
-                return;
+                return handleTokenQuery(req, serverEpoch);
 
             case TokenRequest.TK_RAW:
-                handleRawToken(msg, ctx, r);
-                return;
+                return handleRawToken(req, serverEpoch);
 
             case TokenRequest.TK_TX:
-                handleTxToken(msg, ctx, r);
-                return;
+                return handleTxToken(req, serverEpoch);
 
             default:
-                handleAllocation(msg, ctx, r);
-                return;
+                return handleAllocation(req, serverEpoch);
         }
     }
 
@@ -404,19 +753,14 @@ public class SequencerServer extends AbstractServer {
      * this method serves log-tokens for a raw log implementation.
      * it simply extends the global log tail and returns the global-log token
      *
-     * @param msg corfu message containing raw token
-     * @param ctx netty ChannelHandlerContext
-     * @param r   server router
+     * @param req         raw token request
+     * @param serverEpoch the epoch of the server
+     * @return the token response
      */
-    private void handleRawToken(CorfuPayloadMsg<TokenRequest> msg,
-                                ChannelHandlerContext ctx, IServerRouter r) {
-        final long serverEpoch = r.getServerEpoch();
-        final TokenRequest req = msg.getPayload();
-
+    private TokenResponse handleRawToken(TokenRequest req, long serverEpoch) {
         Token token = new Token(globalLogTail.getAndAdd(req.getNumTokens()), serverEpoch);
-        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(new TokenResponse(
-                TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token, Collections.emptyMap())));
-
+        return new TokenResponse(TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token,
+                Collections.emptyMap());
     }
 
     /**
@@ -428,15 +772,11 @@ public class SequencerServer extends AbstractServer {
      * - if the transaction may commit,
      * then a normal allocation of log position(s) is pursued.
      *
-     * @param msg corfu message containing transaction token
-     * @param ctx netty ChannelHandlerContext
-     * @param r   server router
+     * @param req         transaction token request
+     * @param serverEpoch the epoch of the server
+     * @return the token response
      */
-    private void handleTxToken(CorfuPayloadMsg<TokenRequest> msg,
-                               ChannelHandlerContext ctx, IServerRouter r) {
-        final long serverEpoch = r.getServerEpoch();
-        final TokenRequest req = msg.getPayload();
-
+    private TokenResponse handleTxToken(TokenRequest req, long serverEpoch) {
         // Since Java does not allow an easy way for a function to return multiple values, this
         // variable is passed to the consumer that will use it to indicate to us if/what key was
         // responsible for an aborted transaction.
@@ -449,15 +789,14 @@ public class SequencerServer extends AbstractServer {
         if (tokenType != TokenType.NORMAL) {
             // If the txn aborts, then DO NOT hand out a token.
             Token token = new Token(Address.ABORTED, serverEpoch);
-            r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(new TokenResponse(tokenType,
-                    conflictKey.get(), token, Collections.emptyMap())));
-            return;
+            return new TokenResponse(tokenType, conflictKey.get(), token,
+                    Collections.emptyMap());
         }
 
         // if we get here, this means the transaction can commit.
         // handleAllocation() does the actual allocation of log position(s)
         // and returns the reponse
-        handleAllocation(msg, ctx, r);
+        return handleAllocation(req, serverEpoch);
     }
 
     /**
@@ -465,18 +804,15 @@ public class SequencerServer extends AbstractServer {
      * it also maintains stream-tails, returns a map of stream-tails for backpointers,
      * and maintains a conflict-parameters map.
      *
-     * @param msg corfu message containing allocation
-     * @param ctx netty ChannelHandlerContext
-     * @param r   server router
+     * @param req         token request
+     * @param serverEpoch the epoch of the server
+     * @return the token response
      */
-    private void handleAllocation(CorfuPayloadMsg<TokenRequest> msg,
-                                  ChannelHandlerContext ctx, IServerRouter r) {
-        final long serverEpoch = r.getServerEpoch();
-        final TokenRequest req = msg.getPayload();
-
+    private TokenResponse handleAllocation(TokenRequest req, long serverEpoch) {
         // extend the tail of the global log by the requested # of tokens
-        // currentTail is the first available position in the global log
-        long currentTail = globalLogTail.getAndAdd(req.getNumTokens());
+        // currentTail is the first available position in the global log. The new tail
+        // is only published once the stream tails are updated (see getStreamTail).
+        long currentTail = globalLogTail.get();
         long newTail = currentTail + req.getNumTokens();
 
         // for each streams:
@@ -507,26 +843,25 @@ public class SequencerServer extends AbstractServer {
                             // and for each conflict param
                             txEntry.getValue().stream().forEach(conflictParam ->
                                     // insert an entry with the new timestamp
-                                    // using the hash code based on the param
-                                    // and the stream id.
-                                    conflictToGlobalTailCache.put(
-                                            getConflictHashCode(txEntry
-                                                    .getKey(), conflictParam),
-                                            newTail - 1)));
+                                    // for the param of the stream id.
+                                    conflictToGlobalTailCache.put(txEntry.getKey(),
+                                            conflictParam, newTail - 1)));
         }
 
+        beforeTailPublished.run();
+        globalLogTail.set(newTail);
+
         log.trace("token {} backpointers {}",
                 currentTail, backPointerMap.build());
         // return the token response with the new global tail
         // and the streams backpointers
         Token token = new Token(currentTail, serverEpoch);
-        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(new TokenResponse(
-                TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token,
-                backPointerMap.build())));
+        return new TokenResponse(TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token,
+                backPointerMap.build());
     }
 
     @VisibleForTesting
-    public Cache<String, Long> getConflictToGlobalTailCache() {
+    public ConflictParameterCache getConflictToGlobalTailCache() {
         return conflictToGlobalTailCache;
     }
 }
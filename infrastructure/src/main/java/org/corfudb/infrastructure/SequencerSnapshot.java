@@ -0,0 +1,229 @@
+package org.corfudb.infrastructure;
+
+import static org.corfudb.infrastructure.log.StreamLogFiles.getChecksum;
+import static org.corfudb.infrastructure.utils.Persistence.syncDirectory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A point in time copy of the sequencer state, which a restarted sequencer can resume from
+ * instead of conservatively aborting every transaction that precedes its reset.
+ *
+ * <p>The snapshot holds the tails, the conflict wildcard, the trim mark, the tails of the
+ * streams whose conflict parameters are partly unknown, and the entries of the conflict
+ * parameter cache from the least to the most recently updated. It is written
+ * to a temporary file which is then atomically moved over the previous snapshot, and it
+ * ends with a checksum of its content, so a snapshot is either read whole or not at all.
+ *
+ * <p>The generation identifies the reset of the sequencer that the snapshot follows, see
+ * {@link ServerContext#getSequencerGeneration()}.
+ */
+@Slf4j
+@Getter
+class SequencerSnapshot {
+
+    static final String SNAPSHOT_FILE = "sequencer.snapshot";
+
+    private static final int MAGIC = 0x53455153;
+
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + 4 * Long.BYTES;
+
+    private static final int STREAM_TAIL_SIZE = 3 * Long.BYTES;
+
+    private static final int CONFLICT_ENTRY_SIZE = 2 * Long.BYTES;
+
+    private final long generation;
+
+    private final long globalTail;
+
+    private final long maxConflictWildcard;
+
+    private final long trimMark;
+
+    private final Map<UUID, Long> streamTails;
+
+    /**
+     * The tails of the streams whose conflict parameters are unknown below them.
+     */
+    private final Map<UUID, Long> unknownConflictStreamTails;
+
+    /**
+     * The fingerprints of the conflict parameters, from the least to the most recently updated.
+     */
+    private final long[] fingerprints;
+
+    /**
+     * The timestamps of the conflict parameters, in the order of {@link #fingerprints}.
+     */
+    private final long[] timestamps;
+
+    SequencerSnapshot(long generation, long globalTail, long maxConflictWildcard, long trimMark,
+                      Map<UUID, Long> streamTails, Map<UUID, Long> unknownConflictStreamTails,
+                      long[] fingerprints, long[] timestamps) {
+        this.generation = generation;
+        this.globalTail = globalTail;
+        this.maxConflictWildcard = maxConflictWildcard;
+        this.trimMark = trimMark;
+        this.streamTails = Collections.unmodifiableMap(streamTails);
+        this.unknownConflictStreamTails = Collections.unmodifiableMap(unknownConflictStreamTails);
+        this.fingerprints = fingerprints;
+        this.timestamps = timestamps;
+    }
+
+    /**
+     * Puts the conflict parameters of the snapshot into a cache, in their update order.
+     *
+     * @param cache the conflict parameter cache
+     */
+    void restoreConflictParameters(ConflictParameterCache cache) {
+        for (int i = 0; i < fingerprints.length; i++) {
+            cache.putFingerprint(fingerprints[i], timestamps[i]);
+        }
+    }
+
+    private static Path getPath(String dir) {
+        return Paths.get(dir, SNAPSHOT_FILE);
+    }
+
+    /**
+     * Durably replaces the snapshot of a directory.
+     *
+     * @param dir the directory of the snapshot
+     * @throws IOException if the snapshot can't be written
+     */
+    void write(String dir) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + Integer.BYTES
+                + streamTails.size() * STREAM_TAIL_SIZE + Integer.BYTES
+                + unknownConflictStreamTails.size() * STREAM_TAIL_SIZE + Integer.BYTES
+                + fingerprints.length * CONFLICT_ENTRY_SIZE + Integer.BYTES);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putLong(generation);
+        buf.putLong(globalTail);
+        buf.putLong(maxConflictWildcard);
+        buf.putLong(trimMark);
+        putStreamTails(buf, streamTails);
+        putStreamTails(buf, unknownConflictStreamTails);
+        buf.putInt(fingerprints.length);
+        for (int i = 0; i < fingerprints.length; i++) {
+            buf.putLong(fingerprints[i]);
+            buf.putLong(timestamps[i]);
+        }
+        buf.putInt(getChecksum(buf.array(), 0, buf.position()));
+        buf.flip();
+
+        Path path = getPath(dir);
+        Path tmpPath = Paths.get(path + ".tmp");
+        try (FileChannel fc = FileChannel.open(tmpPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                fc.write(buf);
+            }
+            fc.force(true);
+        }
+
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(dir);
+        log.debug("write: wrote a snapshot of {} stream tails and {} conflict parameters "
+                + "at global tail {}", streamTails.size(), fingerprints.length, globalTail);
+    }
+
+    private static void putStreamTails(ByteBuffer buf, Map<UUID, Long> tails) {
+        buf.putInt(tails.size());
+        for (Map.Entry<UUID, Long> streamTail : tails.entrySet()) {
+            buf.putLong(streamTail.getKey().getMostSignificantBits());
+            buf.putLong(streamTail.getKey().getLeastSignificantBits());
+            buf.putLong(streamTail.getValue());
+        }
+    }
+
+    private static Map<UUID, Long> getStreamTails(ByteBuffer buf) {
+        int numStreams = buf.getInt();
+        Map<UUID, Long> tails = new HashMap<>();
+        for (int i = 0; i < numStreams; i++) {
+            tails.put(new UUID(buf.getLong(), buf.getLong()), buf.getLong());
+        }
+        return tails;
+    }
+
+    /**
+     * Returns the snapshot of a directory.
+     *
+     * @param dir the directory of the snapshot
+     * @return the snapshot, or null if there is none or it can't be read
+     */
+    static @Nullable SequencerSnapshot read(String dir) {
+        Path path = getPath(dir);
+        final ByteBuffer buf;
+        try {
+            buf = ByteBuffer.wrap(Files.readAllBytes(path));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("read: Failed to read {}", path, e);
+            return null;
+        }
+
+        try {
+            int checksumOffset = buf.limit() - Integer.BYTES;
+            if (checksumOffset < HEADER_SIZE || buf.getInt(checksumOffset)
+                    != getChecksum(buf.array(), 0, checksumOffset)) {
+                log.warn("read: Ignoring {}, its checksum doesn't match", path);
+                return null;
+            }
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                log.warn("read: Ignoring {}, unknown format", path);
+                return null;
+            }
+
+            long generation = buf.getLong();
+            long globalTail = buf.getLong();
+            long maxConflictWildcard = buf.getLong();
+            long trimMark = buf.getLong();
+
+            Map<UUID, Long> streamTails = getStreamTails(buf);
+            Map<UUID, Long> unknownConflictStreamTails = getStreamTails(buf);
+
+            int numEntries = buf.getInt();
+            if (numEntries < 0 || (long) numEntries * CONFLICT_ENTRY_SIZE
+                    != checksumOffset - buf.position()) {
+                log.warn("read: Ignoring {}, invalid number of conflict parameters {}",
+                        path, numEntries);
+                return null;
+            }
+            long[] fingerprints = new long[numEntries];
+            long[] timestamps = new long[numEntries];
+            for (int i = 0; i < numEntries; i++) {
+                fingerprints[i] = buf.getLong();
+                timestamps[i] = buf.getLong();
+            }
+
+            return new SequencerSnapshot(generation, globalTail, maxConflictWildcard, trimMark,
+                    streamTails, unknownConflictStreamTails, fingerprints, timestamps);
+        } catch (BufferUnderflowException e) {
+            log.warn("read: Ignoring {}, it is truncated", path);
+            return null;
+        }
+    }
+}
@@ -62,6 +62,9 @@ public class ServerContext implements AutoCloseable {
     private static final String KEY_TAIL_SEGMENT = "CURRENT";
     private static final String PREFIX_STARTING_ADDRESS = "STARTING_ADDRESS";
     private static final String KEY_STARTING_ADDRESS = "CURRENT";
+    private static final String PREFIX_SEQUENCER = "SEQUENCER";
+    private static final String KEY_SEQUENCER_GENERATION = "GENERATION";
+    private static final String KEY_SEQUENCER_READY_EPOCH = "READY_EPOCH";
 
     // Management Server
     private static final String PREFIX_MANAGEMENT = "MANAGEMENT";
@@ -81,7 +84,7 @@ public class ServerContext implements AutoCloseable {
     private final Map<String, Object> serverConfig;
 
     @Getter
-    private final DataStore dataStore;
+    private final IDataStore dataStore;
 
     @Getter
     @Setter
@@ -126,7 +129,7 @@ public class ServerContext implements AutoCloseable {
      */
     public ServerContext(Map<String, Object> serverConfig) {
         this.serverConfig = serverConfig;
-        this.dataStore = new DataStore(serverConfig);
+        this.dataStore = createDataStore(serverConfig);
         generateNodeId();
         this.serverRouter = serverRouter;
         this.failureDetector = new FailureDetector();
@@ -160,6 +163,25 @@ public class ServerContext implements AutoCloseable {
         }
     }
 
+    /**
+     * Returns the data store of a server. The state of a persistent server is kept in a
+     * {@link JournaledDataStore} unless the file per key {@link DataStore} is configured.
+     *
+     * @param serverConfig map of configuration strings to objects
+     */
+    private static IDataStore createDataStore(Map<String, Object> serverConfig) {
+        boolean memory = serverConfig.get("--memory") != null
+                && (Boolean) serverConfig.get("--memory");
+        String type = serverConfig.get("--data-store") != null
+                ? (String) serverConfig.get("--data-store") : "journal";
+        if (memory || serverConfig.get("--log-path") == null || type.equals("files")) {
+            return new DataStore(serverConfig);
+        } else if (type.equals("journal")) {
+            return new JournaledDataStore((String) serverConfig.get("--log-path"));
+        }
+        throw new IllegalArgumentException("Unknown data store " + type);
+    }
+
     /** Get the {@link ChannelImplementation}to use.
      *
      * @return              The server channel type.
@@ -383,6 +405,35 @@ public class ServerContext implements AutoCloseable {
         dataStore.put(Long.class, PREFIX_STARTING_ADDRESS, KEY_STARTING_ADDRESS, startingAddress);
     }
 
+    /**
+     * Returns the number of times the sequencer of this server has been reset, so that the
+     * sequencer state snapshots taken after different resets can be told apart.
+     *
+     * @return the sequencer generation
+     */
+    public long getSequencerGeneration() {
+        Long generation = dataStore.get(Long.class, PREFIX_SEQUENCER, KEY_SEQUENCER_GENERATION);
+        return generation == null ? 0 : generation;
+    }
+
+    public void setSequencerGeneration(long generation) {
+        dataStore.put(Long.class, PREFIX_SEQUENCER, KEY_SEQUENCER_GENERATION, generation);
+    }
+
+    /**
+     * Returns the last epoch at which the sequencer of this server was bootstrapped.
+     *
+     * @return the epoch, or -1 if the sequencer was never bootstrapped
+     */
+    public long getSequencerReadyEpoch() {
+        Long epoch = dataStore.get(Long.class, PREFIX_SEQUENCER, KEY_SEQUENCER_READY_EPOCH);
+        return epoch == null ? -1 : epoch;
+    }
+
+    public void setSequencerReadyEpoch(long epoch) {
+        dataStore.put(Long.class, PREFIX_SEQUENCER, KEY_SEQUENCER_READY_EPOCH, epoch);
+    }
+
     /**
      * Sets the management layout in the persistent datastore.
      *
@@ -502,5 +553,9 @@ public class ServerContext implements AutoCloseable {
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
         }
+
+        if (dataStore instanceof JournaledDataStore) {
+            ((JournaledDataStore) dataStore).close();
+        }
     }
 }
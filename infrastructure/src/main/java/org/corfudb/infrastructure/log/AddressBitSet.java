@@ -0,0 +1,127 @@
+package org.corfudb.infrastructure.log;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A set of the addresses of a segment, kept as a bitmap over the segment-relative
+ * address. Adding and looking up addresses is thread-safe.
+ *
+ * @see SegmentAddressSpace
+ */
+class AddressBitSet {
+
+    private static final int WORD_SHIFT = 6;
+
+    private final long firstAddress;
+
+    private final int capacity;
+
+    private final AtomicLongArray words;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Returns an empty set for the addresses of a segment.
+     *
+     * @param firstAddress the first address of the segment
+     * @param capacity     the number of addresses of the segment
+     */
+    AddressBitSet(long firstAddress, int capacity) {
+        this.firstAddress = firstAddress;
+        this.capacity = capacity;
+        this.words = new AtomicLongArray((capacity + Long.SIZE - 1) >>> WORD_SHIFT);
+    }
+
+    /**
+     * Returns a copy of this set.
+     */
+    AddressBitSet copy() {
+        AddressBitSet copy = new AddressBitSet(firstAddress, capacity);
+        int count = 0;
+        for (int word = 0; word < words.length(); word++) {
+            long bits = words.get(word);
+            copy.words.set(word, bits);
+            count += Long.bitCount(bits);
+        }
+        copy.size.set(count);
+        return copy;
+    }
+
+    /**
+     * Adds an address to the set.
+     *
+     * @return true if the address wasn't in the set
+     */
+    boolean add(long address) {
+        long index = address - firstAddress;
+        if (index < 0 || index >= capacity) {
+            throw new IllegalArgumentException("Address " + address + " is not in the segment "
+                    + "starting at " + firstAddress);
+        }
+
+        int word = (int) (index >>> WORD_SHIFT);
+        long mask = 1L << index;
+        while (true) {
+            long bits = words.get(word);
+            if ((bits & mask) != 0) {
+                return false;
+            }
+            if (words.compareAndSet(word, bits, bits | mask)) {
+                size.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns whether an address is in the set.
+     */
+    boolean contains(long address) {
+        long index = address - firstAddress;
+        if (index < 0 || index >= capacity) {
+            return false;
+        }
+        return (words.get((int) (index >>> WORD_SHIFT)) & (1L << index)) != 0;
+    }
+
+    /**
+     * Removes the addresses of another set of the same segment from this set.
+     */
+    void removeAll(AddressBitSet other) {
+        for (int word = 0; word < words.length(); word++) {
+            long removed;
+            long bits;
+            do {
+                bits = words.get(word);
+                removed = bits & other.words.get(word);
+            } while (removed != 0 && !words.compareAndSet(word, bits, bits & ~removed));
+            size.addAndGet(-Long.bitCount(removed));
+        }
+    }
+
+    /**
+     * Returns the number of addresses in the set.
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the addresses of the set, in increasing order.
+     */
+    long[] toArray() {
+        long[] addresses = new long[size()];
+        int count = 0;
+        for (int word = 0; word < words.length() && count < addresses.length; word++) {
+            long bits = words.get(word);
+            while (bits != 0 && count < addresses.length) {
+                int bit = Long.numberOfTrailingZeros(bits);
+                addresses[count++] = firstAddress + ((long) word << WORD_SHIFT) + bit;
+                bits &= bits - 1;
+            }
+        }
+        return count == addresses.length ? addresses : Arrays.copyOf(addresses, count);
+    }
+}
@@ -4,11 +4,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.corfudb.protocols.logprotocol.CheckpointEntry;
 import org.corfudb.protocols.wireprotocol.LogData;
 import org.corfudb.runtime.exceptions.OverwriteException;
+import org.corfudb.runtime.view.Address;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -22,6 +25,7 @@ import lombok.extern.slf4j.Slf4j;
 public class InMemoryStreamLog implements StreamLog, StreamLogWithRankedAddressSpace {
 
     private final AtomicLong globalTail = new AtomicLong(0L);
+    private final Map<UUID, Long> streamTails = new ConcurrentHashMap<>();
     private Map<Long, LogData> logCache;
     private Set<Long> trimmed;
     private volatile long startingAddress;
@@ -43,6 +47,7 @@ public class InMemoryStreamLog implements StreamLog, StreamLogWithRankedAddressS
             }
 
             logCache.put(entry.getGlobalAddress(), entry);
+            updateStreamTails(entry.getGlobalAddress(), entry);
             globalTail.getAndUpdate(maxTail -> entry.getGlobalAddress() > maxTail
                     ? entry.getGlobalAddress() : maxTail);
         }
@@ -58,12 +63,24 @@ public class InMemoryStreamLog implements StreamLog, StreamLogWithRankedAddressS
             throwLogUnitExceptionsIfNecessary(address, entry);
         }
         logCache.put(address, entry);
-
+        updateStreamTails(address, entry);
 
         globalTail.getAndUpdate(maxTail -> entry.getGlobalAddress() > maxTail
                 ? entry.getGlobalAddress() : maxTail);
     }
 
+    private void updateStreamTails(long address, LogData entry) {
+        for (UUID streamId : entry.getBackpointerMap().keySet()) {
+            streamTails.merge(streamId, address, Math::max);
+        }
+        if (entry.hasCheckpointMetadata()
+                && entry.getCheckpointType() == CheckpointEntry.CheckpointEntryType.END
+                && Address.isAddress(entry.getCheckpointedStreamStartLogAddress())) {
+            streamTails.merge(entry.getCheckpointedStreamId(),
+                    entry.getCheckpointedStreamStartLogAddress(), Math::max);
+        }
+    }
+
     private boolean isTrimmed(long address) {
         if (address < startingAddress) {
             return true;
@@ -85,6 +102,11 @@ public class InMemoryStreamLog implements StreamLog, StreamLogWithRankedAddressS
         return globalTail.get();
     }
 
+    @Override
+    public Map<UUID, Long> getStreamTails() {
+        return new HashMap<>(streamTails);
+    }
+
     @Override
     public long getTrimMark() {
         return startingAddress;
@@ -156,6 +178,7 @@ public class InMemoryStreamLog implements StreamLog, StreamLogWithRankedAddressS
     public void reset() {
         startingAddress = 0;
         globalTail.set(0L);
+        streamTails.clear();
         // Clear the trimmed addresses record.
         trimmed.clear();
         // Clearing all data from the cache.
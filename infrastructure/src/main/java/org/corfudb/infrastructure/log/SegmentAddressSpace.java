@@ -0,0 +1,122 @@
+package org.corfudb.infrastructure.log;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+import javax.annotation.Nullable;
+
+/**
+ * The locations of the records of a segment. The addresses of a segment are a dense range,
+ * so the offset, length and checksum of a record are kept in primitive arrays indexed by
+ * the segment-relative address, rather than in a map of boxed addresses.
+ *
+ * <p>Records are added by a single writer at a time (i.e. under the segment write lock).
+ * The offset of a record is published last, so a reader that observes it also observes
+ * the length and checksum of a new record. Readers that need a consistent view of a
+ * record that is overwritten (i.e. a ranked write) must hold the segment read lock.
+ *
+ * @see AddressBitSet
+ */
+class SegmentAddressSpace {
+
+    /**
+     * No record is stored at offset 0, which holds the segment header.
+     */
+    private static final long ABSENT = 0L;
+
+    private final long firstAddress;
+
+    private final AtomicLongArray offsets;
+
+    private final int[] lengths;
+
+    private final int[] checksums;
+
+    private volatile int size = 0;
+
+    /**
+     * Returns an empty address space for the addresses of a segment.
+     *
+     * @param firstAddress the first address of the segment
+     * @param capacity     the number of addresses of the segment
+     */
+    SegmentAddressSpace(long firstAddress, int capacity) {
+        this.firstAddress = firstAddress;
+        this.offsets = new AtomicLongArray(capacity);
+        this.lengths = new int[capacity];
+        this.checksums = new int[capacity];
+    }
+
+    private int index(long address) {
+        long index = address - firstAddress;
+        if (index < 0 || index >= lengths.length) {
+            throw new IllegalArgumentException("Address " + address + " is not in the segment "
+                    + "starting at " + firstAddress);
+        }
+        return (int) index;
+    }
+
+    /**
+     * Returns whether a record was written at an address.
+     */
+    boolean containsKey(long address) {
+        return offsets.get(index(address)) != ABSENT;
+    }
+
+    /**
+     * Returns the location of the record of an address, or null if there is none.
+     */
+    @Nullable
+    AddressMetaData get(long address) {
+        int index = index(address);
+        long offset = offsets.get(index);
+        if (offset == ABSENT) {
+            return null;
+        }
+        return new AddressMetaData(checksums[index], lengths[index], offset);
+    }
+
+    /**
+     * Records the location of the record of an address, replacing its previous location.
+     */
+    void put(long address, AddressMetaData metaData) {
+        int index = index(address);
+        checksums[index] = metaData.checksum;
+        lengths[index] = metaData.length;
+        if (offsets.getAndSet(index, metaData.offset) == ABSENT) {
+            size++;
+        }
+    }
+
+    /**
+     * Returns the number of addresses that have a record.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the highest address that has a record, or -1 if there is none.
+     */
+    long getMaxAddress() {
+        for (int index = lengths.length - 1; index >= 0; index--) {
+            if (offsets.get(index) != ABSENT) {
+                return firstAddress + index;
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * Calls an action for the location of every record, in address order.
+     */
+    void forEach(BiConsumer<Long, AddressMetaData> action) {
+        for (int index = 0; index < lengths.length; index++) {
+            long offset = offsets.get(index);
+            if (offset != ABSENT) {
+                action.accept(firstAddress + index,
+                        new AddressMetaData(checksums[index], lengths[index], offset));
+            }
+        }
+    }
+}
@@ -1,15 +1,18 @@
 package org.corfudb.infrastructure.log;
 
+import io.netty.util.internal.PlatformDependent;
+
 import lombok.Data;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -38,11 +41,55 @@ class SegmentHandle {
     @NonNull
     String fileName;
 
-    private Map<Long, AddressMetaData> knownAddresses = new ConcurrentHashMap();
-    private Set<Long> trimmedAddresses = Collections.newSetFromMap(new ConcurrentHashMap<>());
-    private Set<Long> pendingTrims = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private SegmentAddressSpace knownAddresses;
+    private AddressBitSet trimmedAddresses;
+    private AddressBitSet pendingTrims;
     private volatile int refCount = 0;
 
+    /**
+     * The highest address of every stream that has a record in this segment.
+     */
+    private final Map<UUID, Long> streamTails = new ConcurrentHashMap<>();
+
+    /**
+     * Read-only mapping of the segment file, only set once the segment is full.
+     */
+    private volatile MappedByteBuffer mappedBuffer;
+
+    /**
+     * The size of the segment file, appends that end within it don't change the file size.
+     */
+    private volatile long allocatedSize = 0L;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Returns a handle for a segment, with an empty address space.
+     *
+     * @param segment            the segment number
+     * @param writeChannel       the channel that the segment is appended through
+     * @param readChannel        the channel that the segment is read through
+     * @param trimmedChannel     the channel of the trimmed addresses file
+     * @param pendingTrimChannel the channel of the pending trims file
+     * @param fileName           the path of the segment file
+     * @param recordsPerSegment  the number of addresses of a segment
+     */
+    SegmentHandle(long segment, @NonNull FileChannel writeChannel,
+                  @NonNull FileChannel readChannel, @NonNull FileChannel trimmedChannel,
+                  @NonNull FileChannel pendingTrimChannel, @NonNull String fileName,
+                  int recordsPerSegment) {
+        this.segment = segment;
+        this.writeChannel = writeChannel;
+        this.readChannel = readChannel;
+        this.trimmedChannel = trimmedChannel;
+        this.pendingTrimChannel = pendingTrimChannel;
+        this.fileName = fileName;
+
+        long firstAddress = segment * recordsPerSegment;
+        knownAddresses = new SegmentAddressSpace(firstAddress, recordsPerSegment);
+        trimmedAddresses = new AddressBitSet(firstAddress, recordsPerSegment);
+        pendingTrims = new AddressBitSet(firstAddress, recordsPerSegment);
+    }
 
     public synchronized void retain() {
         refCount++;
@@ -55,7 +102,25 @@ class SegmentHandle {
         refCount--;
     }
 
+    /**
+     * Release the read-only mapping of this segment, if there is one. The caller
+     * must guarantee that no reader is accessing the mapped buffer.
+     *
+     * @return the number of bytes that were unmapped
+     */
+    public synchronized long unmap() {
+        MappedByteBuffer buffer = mappedBuffer;
+        if (buffer == null) {
+            return 0;
+        }
+
+        mappedBuffer = null;
+        PlatformDependent.freeDirectBuffer(buffer);
+        return buffer.capacity();
+    }
+
     public void close() {
+        closed = true;
         Set<FileChannel> channels =
                 new HashSet(Arrays.asList(writeChannel, readChannel, trimmedChannel, pendingTrimChannel));
         for (FileChannel channel : channels) {
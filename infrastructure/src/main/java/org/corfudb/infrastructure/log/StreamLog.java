@@ -1,7 +1,10 @@
 package org.corfudb.infrastructure.log;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 import org.corfudb.protocols.wireprotocol.LogData;
 
@@ -36,6 +39,35 @@ public interface StreamLog {
      */
     LogData read(long address);
 
+    /**
+     * Given an address, read the corresponding stream entry, preferably backed by its
+     * serialized form in a direct buffer (see {@link LogData#isSerializedOnly()}), which
+     * the caller has to release.
+     * @param address  address to read from the log
+     * @return Stream entry if it exists, otherwise return null
+     */
+    default LogData readSerialized(long address) {
+        return read(address);
+    }
+
+    /**
+     * Given a set of addresses, read the corresponding stream entries.
+     * @param addresses  addresses to read from the log
+     * @param serialized whether the entries should preferably be backed by their
+     *                   serialized form, as returned by {@link #readSerialized(long)}
+     * @return The stream entries that exist, keyed by their addresses
+     */
+    default Map<Long, LogData> readAll(Iterable<? extends Long> addresses, boolean serialized) {
+        Map<Long, LogData> entries = new HashMap<>();
+        for (long address : addresses) {
+            LogData entry = serialized ? readSerialized(address) : read(address);
+            if (entry != null) {
+                entries.put(address, entry);
+            }
+        }
+        return entries;
+    }
+
     /**
      * Mark a StreamLog address as trimmed.
      * @param address  address to trim from the log
@@ -58,6 +90,12 @@ public interface StreamLog {
      */
     long getGlobalTail();
 
+    /**
+     * Get the highest address that was written for every stream. The tail of the stream
+     * of a checkpoint is at least the address that the checkpoint starts from.
+     */
+    Map<UUID, Long> getStreamTails();
+
     /**
      * Get the first untrimmed address in the address space.
      */
@@ -70,6 +108,34 @@ public interface StreamLog {
      */
     void sync(boolean force) throws IOException;
 
+    /**
+     * Get the number of devices that the stream log is spread across. The addresses of
+     * a device can be appended and synced independently of the other devices.
+     */
+    default int getDevices() {
+        return 1;
+    }
+
+    /**
+     * Get the device that an address is stored on.
+     *
+     * @param address  address in the log
+     * @return the device, from 0 to {@link #getDevices()} - 1
+     */
+    default int getDevice(long address) {
+        return 0;
+    }
+
+    /**
+     * Sync the stream log files of a device to secondary storage.
+     *
+     * @param device device to sync
+     * @param force  force data to secondary storage if true
+     */
+    default void sync(int device, boolean force) throws IOException {
+        sync(force);
+    }
+
     /**
      * Close the stream log.
      */
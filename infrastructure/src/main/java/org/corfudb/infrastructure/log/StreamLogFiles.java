@@ -1,15 +1,27 @@
 package org.corfudb.infrastructure.log;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.protobuf.AbstractMessage;
-import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
@@ -18,6 +30,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.file.FileAlreadyExistsException;
@@ -27,18 +40,38 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import javax.annotation.Nullable;
 
@@ -49,6 +82,7 @@ import org.corfudb.format.Types;
 import org.corfudb.format.Types.LogEntry;
 import org.corfudb.format.Types.LogHeader;
 import org.corfudb.format.Types.Metadata;
+import org.corfudb.format.Types.SegmentIndex;
 import org.corfudb.format.Types.TrimEntry;
 import org.corfudb.infrastructure.ServerContext;
 import org.corfudb.protocols.logprotocol.CheckpointEntry;
@@ -56,6 +90,8 @@ import org.corfudb.protocols.wireprotocol.IMetadata;
 import org.corfudb.protocols.wireprotocol.LogData;
 import org.corfudb.runtime.exceptions.DataCorruptionException;
 import org.corfudb.runtime.exceptions.OverwriteException;
+import org.corfudb.runtime.exceptions.unrecoverable.UnrecoverableCorfuInterruptedError;
+import org.corfudb.runtime.view.Address;
 
 import static org.corfudb.infrastructure.utils.Persistence.syncDirectory;
 
@@ -77,17 +113,126 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             .setLength(-1)
             .build()
             .getSerializedSize();
-    public static int VERSION = 2;
-    public static int RECORDS_PER_LOG_FILE = 10000;
-    public static int TRIM_THRESHOLD = (int) (.25 * RECORDS_PER_LOG_FILE);
+    public static int VERSION = 3;
+    /**
+     * The default number of addresses per segment, a log unit configures its own with
+     * --segment-records.
+     */
+    public static final int RECORDS_PER_LOG_FILE = 10000;
+    private static final double TRIM_THRESHOLD_RATIO = .25;
+    /**
+     * The trim threshold of a segment of the default size, a log unit derives its own from
+     * the size of its segments.
+     */
+    public static final int TRIM_THRESHOLD = (int) (TRIM_THRESHOLD_RATIO * RECORDS_PER_LOG_FILE);
+    public static final long DEFAULT_MMAP_READ_BUDGET = 1024L * 1024L * 1024L;
+
+    /**
+     * The maximum size of a single read that spans the records of adjacent addresses.
+     */
+    private static final int MAX_COALESCED_READ_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The default I/O bandwidth budget of compaction, in bytes per second.
+     */
+    public static final long DEFAULT_COMPACTION_RATE = 64L * 1024L * 1024L;
+
+    /**
+     * The size of the buffers that compaction streams segments through.
+     */
+    private static final int COMPACTION_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The size of the buffers that segment files are zero-filled with.
+     */
+    private static final int ZERO_FILL_BUFFER_SIZE = 1024 * 1024;
+
+    private static final String METRICS_PREFIX = "corfu.server.logunit.compaction.";
+    private static final String PREALLOCATION_SUFFIX = ".prealloc";
+
+    /**
+     * The smallest record data that is compressed, smaller data rarely shrinks.
+     */
+    private static final int COMPRESSION_THRESHOLD = 256;
+
+    /**
+     * The number of stream_backpointers values that make up one backpointer.
+     */
+    private static final int BACKPOINTER_FIELDS = 3;
+    private static final String COMPRESSION_METRICS_PREFIX = "corfu.server.logunit.compression.";
+
     public final String logDir;
+
+    /**
+     * The directories that segments are placed in, round-robin by segment number. The
+     * first one is logDir, each directory is expected to be on a separate device.
+     */
+    private final List<String> logDirs;
     private final boolean noVerify;
+
+    /**
+     * The number of addresses per segment, which is fixed when the log is created.
+     */
+    private final int recordsPerSegment;
+    private final int trimThreshold;
+    private final boolean mmapReads;
+    private final long mmapReadBudget;
+    private final AtomicLong mappedBytes = new AtomicLong(0L);
+    private final RateLimiter compactionRateLimiter;
+    private final Counter compactionBytesReclaimed;
+    private final Meter compactionThroughput;
+
+    /**
+     * The size that segment files are preallocated to, or 0 if segments grow by appends.
+     */
+    private final long preallocationSize;
+    private final ExecutorService preallocationService;
+    private final Map<Long, Future<?>> preallocations = new ConcurrentHashMap<>();
+
+    /**
+     * The codec that the data of new records is compressed with.
+     */
+    private final Types.Codec codec;
+
+    /**
+     * The idle deflaters and inflaters. They hold native memory, so they are reused across
+     * records instead of being created per record, and are ended once the log is closed.
+     */
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private volatile boolean codecsClosed = false;
+    private final Counter compressionRawBytes;
+    private final Counter compressionCompressedBytes;
+    private final Timer compressionTimer;
+    private final Timer decompressionTimer;
     private final ServerContext serverContext;
     private final AtomicLong globalTail = new AtomicLong(0L);
+
+    /**
+     * The highest address of every stream in the log. It is merged from the stream tails
+     * of the segments the first time it is requested, and updated by the appends after.
+     */
+    private volatile Map<UUID, Long> streamTails;
     private Map<String, SegmentHandle> writeChannels;
-    private Set<FileChannel> channelsToSync;
+
+    /**
+     * The pending opens of segments, see {@link #getSegmentHandle}.
+     */
+    private final Map<String, CompletableFuture<SegmentHandle>> openingSegments =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The channels to sync and the segments to index of each log directory, which
+     * are synced independently.
+     */
+    private List<Set<FileChannel>> channelsToSync;
+    /**
+     * Channels whose file size changed since they were last synced.
+     */
+    private Set<FileChannel> resizedChannels;
+    private List<Set<SegmentHandle>> segmentsToIndex;
     private MultiReadWriteLock segmentLocks = new MultiReadWriteLock();
-    private long lastSegment;
+    private volatile long lastSegment;
     private volatile long startingAddress;
 
     /**
@@ -97,21 +242,70 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
      * @param noVerify       Disable checksum if true
      */
     public StreamLogFiles(ServerContext serverContext, boolean noVerify) {
-        logDir = serverContext.getServerConfig().get("--log-path") + File.separator + "log";
-        File dir = new File(logDir);
-        if (!dir.exists()) {
-            dir.mkdirs();
+        logDirs = getLogDirs(serverContext.getServerConfig());
+        logDir = logDirs.get(0);
+        for (String path : logDirs) {
+            File dir = new File(path);
+            if (!dir.exists()) {
+                dir.mkdirs();
+            }
         }
 
         writeChannels = new ConcurrentHashMap();
-        channelsToSync = new HashSet<>();
+        // The sets are updated by the writers while a previous batch is being synced
+        channelsToSync = new ArrayList<>();
+        segmentsToIndex = new ArrayList<>();
+        for (int device = 0; device < logDirs.size(); device++) {
+            channelsToSync.add(ConcurrentHashMap.newKeySet());
+            segmentsToIndex.add(ConcurrentHashMap.newKeySet());
+        }
+        resizedChannels = ConcurrentHashMap.newKeySet();
         this.noVerify = noVerify;
         this.serverContext = serverContext;
-        verifyLogs();
+
+        Map<String, Object> opts = serverContext.getServerConfig();
+        mmapReads = opts.get("--mmap-reads") != null && (Boolean) opts.get("--mmap-reads");
+        mmapReadBudget = opts.get("--mmap-read-budget") != null
+                ? Long.parseLong((String) opts.get("--mmap-read-budget"))
+                : DEFAULT_MMAP_READ_BUDGET;
+        long compactionRate = opts.get("--compaction-rate") != null
+                ? Long.parseLong((String) opts.get("--compaction-rate"))
+                : DEFAULT_COMPACTION_RATE;
+        compactionRateLimiter = compactionRate > 0 ? RateLimiter.create(compactionRate) : null;
+        preallocationSize = opts.get("--segment-preallocation") != null
+                ? Long.parseLong((String) opts.get("--segment-preallocation"))
+                : 0L;
+        preallocationService = preallocationSize > 0
+                ? Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("LogUnit-Preallocation-%d")
+                        .build())
+                : null;
+        codec = opts.get("--log-compression") != null
+                ? Types.Codec.valueOf(((String) opts.get("--log-compression")).toUpperCase())
+                : Types.Codec.NONE;
+
+        recordsPerSegment = loadSegmentGeometry(opts);
+        trimThreshold = (int) (TRIM_THRESHOLD_RATIO * recordsPerSegment);
+
+        MetricRegistry metrics = ServerContext.getMetrics();
+        compactionBytesReclaimed = metrics.counter(METRICS_PREFIX + "bytes-reclaimed");
+        compactionThroughput = metrics.meter(METRICS_PREFIX + "throughput");
+        compressionRawBytes = metrics.counter(COMPRESSION_METRICS_PREFIX + "raw-bytes");
+        compressionCompressedBytes = metrics.counter(COMPRESSION_METRICS_PREFIX
+                + "compressed-bytes");
+        compressionTimer = metrics.timer(COMPRESSION_METRICS_PREFIX + "compress");
+        decompressionTimer = metrics.timer(COMPRESSION_METRICS_PREFIX + "decompress");
+
+        // Preallocated files that weren't linked in place before a crash are incomplete
+        deleteFilesMatchingFilter(file -> file.getName().endsWith(PREALLOCATION_SUFFIX));
+
+        Set<Long> segmentsOnDisk = verifyLogs();
         // Starting address initialization should happen before
         // initializing the tail segment (i.e. initializeMaxGlobalAddress)
         initializeStartingAddress();
-        initializeMaxGlobalAddress();
+        initializeMaxGlobalAddress(segmentsOnDisk);
+        rebuildSegmentIndexes(segmentsOnDisk);
 
         // This can happen if a prefix trim happens on
         // addresses that haven't been written
@@ -120,6 +314,98 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         }
     }
 
+    /**
+     * Returns the number of addresses per segment of this log.
+     */
+    public int getRecordsPerSegment() {
+        return recordsPerSegment;
+    }
+
+    /**
+     * Returns the directories that the segments of a log are placed in, the log
+     * directory under the log path followed by the log directories under the paths
+     * of the --log-dirs option.
+     *
+     * @param opts The server options.
+     * @return The log directories.
+     */
+    public static List<String> getLogDirs(Map<String, Object> opts) {
+        List<String> dirs = new ArrayList<>();
+        dirs.add(opts.get("--log-path") + File.separator + "log");
+        if (opts.get("--log-dirs") != null) {
+            for (String path : ((String) opts.get("--log-dirs")).split(",")) {
+                if (!path.trim().isEmpty()) {
+                    dirs.add(path.trim() + File.separator + "log");
+                }
+            }
+        }
+        return dirs;
+    }
+
+    @Override
+    public int getDevices() {
+        return logDirs.size();
+    }
+
+    @Override
+    public int getDevice(long address) {
+        return getSegmentDevice(address / recordsPerSegment);
+    }
+
+    private int getSegmentDevice(long segment) {
+        return (int) (segment % logDirs.size());
+    }
+
+    /**
+     * Determine the segment geometry of the log. A new log uses the configured number of
+     * addresses per segment, while an existing log keeps the geometry persisted in the
+     * headers of its segments.
+     *
+     * @param opts The server options.
+     * @return The number of addresses per segment.
+     */
+    private int loadSegmentGeometry(Map<String, Object> opts) {
+        int configured = opts.get("--segment-records") != null
+                ? Integer.parseInt((String) opts.get("--segment-records"))
+                : RECORDS_PER_LOG_FILE;
+        if (configured <= 0) {
+            throw new IllegalArgumentException("Invalid number of records per segment "
+                    + configured);
+        }
+
+        Optional<File> firstSegment = logDirs.stream()
+                .flatMap(path -> FileUtils.listFiles(new File(path), new String[]{"log"}, true)
+                        .stream())
+                .filter(file -> file.getName().split("\\.")[0].matches("\\d+"))
+                .min(Comparator.comparingLong(file ->
+                        Long.parseLong(file.getName().split("\\.")[0])));
+        if (!firstSegment.isPresent()) {
+            return configured;
+        }
+
+        try (FileChannel fc = FileChannel.open(firstSegment.get().toPath(),
+                StandardOpenOption.READ)) {
+            LogHeader header = parseHeader(fc);
+            if (header == null) {
+                return configured;
+            }
+
+            int persisted = getRecordsPerSegment(header);
+            if (persisted != configured) {
+                log.warn("loadSegmentGeometry: log was created with {} records per segment, "
+                        + "ignoring the configured {}", persisted, configured);
+            }
+            return persisted;
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private static int getRecordsPerSegment(LogHeader header) {
+        return header.hasRecordsPerSegment() ? header.getRecordsPerSegment()
+                : RECORDS_PER_LOG_FILE;
+    }
+
     public static String getPendingTrimsFilePath(String segmentPath) {
         return segmentPath + ".pending";
     }
@@ -128,6 +414,14 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         return segmentPath + ".trimmed";
     }
 
+    public static String getIndexFilePath(String segmentPath) {
+        return segmentPath + ".index";
+    }
+
+    private static String getPreallocationFilePath(String segmentPath) {
+        return segmentPath + PREALLOCATION_SUFFIX;
+    }
+
     /**
      * Write the header for a Corfu log file.
      *
@@ -138,10 +432,44 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
      */
     public static void writeHeader(FileChannel fc, int version, boolean verify)
             throws IOException {
+        writeHeader(fc, version, verify, RECORDS_PER_LOG_FILE);
+    }
+
+    /**
+     * Write the header for a Corfu log file.
+     *
+     * @param fc                The file channel to use.
+     * @param version           The version number to append to the header.
+     * @param verify            Checksum verify flag
+     * @param recordsPerSegment The number of addresses per segment of the log.
+     * @throws IOException I/O exception
+     */
+    public static void writeHeader(FileChannel fc, int version, boolean verify,
+                                   int recordsPerSegment) throws IOException {
+        writeHeader(fc, version, verify, recordsPerSegment, 1, false);
+    }
+
+    /**
+     * Write the header for a Corfu log file.
+     *
+     * @param fc                The file channel to use.
+     * @param version           The version number to append to the header.
+     * @param verify            Checksum verify flag
+     * @param recordsPerSegment The number of addresses per segment of the log.
+     * @param logDirs           The number of directories the segments are spread across.
+     * @param preallocated      Whether the file is zero-filled past the header.
+     * @throws IOException I/O exception
+     */
+    public static void writeHeader(FileChannel fc, int version, boolean verify,
+                                   int recordsPerSegment, int logDirs, boolean preallocated)
+            throws IOException {
 
         LogHeader header = LogHeader.newBuilder()
                 .setVersion(version)
                 .setVerifyChecksum(verify)
+                .setRecordsPerSegment(recordsPerSegment)
+                .setLogDirs(logDirs)
+                .setPreallocated(preallocated)
                 .build();
 
         ByteBuffer buf = getByteBufferWithMetaData(header);
@@ -157,6 +485,22 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                 .build();
     }
 
+    /**
+     * Returns the metadata of a serialized message.
+     *
+     * @param buf    the buffer that holds the serialized message
+     * @param offset the offset of the message in the buffer
+     * @param length the length of the message
+     * @return the metadata for the message
+     */
+    public static Metadata getMetadata(byte[] buf, int offset, int length) {
+        return Metadata.newBuilder()
+                .setPayloadChecksum(getChecksum(buf, offset, length))
+                .setLengthChecksum(getChecksum(length))
+                .setLength(length)
+                .build();
+    }
+
     public static ByteBuffer getByteBuffer(Metadata metadata, AbstractMessage message) {
         ByteBuffer buf = ByteBuffer.allocate(metadata.getSerializedSize()
                 + message.getSerializedSize());
@@ -183,12 +527,18 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
      * @return       checksum of bytes
      */
     public static int getChecksum(byte[] bytes) {
-        Hasher hasher = Hashing.crc32c().newHasher();
-        for (byte a : bytes) {
-            hasher.putByte(a);
-        }
+        return getChecksum(bytes, 0, bytes.length);
+    }
 
-        return hasher.hash().asInt();
+    /**
+     * Returns checksum used for log.
+     * @param bytes   buffer that holds the data
+     * @param offset  offset of the data in the buffer
+     * @param length  length of the data
+     * @return        checksum of the data
+     */
+    public static int getChecksum(byte[] bytes, int offset, int length) {
+        return Hashing.crc32c().hashBytes(bytes, offset, length).asInt();
     }
 
     static int getChecksum(long num) {
@@ -196,7 +546,7 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         return hasher.putLong(num).hash().asInt();
     }
 
-    static int getChecksum(int num) {
+    public static int getChecksum(int num) {
         Hasher hasher = Hashing.crc32c().newHasher();
         return hasher.putInt(num).hash().asInt();
     }
@@ -206,15 +556,124 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         return globalTail.get();
     }
 
+    @Override
+    public synchronized Map<UUID, Long> getStreamTails() {
+        if (streamTails == null) {
+            // Appends update the map from now on, so that the records that are appended
+            // while the segments are merged aren't missed
+            Map<UUID, Long> tails = new ConcurrentHashMap<>();
+            streamTails = tails;
+
+            long firstSegment = startingAddress / recordsPerSegment;
+            List<Callable<Map<UUID, Long>>> tasks = new ArrayList<>();
+            for (long segment : getSegmentsOnDisk()) {
+                if (segment >= firstSegment) {
+                    tasks.add(() -> getSegmentStreamTails(segment));
+                }
+            }
+
+            for (Map<UUID, Long> segmentTails : runTasks(tasks, "LogUnit-StreamTails-%d")) {
+                segmentTails.forEach((streamId, address) ->
+                        updateStreamTail(tails, streamId, address));
+            }
+            log.info("getStreamTails: loaded the tails of {} streams from {} segments",
+                    tails.size(), tasks.size());
+        }
+
+        return new HashMap<>(streamTails);
+    }
+
+    /**
+     * Returns the stream tails of a segment. The tails of a segment that isn't open are
+     * read from its index, the segment is only opened if it has no valid index.
+     *
+     * @param segment The segment to get the stream tails of.
+     */
+    private Map<UUID, Long> getSegmentStreamTails(long segment) throws IOException {
+        String filePath = getSegmentFilePath(segment);
+        if (!writeChannels.containsKey(filePath)) {
+            try (FileChannel fc = getChannel(filePath, true)) {
+                LogHeader header = parseHeader(fc);
+                SegmentIndex index = header == null ? null
+                        : readSegmentIndexFile(filePath, fc, header.getPreallocated());
+                if (index != null) {
+                    Map<UUID, Long> tails = new HashMap<>();
+                    for (int x = 0; x < index.getStreamTailsCount(); x += BACKPOINTER_FIELDS) {
+                        tails.put(new UUID(index.getStreamTails(x), index.getStreamTails(x + 1)),
+                                index.getStreamTails(x + 2));
+                    }
+                    return tails;
+                }
+            } catch (RuntimeException e) {
+                if (!new File(filePath).exists()) {
+                    // The segment has been trimmed in the meantime
+                    return Collections.emptyMap();
+                }
+                throw e;
+            }
+        }
+
+        SegmentHandle sh = getSegmentHandleForAddress(segment * recordsPerSegment);
+        try {
+            return new HashMap<>(sh.getStreamTails());
+        } finally {
+            sh.release();
+        }
+    }
+
+    /**
+     * Updates the stream tails of a segment, and of the log once they are loaded, with
+     * a record of the segment. The tail of the stream of a checkpoint is also moved to
+     * the address that the checkpoint starts from, as done when the tails are recovered
+     * by scanning the log.
+     *
+     * @param sh    The segment of the record.
+     * @param entry The record.
+     */
+    private void updateStreamTails(SegmentHandle sh, LogEntry entry) {
+        Map<UUID, Long> recordTails = new HashMap<>();
+        for (int i = 0; i < entry.getStreamBackpointersCount(); i += BACKPOINTER_FIELDS) {
+            recordTails.put(new UUID(entry.getStreamBackpointers(i),
+                    entry.getStreamBackpointers(i + 1)), entry.getGlobalAddress());
+        }
+        if (entry.getCheckpointEntryType() == Types.CheckpointEntryType.END
+                && Address.isAddress(entry.getCheckpointedStreamStartLogAddress())) {
+            updateStreamTail(recordTails, new UUID(entry.getCheckpointedStreamIdMostSignificant(),
+                            entry.getCheckpointedStreamIdLeastSignificant()),
+                    entry.getCheckpointedStreamStartLogAddress());
+        }
+
+        // The segment is updated before the tails of the log are checked, so that a
+        // record that is appended while the tails of the log are loaded isn't missed
+        recordTails.forEach((streamId, address) ->
+                updateStreamTail(sh.getStreamTails(), streamId, address));
+        Map<UUID, Long> tails = streamTails;
+        if (tails != null) {
+            recordTails.forEach((streamId, address) ->
+                    updateStreamTail(tails, streamId, address));
+        }
+    }
+
+    private static void updateStreamTail(Map<UUID, Long> tails, UUID streamId, long address) {
+        tails.merge(streamId, address, Math::max);
+    }
+
     private void syncTailSegment(long address) {
         // TODO(Maithem) since writing a record and setting the tail segment is not
         // an atomic operation, it is possible to set an incorrect tail segment. In
         // that case we will need to scan more than one segment
         globalTail.getAndUpdate(maxTail -> address > maxTail ? address : maxTail);
-        long segment = address / RECORDS_PER_LOG_FILE;
+        long segment = address / recordsPerSegment;
         if (lastSegment < segment) {
-            serverContext.setTailSegment(segment);
-            lastSegment = segment;
+            // Segments on different devices are appended to concurrently
+            synchronized (globalTail) {
+                if (lastSegment < segment) {
+                    serverContext.setTailSegment(segment);
+                    lastSegment = segment;
+                    // Appends moved to a new tail segment, they will reach the next one
+                    preallocateSegment(segment + 1);
+                }
+            }
         }
     }
 
@@ -246,73 +705,294 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         startingAddress = serverContext.getStartingAddress();
     }
 
-    private void initializeMaxGlobalAddress() {
+    /**
+     * Initializes the global tail. Since writing a record and persisting the tail segment
+     * isn't atomic, every segment on disk past the persisted tail segment might contain
+     * the tail. These segments are loaded in parallel and their tails are merged.
+     *
+     * @param segmentsOnDisk segments that have a log file on disk
+     */
+    private void initializeMaxGlobalAddress(Set<Long> segmentsOnDisk) {
         long tailSegment = serverContext.getTailSegment();
-        long addressInTailSegment = (tailSegment * RECORDS_PER_LOG_FILE) + 1;
-        SegmentHandle sh = getSegmentHandleForAddress(addressInTailSegment);
+        lastSegment = tailSegment;
 
-        try {
+        Set<Long> candidates = new TreeSet<>();
+        candidates.add(tailSegment);
+        for (long segment : segmentsOnDisk) {
+            if (segment > tailSegment) {
+                candidates.add(segment);
+            }
+        }
+
+        List<Callable<Long>> tasks = new ArrayList<>();
+        for (long segment : candidates) {
+            tasks.add(() -> {
+                SegmentHandle sh = getSegmentHandle(segment, getSegmentFilePath(segment));
+                return sh.getKnownAddresses().getMaxAddress();
+            });
+        }
+
+        long maxAddress = -1L;
+        for (long segmentTail : runRecoveryTasks(tasks)) {
+            maxAddress = Math.max(segmentTail, maxAddress);
+        }
+
+        if (maxAddress >= 0) {
+            syncTailSegment(maxAddress);
+        }
+        // The segments past the tail segment were only opened to look for the tail, an
+        // unwritten preallocated segment doesn't mean appends are about to reach the next
+        preallocateSegment(lastSegment + 1);
+    }
 
-            for (long address : sh.getKnownAddresses().keySet()) {
-                globalTail.getAndUpdate(maxTail -> address > maxTail
-                        ? address : maxTail);
+    /**
+     * Rebuilds the missing indexes of the segments below the tail segment in parallel,
+     * rather than leaving the first read of each segment to scan it. A segment loses its
+     * index when it is compacted or migrated to a new log format. The segments are
+     * scanned and indexed without being published, and are closed once indexed. A
+     * corrupted segment is left unindexed, and is scanned when it is first read.
+     *
+     * @param segmentsOnDisk segments that have a log file on disk
+     */
+    private void rebuildSegmentIndexes(Set<Long> segmentsOnDisk) {
+        long firstSegment = startingAddress / recordsPerSegment;
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (long segment : segmentsOnDisk) {
+            String filePath = getSegmentFilePath(segment);
+            if (segment < firstSegment || segment >= lastSegment
+                    || writeChannels.containsKey(filePath)
+                    || new File(getIndexFilePath(filePath)).exists()) {
+                continue;
             }
 
-        } finally {
-            sh.release();
+            tasks.add(() -> {
+                try {
+                    closeSegmentHandle(openSegmentHandle(segment, filePath));
+                } catch (DataCorruptionException e) {
+                    // The corruption is reported when the segment is read
+                    log.warn("rebuildSegmentIndexes: segment {} is corrupted, leaving it "
+                            + "unindexed", segment);
+                    return false;
+                }
+                return new File(getIndexFilePath(filePath)).exists();
+            });
         }
 
-        lastSegment = tailSegment;
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        int indexed = 0;
+        for (boolean segmentIndexed : runRecoveryTasks(tasks)) {
+            indexed += segmentIndexed ? 1 : 0;
+        }
+        log.info("rebuildSegmentIndexes: indexed {} of {} segments without an index",
+                indexed, tasks.size());
     }
 
-    private void verifyLogs() {
+    /**
+     * Verifies the headers of all the log files in parallel.
+     *
+     * @return the segments that have a log file on disk
+     */
+    private Set<Long> verifyLogs() {
         String[] extension = {"log"};
-        File dir = new File(logDir);
+        Set<Long> segments = new HashSet<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
 
-        if (dir.exists()) {
-            Collection<File> files = FileUtils.listFiles(dir, extension, true);
+        for (String path : logDirs) {
+            File dir = new File(path);
+            if (!dir.exists()) {
+                continue;
+            }
 
+            Collection<File> files = FileUtils.listFiles(dir, extension, true);
             for (File file : files) {
-                try (FileInputStream fsIn = new FileInputStream(file)) {
-                    FileChannel fc = fsIn.getChannel();
-                    LogHeader header = parseHeader(fc);
-                    fc.close();
-                    fsIn.close();
-
-                    if (header == null) {
-                        log.warn("verifyLogs: Ignoring partially written header in {}", file.getAbsoluteFile());
-                        continue;
-                    }
-
-                    if (header.getVersion() != VERSION) {
-                        String msg = String.format("Log version %s for %s should match "
-                                + "the logunit log version %s",
-                                header.getVersion(), file.getAbsoluteFile(), VERSION);
+                try {
+                    long segment = Long.parseLong(file.getName().split("\\.")[0]);
+                    if (!getSegmentFilePath(segment).equals(path + File.separator
+                            + file.getName())) {
+                        String msg = String.format("Log file %s isn't in the log directory "
+                                + "of its segment %s, the log directories of a log can't "
+                                + "be changed", file.getAbsoluteFile(),
+                                getSegmentFilePath(segment));
                         throw new RuntimeException(msg);
                     }
+                    segments.add(segment);
+                } catch (NumberFormatException e) {
+                    log.warn("verifyLogs: {} is not a segment file", file.getName());
+                }
 
-                    if (!noVerify && !header.getVerifyChecksum()) {
-                        String msg = String.format("Log file %s not generated with "
-                                + "checksums, can't verify!", file.getAbsoluteFile());
-                        throw new RuntimeException(msg);
-                    }
+                tasks.add(() -> {
+                    verifyLogHeader(file);
+                    return null;
+                });
+            }
+        }
 
-                } catch (IOException e) {
-                    throw new RuntimeException(e.getMessage(), e);
+        runRecoveryTasks(tasks);
+        return segments;
+    }
+
+    /**
+     * Returns the segments that have a log file on disk.
+     */
+    private Set<Long> getSegmentsOnDisk() {
+        Set<Long> segments = new HashSet<>();
+        for (String path : logDirs) {
+            File[] files = new File(path).listFiles((dir, name) -> name.endsWith(".log"));
+            if (files == null) {
+                continue;
+            }
+
+            for (File file : files) {
+                try {
+                    segments.add(Long.parseLong(file.getName().split("\\.")[0]));
+                } catch (NumberFormatException e) {
+                    log.warn("getSegmentsOnDisk: {} is not a segment file", file.getName());
                 }
             }
         }
+        return segments;
+    }
+
+    private void verifyLogHeader(File file) {
+        try (FileInputStream fsIn = new FileInputStream(file)) {
+            FileChannel fc = fsIn.getChannel();
+            LogHeader header = parseHeader(fc);
+            fc.close();
+            fsIn.close();
+
+            if (header == null) {
+                log.warn("verifyLogs: Ignoring partially written header in {}", file.getAbsoluteFile());
+                return;
+            }
+
+            if (header.getVersion() != VERSION) {
+                String msg = String.format("Log version %s for %s should match "
+                        + "the logunit log version %s",
+                        header.getVersion(), file.getAbsoluteFile(), VERSION);
+                throw new RuntimeException(msg);
+            }
+
+            if (!noVerify && !header.getVerifyChecksum()) {
+                String msg = String.format("Log file %s not generated with "
+                        + "checksums, can't verify!", file.getAbsoluteFile());
+                throw new RuntimeException(msg);
+            }
+
+            int headerLogDirs = header.hasLogDirs() ? header.getLogDirs() : 1;
+            if (headerLogDirs != logDirs.size()) {
+                String msg = String.format("Log file %s was written to %s log directories, "
+                        + "but %s are configured, the log directories of a log can't be "
+                        + "changed", file.getAbsoluteFile(), headerLogDirs, logDirs.size());
+                throw new RuntimeException(msg);
+            }
+
+            if (getRecordsPerSegment(header) != recordsPerSegment) {
+                String msg = String.format("Log file %s has %s records per segment, "
+                        + "which doesn't match the log's %s", file.getAbsoluteFile(),
+                        getRecordsPerSegment(header), recordsPerSegment);
+                throw new RuntimeException(msg);
+            }
+
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Runs independent recovery tasks on a thread pool bounded by the number of
+     * available processors, and waits for all of them to complete.
+     *
+     * @param tasks the tasks to run
+     * @param <T>   the result type of the tasks
+     * @return the results of the tasks, in the order of the tasks
+     */
+    private <T> List<T> runRecoveryTasks(List<Callable<T>> tasks) {
+        return runTasks(tasks, "LogUnit-Recovery-%d");
+    }
+
+    /**
+     * Runs independent tasks on a thread pool bounded by the number of available
+     * processors, and waits for all of them to complete.
+     *
+     * @param tasks      the tasks to run
+     * @param nameFormat the name format of the pool threads
+     * @param <T>        the result type of the tasks
+     * @return the results of the tasks, in the order of the tasks
+     */
+    private <T> List<T> runTasks(List<Callable<T>> tasks, String nameFormat) {
+        List<T> results = new ArrayList<>();
+        if (tasks.isEmpty()) {
+            return results;
+        }
+
+        int numThreads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService recoveryService = Executors.newFixedThreadPool(numThreads,
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat(nameFormat)
+                        .build());
+
+        try {
+            for (Future<T> future : recoveryService.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            throw new UnrecoverableCorfuInterruptedError(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            recoveryService.shutdownNow();
+        }
+
+        return results;
     }
 
     @Override
     public void sync(boolean force) throws IOException {
+        for (int device = 0; device < logDirs.size(); device++) {
+            sync(device, force);
+        }
+    }
+
+    @Override
+    public void sync(int device, boolean force) throws IOException {
+        // Appends can run concurrently with a sync. A channel is removed from the
+        // set before it is forced, so a write that is not covered by the force
+        // adds the channel back for the next sync.
+        int synced = 0;
+        for (FileChannel ch : channelsToSync.get(device)) {
+            channelsToSync.get(device).remove(ch);
+            // Appends within the preallocated region of a segment only change data
+            boolean resized = resizedChannels.remove(ch);
+            if (force) {
+                ch.force(resized);
+            }
+            synced++;
+        }
+        log.debug("Sync'd {} channels", synced);
+
         if (force) {
-            for (FileChannel ch : channelsToSync) {
-                ch.force(true);
+            // Only index segments once their records are known to be durable
+            for (SegmentHandle sh : segmentsToIndex.get(device)) {
+                segmentsToIndex.get(device).remove(sh);
+                if (writeChannels.get(sh.getFileName()) != sh) {
+                    // The segment has been closed (i.e. trimmed or compacted) in the meantime
+                    continue;
+                }
+
+                try {
+                    writeSegmentIndex(sh);
+                } catch (IOException e) {
+                    log.warn("sync: failed to write index for segment {}", sh.getSegment(), e);
+                }
             }
         }
-        log.debug("Sync'd {} channels", channelsToSync.size());
-        channelsToSync.clear();
     }
 
     @Override
@@ -335,7 +1015,9 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             entry.writeDelimitedTo(outputStream);
             outputStream.flush();
             handle.getPendingTrims().add(address);
-            channelsToSync.add(handle.getPendingTrimChannel());
+            resizedChannels.add(handle.getPendingTrimChannel());
+            channelsToSync.get(getSegmentDevice(handle.getSegment()))
+                    .add(handle.getPendingTrimChannel());
         } catch (IOException e) {
             log.warn("Exception while writing a trim entry {} : {}", address, e.toString());
         } finally {
@@ -360,7 +1042,7 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     private void trimPrefix() {
         // Trim all segments up till the segment that contains the starting address
         // (i.e. trim only complete segments)
-        long endSegment = (startingAddress / RECORDS_PER_LOG_FILE) - 1;
+        long endSegment = (startingAddress / recordsPerSegment) - 1;
 
         if (endSegment <= 0) {
             log.debug("Only one segment detected, ignoring trim");
@@ -385,11 +1067,12 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
 
     private void spaseCompact() {
         //TODO(Maithem) Open all segment handlers?
+        List<Callable<Void>> tasks = new ArrayList<>();
         for (SegmentHandle sh : writeChannels.values()) {
-            Set<Long> pending = new HashSet(sh.getPendingTrims());
-            Set<Long> trimmed = sh.getTrimmedAddresses();
+            AddressBitSet pending = sh.getPendingTrims().copy();
+            AddressBitSet trimmed = sh.getTrimmedAddresses();
 
-            if (sh.getKnownAddresses().size() + trimmed.size() != RECORDS_PER_LOG_FILE) {
+            if (sh.getKnownAddresses().size() + trimmed.size() != recordsPerSegment) {
                 log.info("Log segment still not complete, skipping");
                 continue;
             }
@@ -397,133 +1080,319 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             pending.removeAll(trimmed);
 
             //what if pending size  == knownaddresses size ?
-            if (pending.size() < TRIM_THRESHOLD) {
+            if (pending.size() < trimThreshold) {
                 log.trace("Thresh hold not exceeded. Ratio {} threshold {}",
-                            pending.size(), TRIM_THRESHOLD);
-                return; // TODO - should not return if compact on ranked address space is necessary
+                            pending.size(), trimThreshold);
+                continue;
             }
 
-            try {
-                log.info("Starting compaction, pending entries size {}", pending.size());
-                trimLogFile(sh.getFileName(), pending);
-            } catch (IOException e) {
-                log.error("Compact operation failed for file {}, {}", sh.getFileName(), e);
-            }
+            tasks.add(() -> {
+                try {
+                    log.info("Starting compaction, pending entries size {}", pending.size());
+                    trimLogFile(sh, pending);
+                } catch (IOException | RuntimeException e) {
+                    log.error("Compact operation failed for file {}, {}", sh.getFileName(), e);
+                }
+                return null;
+            });
         }
-    }
-
-    private void trimLogFile(String filePath, Set<Long> pendingTrim) throws IOException {
-        try (FileChannel fc = FileChannel.open(FileSystems.getDefault().getPath(filePath + ".copy"),
-                EnumSet.of(StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
-                        StandardOpenOption.CREATE, StandardOpenOption.SPARSE))) {
-
-            CompactedEntry log = getCompactedEntries(filePath, pendingTrim);
 
-            LogHeader header = log.getLogHeader();
-            Collection<LogEntry> compacted = log.getEntries();
-
-            writeHeader(fc, header.getVersion(), header.getVerifyChecksum());
-
-            for (LogEntry entry : compacted) {
-
-                ByteBuffer record = getByteBufferWithMetaData(entry);
-                ByteBuffer recordBuf = ByteBuffer.allocate(record.capacity());
+        // Eligible segments are compacted concurrently, within the shared I/O budget
+        runTasks(tasks, "LogUnit-Compaction-%d");
+    }
 
-                recordBuf.put(record.array());
-                recordBuf.flip();
+    /**
+     * Compact a segment by copying the records that are still live into a new file,
+     * which then replaces the segment. Appends to the segment are blocked while it is
+     * copied, but reads proceed until the new file is swapped in.
+     *
+     * @param sh          The segment to compact.
+     * @param pendingTrim The addresses to drop from the segment.
+     */
+    private void trimLogFile(SegmentHandle sh, AddressBitSet pendingTrim) throws IOException {
+        String filePath = sh.getFileName();
+        String copyPath = filePath + ".copy";
 
-                fc.write(recordBuf);
+        long segmentSize;
+        long compactedSize;
+        try (MultiReadWriteLock.AutoCloseableLock ignored =
+                     segmentLocks.acquireReadLock(sh.getSegment())) {
+            if (sh.isClosed()) {
+                return;
             }
-
-            fc.force(true);
+            segmentSize = sh.getWriteChannel().position();
+            compactedSize = copyCompactedSegment(sh, copyPath, segmentSize, pendingTrim);
         }
 
-        try (FileChannel fc2 = FileChannel.open(FileSystems.getDefault()
-                        .getPath(getTrimmedFilePath(filePath)),
-                EnumSet.of(StandardOpenOption.APPEND))) {
-            try (OutputStream outputStream = Channels.newOutputStream(fc2)) {
-                // Todo(Maithem) How do we verify that the compacted file is correct?
-                for (Long address : pendingTrim) {
-                    TrimEntry entry = TrimEntry.newBuilder()
-                            .setChecksum(getChecksum(address))
-                            .setAddress(address)
-                            .build();
-                    entry.writeDelimitedTo(outputStream);
+        try (MultiReadWriteLock.AutoCloseableLock ignored =
+                     segmentLocks.acquireWriteLock(sh.getSegment())) {
+            if (sh.isClosed() || sh.getWriteChannel().position() != segmentSize) {
+                // The segment changed after it was copied, it will be compacted again
+                log.info("trimLogFile: segment {} changed during compaction, skipping",
+                        filePath);
+                Files.deleteIfExists(Paths.get(copyPath));
+                return;
+            }
+
+            try (FileChannel fc2 = FileChannel.open(FileSystems.getDefault()
+                            .getPath(getTrimmedFilePath(filePath)),
+                    EnumSet.of(StandardOpenOption.APPEND))) {
+                try (OutputStream outputStream = Channels.newOutputStream(fc2)) {
+                    // Todo(Maithem) How do we verify that the compacted file is correct?
+                    for (long address : pendingTrim.toArray()) {
+                        TrimEntry entry = TrimEntry.newBuilder()
+                                .setChecksum(getChecksum(address))
+                                .setAddress(address)
+                                .build();
+                        entry.writeDelimitedTo(outputStream);
+                    }
+                    outputStream.flush();
+                    fc2.force(true);
                 }
-                outputStream.flush();
-                fc2.force(true);
             }
-        }
 
-        Files.move(Paths.get(filePath + ".copy"), Paths.get(filePath),
-                StandardCopyOption.ATOMIC_MOVE);
+            Files.move(Paths.get(copyPath), Paths.get(filePath),
+                    StandardCopyOption.ATOMIC_MOVE);
+
+            // The segment index no longer matches the compacted segment
+            Files.deleteIfExists(Paths.get(getIndexFilePath(filePath)));
 
-        // Force the reload of the new segment
-        writeChannels.remove(filePath);
+            // Force the reload of the new segment
+            writeChannels.remove(filePath, sh);
+            closeSegmentHandle(sh);
+        }
+
+        compactionBytesReclaimed.inc(segmentSize - compactedSize);
+        log.info("trimLogFile: compacted {} from {} to {} bytes", filePath, segmentSize,
+                compactedSize);
     }
 
-    private CompactedEntry getCompactedEntries(String filePath,
-                                               Set<Long> pendingTrim) throws IOException {
+    /**
+     * Copy the header and the live records of a segment into a new file. The records are
+     * streamed through fixed-size buffers, and the copied records are paced by the
+     * compaction rate limit. The caller must hold the segment read lock, so that the segment isn't
+     * appended to while it is copied.
+     *
+     * @param sh          The segment to copy.
+     * @param copyPath    The path of the compacted file.
+     * @param size        The size of the written part of the segment.
+     * @param pendingTrim The addresses to drop from the segment.
+     * @return The size of the compacted file.
+     */
+    private long copyCompactedSegment(SegmentHandle sh, String copyPath, long size,
+                                      AddressBitSet pendingTrim) throws IOException {
+        try (FileChannel in = getChannel(sh.getFileName(), true);
+             FileChannel out = FileChannel.open(FileSystems.getDefault().getPath(copyPath),
+                     EnumSet.of(StandardOpenOption.TRUNCATE_EXISTING,
+                             StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                             StandardOpenOption.SPARSE))) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(in), COMPACTION_BUFFER_SIZE));
+            OutputStream output = new BufferedOutputStream(Channels.newOutputStream(out),
+                    COMPACTION_BUFFER_SIZE);
+
+            long position = 0;
+            long compactedSize = 0;
+            boolean header = true;
+            while (position < size) {
+                byte[] metadataBuf = new byte[METADATA_SIZE];
+                input.readFully(metadataBuf);
+
+                byte[] recordBuf;
+                boolean live = true;
+                try {
+                    Metadata metadata = Metadata.parseFrom(metadataBuf);
+                    recordBuf = new byte[metadata.getLength()];
+                    input.readFully(recordBuf);
+
+                    if (!header) {
+                        if (!noVerify && metadata.getPayloadChecksum() != getChecksum(recordBuf)) {
+                            log.error("Checksum mismatch detected while compacting {}",
+                                    sh.getFileName());
+                            throw new DataCorruptionException();
+                        }
 
-        FileChannel fc = getChannel(filePath, true);
+                        // Ranked overwrites leave stale records of an address behind,
+                        // only its last record is kept
+                        long entryOffset = position + METADATA_SIZE;
+                        long address = LogEntry.parseFrom(recordBuf).getGlobalAddress();
+                        AddressMetaData latest = sh.getKnownAddresses().get(address);
+                        live = !pendingTrim.contains(address)
+                                && (latest == null || latest.offset == entryOffset);
+                    }
+                } catch (InvalidProtocolBufferException e) {
+                    throw new DataCorruptionException();
+                }
 
-        // Skip the header
-        ByteBuffer headerMetadataBuf = ByteBuffer.allocate(METADATA_SIZE);
-        fc.read(headerMetadataBuf);
-        headerMetadataBuf.flip();
+                int recordSize = METADATA_SIZE + recordBuf.length;
+                position += recordSize;
+                header = false;
 
-        Metadata headerMetadata = Metadata.parseFrom(headerMetadataBuf.array());
-        ByteBuffer headerBuf = ByteBuffer.allocate(headerMetadata.getLength());
-        fc.read(headerBuf);
-        headerBuf.flip();
+                if (live) {
+                    output.write(metadataBuf);
+                    output.write(recordBuf);
+                    compactedSize += recordSize;
+                    throttleCompaction(recordSize);
+                }
+            }
 
-        ByteBuffer o = ByteBuffer.allocate((int) fc.size() - (int) fc.position());
-        fc.read(o);
-        fc.close();
-        o.flip();
+            output.flush();
+            out.force(true);
+            return compactedSize;
+        }
+    }
 
-        LinkedHashMap<Long, LogEntry> compacted = new LinkedHashMap<>();
+    /**
+     * Accounts for a record copied by compaction, blocking while the compaction rate limit
+     * is exceeded.
+     */
+    private void throttleCompaction(int bytes) {
+        if (compactionRateLimiter != null) {
+            compactionRateLimiter.acquire(bytes);
+        }
+        compactionThroughput.mark(bytes);
+    }
 
-        while (o.hasRemaining()) {
-            byte[] metadataBuf = new byte[METADATA_SIZE];
-            o.get(metadataBuf);
+    private LogData getLogData(LogEntry entry) {
+        ByteBuf data = Unpooled.wrappedBuffer(getData(entry));
+        LogData logData = new LogData(getDataType(entry), data);
+        setMetadata(logData, entry);
+        return logData;
+    }
 
-            try {
-                Metadata metadata = Metadata.parseFrom(metadataBuf);
+    /**
+     * Convert a LogEntry into a LogData that is backed by its serialized form, with the
+     * data copied straight from the record.
+     *
+     * @param entry The LogEntry read from the segment.
+     * @return The LogData backed by a direct buffer, which the caller has to release.
+     */
+    private LogData getSerializedLogData(LogEntry entry) {
+        LogData logData = new LogData(getDataType(entry));
+        setMetadata(logData, entry);
+        return logData.serializeToDirectBuffer(getData(entry));
+    }
 
-                byte[] logEntryBuf = new byte[metadata.getLength()];
+    /**
+     * Returns the data of a LogEntry, decompressing it if the record is compressed.
+     *
+     * @param entry The LogEntry read from the segment.
+     * @return A read-only buffer with the raw data.
+     */
+    private ByteBuffer getData(LogEntry entry) {
+        if (entry.getCodec() == Types.Codec.NONE) {
+            return entry.getData().asReadOnlyByteBuffer();
+        }
+
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+
+        try (Timer.Context context = decompressionTimer.time()) {
+            inflater.reset();
+            inflater.setInput(entry.getData().toByteArray());
+            // The spare byte detects data that inflates past its recorded length
+            byte[] data = new byte[entry.getRawDataLength() + 1];
+            int length = 0;
+            while (length < data.length && !inflater.finished()) {
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && !inflater.finished()) {
+                    // Truncated input or a preset dictionary
+                    break;
+                }
+                length += inflated;
+            }
 
-                o.get(logEntryBuf);
+            if (length != entry.getRawDataLength() || !inflater.finished()) {
+                log.error("getData: compressed data of address {} is malformed",
+                        entry.getGlobalAddress());
+                throw new DataCorruptionException();
+            }
+            return ByteBuffer.wrap(data, 0, length).asReadOnlyBuffer();
+        } catch (DataFormatException e) {
+            log.error("getData: couldn't decompress data of address {}",
+                    entry.getGlobalAddress(), e);
+            throw new DataCorruptionException();
+        } finally {
+            releaseCodec(inflaters, inflater, Inflater::end);
+        }
+    }
 
-                LogEntry entry = LogEntry.parseFrom(logEntryBuf);
+    /**
+     * Compresses the data of a record with the codec of the log.
+     *
+     * @param data The raw data.
+     * @return The compressed data, or NULL if the data doesn't shrink.
+     */
+    private @Nullable byte[] compress(byte[] data) {
+        if (codec == Types.Codec.NONE || data.length < COMPRESSION_THRESHOLD) {
+            return null;
+        }
 
-                if (!noVerify) {
-                    if (metadata.getPayloadChecksum() != getChecksum(entry.toByteArray())) {
-                        log.error("Checksum mismatch detected while trying to read address {}",
-                                    entry.getGlobalAddress());
-                        throw new DataCorruptionException();
-                    }
-                }
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        }
 
-                if (!pendingTrim.contains(entry.getGlobalAddress())) {
-                    compacted.put(entry.getGlobalAddress(), entry);
-                }
+        try (Timer.Context context = compressionTimer.time()) {
+            deflater.reset();
+            deflater.setInput(data);
+            deflater.finish();
 
-            } catch (InvalidProtocolBufferException e) {
-                throw new DataCorruptionException();
+            // Data that doesn't fit in a smaller buffer is stored uncompressed
+            byte[] buf = new byte[data.length - 1];
+            int length = 0;
+            while (!deflater.finished() && length < buf.length) {
+                length += deflater.deflate(buf, length, buf.length - length);
+            }
+            if (!deflater.finished()) {
+                return null;
             }
+
+            compressionRawBytes.inc(data.length);
+            compressionCompressedBytes.inc(length);
+            return Arrays.copyOf(buf, length);
+        } finally {
+            releaseCodec(deflaters, deflater, Deflater::end);
         }
+    }
 
-        LogHeader header = LogHeader.parseFrom(headerBuf.array());
-        return new CompactedEntry(header, compacted.values());
+    /**
+     * Returns a deflater or inflater to its pool, or ends it if the log has been closed.
+     *
+     * <p>If the log is closed concurrently, either the close drains the codec from the pool
+     * or the codec is removed from it here, so it is ended exactly once.
+     */
+    private <T> void releaseCodec(Queue<T> pool, T codec, Consumer<T> end) {
+        pool.offer(codec);
+        if (codecsClosed && pool.remove(codec)) {
+            end.accept(codec);
+        }
     }
 
-    private LogData getLogData(LogEntry entry) {
-        ByteBuf data = Unpooled.wrappedBuffer(entry.getData().toByteArray());
-        LogData logData = new LogData(org.corfudb.protocols.wireprotocol
-                .DataType.typeMap.get((byte) entry.getDataType().getNumber()), data);
+    /**
+     * Ends the idle deflaters and inflaters, the ones in use are ended once they are released.
+     */
+    private void closeCodecs() {
+        codecsClosed = true;
+        for (Deflater deflater = deflaters.poll(); deflater != null;
+                deflater = deflaters.poll()) {
+            deflater.end();
+        }
+        for (Inflater inflater = inflaters.poll(); inflater != null;
+                inflater = inflaters.poll()) {
+            inflater.end();
+        }
+    }
+
+    private org.corfudb.protocols.wireprotocol.DataType getDataType(LogEntry entry) {
+        return org.corfudb.protocols.wireprotocol.DataType.typeMap
+                .get((byte) entry.getDataType().getNumber());
+    }
 
-        logData.setBackpointerMap(getUUIDLongMap(entry.getBackpointersMap()));
+    private void setMetadata(LogData logData, LogEntry entry) {
+        logData.setBackpointerMap(getBackpointerMap(entry));
         logData.setGlobalAddress(entry.getGlobalAddress());
         logData.setRank(createDataRank(entry));
 
@@ -562,8 +1431,21 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             logData.setCheckpointedStreamStartLogAddress(
                     entry.getCheckpointedStreamStartLogAddress());
         }
+    }
 
-        return logData;
+    /**
+     * Returns the backpointers of a LogEntry, each backpointer is stored as the bits of
+     * the stream id followed by the address.
+     */
+    private Map<UUID, Long> getBackpointerMap(LogEntry entry) {
+        int count = entry.getStreamBackpointersCount() / BACKPOINTER_FIELDS;
+        Map<UUID, Long> backpointers = Maps.newHashMapWithExpectedSize(count);
+        for (int i = 0; i < count * BACKPOINTER_FIELDS; i += BACKPOINTER_FIELDS) {
+            backpointers.put(new UUID(entry.getStreamBackpointers(i),
+                            entry.getStreamBackpointers(i + 1)),
+                    entry.getStreamBackpointers(i + 2));
+        }
+        return backpointers;
     }
 
     //================Parsing Helper Methods================//
@@ -702,11 +1584,80 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     }
 
     /**
-     * Reads an address space from a log file into a SegmentHandle.
+     * Checks whether the region of a preallocated segment at an offset hasn't been written
+     * yet. A record can't start with a zero byte, so a zeroed metadata field marks the end
+     * of the records.
+     *
+     * @param ch     the segment channel
+     * @param offset the offset of the region
+     * @return true if the region is still zero-filled
+     */
+    private boolean isUnwrittenRegion(FileChannel ch, long offset) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(METADATA_SIZE,
+                Math.max(ch.size() - offset, 0)));
+        while (buf.hasRemaining() && ch.read(buf, offset + buf.position()) >= 0) {
+            // Read the whole region
+        }
+
+        for (byte b : buf.array()) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Zero-fills the preallocated region of a segment past its last record, so that torn
+     * appends that reached the disk out of order can't be mistaken for records once the
+     * region is appended to again. Clearing stops at the first block that is already zeroed.
+     *
+     * @param ch     the segment channel
+     * @param offset the end of the last record
+     */
+    private void clearPreallocatedRegion(FileChannel ch, long offset) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(ZERO_FILL_BUFFER_SIZE);
+        long position = offset;
+        boolean cleared = false;
+        while (position < ch.size()) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), ch.size() - position));
+            while (buf.hasRemaining() && ch.read(buf, position + buf.position()) >= 0) {
+                // Read the whole block
+            }
+
+            boolean zeroed = true;
+            for (int i = 0; i < buf.limit() && zeroed; i++) {
+                zeroed = buf.get(i) == 0;
+            }
+            if (zeroed) {
+                break;
+            }
+
+            Arrays.fill(buf.array(), 0, buf.limit(), (byte) 0);
+            buf.flip();
+            while (buf.hasRemaining()) {
+                ch.write(buf, position + buf.position());
+            }
+            position += buf.limit();
+            cleared = true;
+        }
+
+        if (cleared) {
+            log.warn("clearPreallocatedRegion: cleared {} bytes past offset {}",
+                    position - offset, offset);
+            ch.force(false);
+        }
+    }
+
+    /**
+     * Reads an address space from a log file into a SegmentHandle. The segment index is
+     * used if it is valid, otherwise all the records in the segment are parsed.
      *
      * @param sh  Object containing state for the segment to be read
+     * @return true if the address space was loaded from the segment index
      */
-    private void readAddressSpace(SegmentHandle sh) throws IOException {
+    private boolean readAddressSpace(SegmentHandle sh) throws IOException {
         FileChannel fc = sh.getWriteChannel();
         fc.position(0);
 
@@ -717,14 +1668,42 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             if (noVerify) {
                 verify = false;
             }
-            writeHeader(fc, VERSION, verify);
-            return;
+            writeHeader(fc, VERSION, verify, recordsPerSegment, logDirs.size(), false);
+            return false;
+        }
+
+        boolean preallocated = header.getPreallocated();
+        if (readSegmentIndex(sh, preallocated)) {
+            return true;
         }
 
         while (fc.size() - fc.position() > 0) {
             long channelOffset = fc.position();
-            Metadata metadata = parseMetadata(fc);
-            LogEntry entry = parseEntry(fc, metadata);
+            if (preallocated && isUnwrittenRegion(fc, channelOffset)) {
+                // The end of the records in a preallocated segment
+                clearPreallocatedRegion(fc, channelOffset);
+                fc.position(channelOffset);
+                return false;
+            }
+
+            Metadata metadata;
+            LogEntry entry;
+            try {
+                metadata = parseMetadata(fc);
+                entry = parseEntry(fc, metadata);
+            } catch (DataCorruptionException e) {
+                if (!preallocated || !isUnwrittenRegion(fc, fc.size() - METADATA_SIZE)) {
+                    throw e;
+                }
+
+                // Appends that weren't synced before a crash can be torn anywhere within
+                // the preallocated region, rather than cut short at the end of the file
+                log.warn("Torn append at offset {} in file {}", channelOffset,
+                        sh.getFileName());
+                clearPreallocatedRegion(fc, channelOffset);
+                fc.position(channelOffset);
+                return false;
+            }
 
             if (entry == null) {
                 // Metadata or Entry were partially written
@@ -738,13 +1717,162 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                 // to be ignored, or if the bytes corrrespond to a corrupted metadata field.
                 fc.truncate(fc.position());
                 fc.force(true);
+                return false;
+            }
+
+            sh.getKnownAddresses().put(entry.getGlobalAddress(),
+                    new AddressMetaData(metadata.getPayloadChecksum(),
+                            metadata.getLength(), channelOffset + METADATA_SIZE));
+            updateStreamTails(sh, entry);
+        }
+
+        return false;
+    }
+
+    /**
+     * Loads the address space of a segment from its index file.
+     *
+     * @param sh           Object containing state for the segment to be read
+     * @param preallocated Whether the segment file was preallocated
+     * @return true if the index was found and is valid for the segment file, false if the
+     *     index is missing, corrupted or stale.
+     */
+    private boolean readSegmentIndex(SegmentHandle sh, boolean preallocated)
+            throws IOException {
+        FileChannel writeCh = sh.getWriteChannel();
+        SegmentIndex index = readSegmentIndexFile(sh.getFileName(), writeCh, preallocated);
+        if (index == null) {
+            return false;
+        }
+
+        for (int x = 0; x < index.getAddressesCount(); x++) {
+            sh.getKnownAddresses().put(index.getAddresses(x),
+                    new AddressMetaData(index.getChecksums(x), index.getLengths(x),
+                            index.getOffsets(x)));
+        }
+        for (int x = 0; x < index.getStreamTailsCount(); x += BACKPOINTER_FIELDS) {
+            updateStreamTail(sh.getStreamTails(), new UUID(index.getStreamTails(x),
+                    index.getStreamTails(x + 1)), index.getStreamTails(x + 2));
+        }
+
+        long segmentSize = index.getSegmentSize();
+
+        // Subsequent writes are appended after the last indexed record
+        if (preallocated) {
+            clearPreallocatedRegion(writeCh, segmentSize);
+        }
+        writeCh.position(segmentSize);
+
+        log.debug("readSegmentIndex: loaded {} addresses of segment {}",
+                index.getAddressesCount(), sh.getSegment());
+        return true;
+    }
+
+    /**
+     * Reads the index file of a segment.
+     *
+     * @param segmentPath  The path of the segment file
+     * @param segmentCh    A channel of the segment file
+     * @param preallocated Whether the segment file was preallocated
+     * @return the index if it is valid for the segment file, null if the index is
+     *     missing, corrupted or stale.
+     */
+    private @Nullable SegmentIndex readSegmentIndexFile(String segmentPath,
+                                                       FileChannel segmentCh,
+                                                       boolean preallocated)
+            throws IOException {
+        String indexPath = getIndexFilePath(segmentPath);
+        if (!new File(indexPath).exists()) {
+            return null;
+        }
+
+        SegmentIndex index;
+        try (FileChannel fc = getChannel(indexPath, true)) {
+            Metadata metadata = parseMetadata(fc);
+            ByteBuffer buffer = metadata == null ? null : getPayloadForMetadata(fc, metadata);
+            if (buffer == null || getChecksum(buffer.array()) != metadata.getPayloadChecksum()) {
+                log.warn("readSegmentIndex: ignoring malformed index {}", indexPath);
+                return null;
+            }
+            index = SegmentIndex.parseFrom(buffer.array());
+        } catch (DataCorruptionException | InvalidProtocolBufferException e) {
+            log.warn("readSegmentIndex: ignoring corrupted index {}", indexPath);
+            return null;
+        }
+
+        long segmentSize = index.getSegmentSize();
+        if (segmentSize > segmentCh.size() || (segmentSize < segmentCh.size()
+                && !(preallocated && isUnwrittenRegion(segmentCh, segmentSize)))) {
+            log.info("readSegmentIndex: ignoring stale index {}, indexed size {} file size {}",
+                    indexPath, segmentSize, segmentCh.size());
+            return null;
+        }
+
+        if (!index.getStreamTailsIndexed()) {
+            log.info("readSegmentIndex: ignoring index {} without stream tails", indexPath);
+            return null;
+        }
+
+        return index;
+    }
+
+    /**
+     * Persists the address space of a segment to its index file. The index is written
+     * to a temporary file first and atomically moved in place.
+     *
+     * @param sh  The segment to index
+     */
+    private void writeSegmentIndex(SegmentHandle sh) throws IOException {
+        SegmentIndex.Builder index = SegmentIndex.newBuilder();
+        long segmentSize;
+        long[] indexedEnd = {0L};
+
+        // Ranked overwrites replace the location of a record, the address space is
+        // only consistent under the segment lock
+        try (MultiReadWriteLock.AutoCloseableLock ignored =
+                     segmentLocks.acquireReadLock(sh.getSegment())) {
+            if (sh.isClosed()) {
                 return;
             }
 
-            sh.getKnownAddresses().put(entry.getGlobalAddress(),
-                    new AddressMetaData(metadata.getPayloadChecksum(),
-                            metadata.getLength(), channelOffset + METADATA_SIZE));
+            segmentSize = sh.getWriteChannel().position();
+            index.setSegmentSize(segmentSize);
+            sh.getKnownAddresses().forEach((address, metaData) -> {
+                index.addAddresses(address)
+                        .addOffsets(metaData.offset)
+                        .addLengths(metaData.length)
+                        .addChecksums(metaData.checksum);
+                indexedEnd[0] = Math.max(indexedEnd[0], metaData.offset + metaData.length);
+            });
+            sh.getStreamTails().forEach((streamId, address) ->
+                    index.addStreamTails(streamId.getMostSignificantBits())
+                            .addStreamTails(streamId.getLeastSignificantBits())
+                            .addStreamTails(address));
+            index.setStreamTailsIndexed(true);
+        }
+        sh.getWriteChannel().force(true);
+
+        if (indexedEnd[0] != segmentSize) {
+            // The last bytes of the segment don't belong to a known record, the
+            // segment will be indexed on a subsequent sync
+            log.debug("writeSegmentIndex: segment {} has unindexed bytes, not indexing",
+                    sh.getSegment());
+            return;
+        }
+
+        String indexPath = getIndexFilePath(sh.getFileName());
+        String tmpPath = indexPath + ".tmp";
+        try (FileChannel fc = FileChannel.open(FileSystems.getDefault().getPath(tmpPath),
+                EnumSet.of(StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE))) {
+            safeWrite(fc, getByteBufferWithMetaData(index.build()));
+            fc.force(true);
         }
+
+        Files.move(Paths.get(tmpPath), Paths.get(indexPath), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(getLogDir(sh.getSegment()));
+        log.debug("writeSegmentIndex: indexed {} addresses of segment {}",
+                index.getAddressesCount(), sh.getSegment());
     }
 
     /**
@@ -754,7 +1882,7 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
      * @param address The address of the entry.
      * @return The log unit entry at that address, or NULL if there was no entry.
      */
-    private LogData  readRecord(SegmentHandle sh, long address)
+    private LogEntry readRecord(SegmentHandle sh, long address)
             throws IOException {
         FileChannel fc = sh.getReadChannel();
 
@@ -764,14 +1892,105 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         }
 
         try {
+            if (mmapReads) {
+                LogEntry mapped = readMappedRecord(sh, metaData);
+                if (mapped != null) {
+                    return mapped;
+                }
+            }
+
             ByteBuffer entryBuf = ByteBuffer.allocate(metaData.length);
             fc.read(entryBuf, metaData.offset);
-            return getLogData(LogEntry.parseFrom(entryBuf.array()));
+
+            // The buffer isn't reused, so the data of the entry can alias it
+            CodedInputStream input = CodedInputStream.newInstance(entryBuf.array());
+            input.enableAliasing(true);
+            return LogEntry.parseFrom(input);
         } catch (InvalidProtocolBufferException e) {
             throw new DataCorruptionException();
         }
     }
 
+    /**
+     * Read a log entry from the memory-mapped region of a full segment. The caller
+     * must hold the segment read lock, so that the mapping can't be released underneath
+     * the reader.
+     *
+     * @param sh       The segment handle to use.
+     * @param metaData The location of the entry in the segment file.
+     * @return The log unit entry, or NULL if the entry isn't covered by a mapping.
+     */
+    private @Nullable LogEntry readMappedRecord(SegmentHandle sh, AddressMetaData metaData)
+            throws IOException {
+        MappedByteBuffer mapped = getMappedBuffer(sh);
+        if (mapped == null || metaData.offset + metaData.length > mapped.limit()) {
+            // Records appended after the segment was mapped (i.e. ranked
+            // overwrites) are served from the file channel
+            return null;
+        }
+
+        ByteBuffer entryBuf = mapped.duplicate();
+        entryBuf.position((int) metaData.offset);
+        entryBuf.limit((int) metaData.offset + metaData.length);
+        return LogEntry.parseFrom(CodedInputStream.newInstance(entryBuf));
+    }
+
+    /**
+     * Returns the read-only mapping of a segment, mapping it if the segment is full
+     * and the mmap read budget allows it.
+     *
+     * @param sh The segment handle to map.
+     * @return The mapped buffer, or NULL if the segment can't be mapped.
+     */
+    private @Nullable MappedByteBuffer getMappedBuffer(SegmentHandle sh) throws IOException {
+        MappedByteBuffer mapped = sh.getMappedBuffer();
+        if (mapped != null || !isSegmentFull(sh)) {
+            return mapped;
+        }
+
+        synchronized (sh) {
+            if (sh.getMappedBuffer() == null) {
+                // The unwritten region of a preallocated segment isn't mapped
+                long size = sh.getWriteChannel().position();
+                if (size > Integer.MAX_VALUE || mappedBytes.addAndGet(size) > mmapReadBudget) {
+                    mappedBytes.addAndGet(-size);
+                    log.trace("getMappedBuffer: budget exhausted, not mapping segment {}",
+                            sh.getSegment());
+                    return null;
+                }
+
+                sh.setMappedBuffer(sh.getReadChannel().map(FileChannel.MapMode.READ_ONLY,
+                        0, size));
+                log.debug("getMappedBuffer: mapped segment {}, {} bytes", sh.getSegment(), size);
+            }
+            return sh.getMappedBuffer();
+        }
+    }
+
+    /**
+     * Releases the read-only mapping of a segment and closes its files. The segment
+     * write lock is held, so that in-flight reads complete first and later readers
+     * observe the handle as closed.
+     *
+     * @param sh The segment handle to close.
+     */
+    private void closeSegmentHandle(SegmentHandle sh) {
+        try (MultiReadWriteLock.AutoCloseableLock ignored =
+                     segmentLocks.acquireWriteLock(sh.getSegment())) {
+            mappedBytes.addAndGet(-sh.unmap());
+            sh.close();
+        }
+    }
+
+    /**
+     * A segment is full when all of its addresses have been written or trimmed,
+     * after that point the segment file only changes on ranked overwrites.
+     */
+    private boolean isSegmentFull(SegmentHandle sh) {
+        return sh.getKnownAddresses().size() + sh.getTrimmedAddresses().size()
+                >= recordsPerSegment;
+    }
+
     private @Nullable FileChannel getChannel(String filePath, boolean readOnly) throws IOException {
         try {
 
@@ -813,39 +2032,178 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
      * @return The FileChannel for that address.
      */
     @VisibleForTesting
-    synchronized SegmentHandle getSegmentHandleForAddress(long address) {
-        String filePath = logDir + File.separator;
-        long segment = address / RECORDS_PER_LOG_FILE;
-        filePath += segment;
-        filePath += ".log";
+    SegmentHandle getSegmentHandleForAddress(long address) {
+        long segment = address / recordsPerSegment;
+        String filePath = getSegmentFilePath(segment);
+
+        SegmentHandle handle = getSegmentHandle(segment, filePath);
+        handle.retain();
+        return handle;
+    }
+
+    /**
+     * Returns the handle of a segment, opening the segment if it isn't open.
+     *
+     * <p>A segment is opened outside of any operation on {@link #writeChannels}, since
+     * opening it can wait for its preallocation and scan its records, which would block
+     * the lookups of the other segments that share a bin of the map. Concurrent lookups
+     * of a segment that is being opened wait on the future of the open instead.
+     *
+     * @param segment  The segment to open.
+     * @param filePath The path of the segment file.
+     * @return The handle of the segment.
+     */
+    private SegmentHandle getSegmentHandle(long segment, String filePath) {
+        while (true) {
+            SegmentHandle handle = writeChannels.get(filePath);
+            if (handle != null) {
+                return handle;
+            }
+
+            CompletableFuture<SegmentHandle> open = new CompletableFuture<>();
+            CompletableFuture<SegmentHandle> pending = openingSegments.putIfAbsent(filePath, open);
+            if (pending != null) {
+                try {
+                    pending.join();
+                } catch (CompletionException e) {
+                    // The open failed, it is retried by this thread
+                }
+                continue;
+            }
 
-        SegmentHandle handle = writeChannels.computeIfAbsent(filePath, a -> {
             try {
-                boolean verify = true;
-                if (noVerify) {
-                    verify = false;
+                // The segment may have been opened before the future was registered
+                handle = writeChannels.get(filePath);
+                if (handle == null) {
+                    handle = openSegmentHandle(segment, filePath);
+                    writeChannels.put(filePath, handle);
                 }
+                open.complete(handle);
+                return handle;
+            } catch (RuntimeException e) {
+                open.completeExceptionally(e);
+                throw e;
+            } finally {
+                openingSegments.remove(filePath, open);
+            }
+        }
+    }
 
-                FileChannel writeCh = getChannel(a, false);
-                FileChannel readCh = getChannel(a, true);
-                FileChannel trimmedCh = getChannel(getTrimmedFilePath(a), false);
-                FileChannel pendingTrimmedCh = getChannel(getPendingTrimsFilePath(a), false);
-
-                SegmentHandle sh = new SegmentHandle(segment, writeCh, readCh, trimmedCh, pendingTrimmedCh, a);
-                // The first time we open a file we should read to the end, to load the
-                // map of entries we already have.
-                // Once the segment address space is loaded, it should be ready to accept writes.
-                readAddressSpace(sh);
-                loadTrimAddresses(sh);
-                return sh;
-            } catch (IOException e) {
-                log.error("Error opening file {}", a, e);
-                throw new RuntimeException(e);
+    private String getLogDir(long segment) {
+        return logDirs.get(getSegmentDevice(segment));
+    }
+
+    private String getSegmentFilePath(long segment) {
+        return getLogDir(segment) + File.separator + segment + ".log";
+    }
+
+    /**
+     * Opens the files of a segment and loads its address space and trimmed addresses.
+     *
+     * @param segment  The segment to open.
+     * @param filePath The path of the segment file.
+     * @return A new SegmentHandle for the segment.
+     */
+    private SegmentHandle openSegmentHandle(long segment, String filePath) {
+        try {
+            awaitPreallocation(segment);
+            FileChannel writeCh = getChannel(filePath, false);
+            FileChannel readCh = getChannel(filePath, true);
+            FileChannel trimmedCh = getChannel(getTrimmedFilePath(filePath), false);
+            FileChannel pendingTrimmedCh = getChannel(getPendingTrimsFilePath(filePath), false);
+
+            SegmentHandle sh = new SegmentHandle(segment, writeCh, readCh, trimmedCh,
+                    pendingTrimmedCh, filePath, recordsPerSegment);
+            // The first time we open a file we should read to the end, to load the
+            // map of entries we already have.
+            // Once the segment address space is loaded, it should be ready to accept writes.
+            boolean indexed = readAddressSpace(sh);
+            loadTrimAddresses(sh);
+            sh.setAllocatedSize(writeCh.size());
+
+            if (!indexed && isSegmentFull(sh)) {
+                // The segment was scanned, index it so that it doesn't have to
+                // be scanned the next time it is opened
+                writeCh.force(true);
+                writeSegmentIndex(sh);
             }
-        });
+            return sh;
+        } catch (IOException e) {
+            log.error("Error opening file {}", filePath, e);
+            throw new RuntimeException(e);
+        }
+    }
 
-        handle.retain();
-        return handle;
+    /**
+     * Creates the file of a segment ahead of the appends. The file is zero-filled rather
+     * than sparse, so that appends within it neither allocate blocks nor change the file
+     * size, and only their data has to be synced. The file is written under a temporary
+     * name and linked in place once it is durable, a segment that has been created in
+     * the meantime is left untouched.
+     *
+     * @param segment The segment to preallocate.
+     */
+    private void preallocateSegment(long segment) {
+        String filePath = getSegmentFilePath(segment);
+        if (preallocationService == null || new File(filePath).exists()) {
+            return;
+        }
+
+        try {
+            preallocations.computeIfAbsent(segment, s -> preallocationService.submit(() -> {
+                String tmpPath = getPreallocationFilePath(filePath);
+                try {
+                    try (FileChannel fc = FileChannel.open(FileSystems.getDefault()
+                                    .getPath(tmpPath), EnumSet.of(StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+                        writeHeader(fc, VERSION, !noVerify, recordsPerSegment,
+                                logDirs.size(), true);
+                        ByteBuffer zeros = ByteBuffer.allocateDirect(ZERO_FILL_BUFFER_SIZE);
+                        while (fc.position() < preallocationSize) {
+                            zeros.clear();
+                            zeros.limit((int) Math.min(zeros.capacity(),
+                                    preallocationSize - fc.position()));
+                            fc.write(zeros);
+                        }
+                        fc.force(true);
+                    }
+
+                    Files.createLink(Paths.get(filePath), Paths.get(tmpPath));
+                    syncDirectory(getLogDir(segment));
+                    log.debug("preallocateSegment: preallocated segment {}, {} bytes",
+                            segment, preallocationSize);
+                } catch (FileAlreadyExistsException e) {
+                    log.debug("preallocateSegment: segment {} already exists", segment);
+                } finally {
+                    Files.deleteIfExists(Paths.get(tmpPath));
+                }
+                return null;
+            }));
+        } catch (RejectedExecutionException e) {
+            log.debug("preallocateSegment: log is closed, not preallocating {}", segment);
+        }
+    }
+
+    /**
+     * Waits for the preallocation of a segment to complete, if there is one, so that the
+     * segment isn't created concurrently and its directory entry is durable before the
+     * segment is written to.
+     *
+     * @param segment The segment about to be opened.
+     */
+    private void awaitPreallocation(long segment) {
+        Future<?> preallocation = preallocations.remove(segment);
+        if (preallocation == null) {
+            return;
+        }
+
+        try {
+            preallocation.get();
+        } catch (InterruptedException e) {
+            throw new UnrecoverableCorfuInterruptedError(e);
+        } catch (ExecutionException | CancellationException e) {
+            log.warn("awaitPreallocation: failed to preallocate segment {}", segment, e);
+        }
     }
 
     private void loadTrimAddresses(SegmentHandle sh) throws IOException {
@@ -886,40 +2244,6 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         }
     }
 
-    Map<String, Long> getStrLongMap(Map<UUID, Long> uuidLongMap) {
-        Map<String, Long> stringLongMap = new HashMap();
-
-        for (Map.Entry<UUID, Long> entry : uuidLongMap.entrySet()) {
-            stringLongMap.put(entry.getKey().toString(), entry.getValue());
-        }
-
-        return stringLongMap;
-    }
-
-    @Deprecated // TODO: Add replacement method that conforms to style
-    @SuppressWarnings("checkstyle:abbreviationaswordinname")  // Due to deprecation
-    Map<UUID, Long> getUUIDLongMap(Map<String, Long> stringLongMap) {
-        Map<UUID, Long> uuidLongMap = new HashMap();
-
-        for (Map.Entry<String, Long> entry : stringLongMap.entrySet()) {
-            uuidLongMap.put(UUID.fromString(entry.getKey()), entry.getValue());
-        }
-
-        return uuidLongMap;
-    }
-
-    @Deprecated  // TODO: Add replacement method that conforms to style
-    @SuppressWarnings("checkstyle:abbreviationaswordinname") // Due to deprecation
-    Set<String> getStrUUID(Set<UUID> uuids) {
-        Set<String> strUUIds = new HashSet();
-
-        for (UUID uuid : uuids) {
-            strUUIds.add(uuid.toString());
-        }
-
-        return strUUIds;
-    }
-
     LogEntry getLogEntry(long address, LogData entry) {
         byte[] data = new byte[0];
 
@@ -929,10 +2253,24 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
 
         LogEntry.Builder logEntryBuilder = LogEntry.newBuilder()
                 .setDataType(Types.DataType.forNumber(entry.getType().ordinal()))
-                .setData(ByteString.copyFrom(data))
-                .setGlobalAddress(address)
-                .addAllStreams(getStrUUID(entry.getStreams()))
-                .putAllBackpointers(getStrLongMap(entry.getBackpointerMap()));
+                .setGlobalAddress(address);
+
+        for (Map.Entry<UUID, Long> backpointer : entry.getBackpointerMap().entrySet()) {
+            logEntryBuilder.addStreamBackpointers(backpointer.getKey().getMostSignificantBits())
+                    .addStreamBackpointers(backpointer.getKey().getLeastSignificantBits())
+                    .addStreamBackpointers(backpointer.getValue());
+        }
+
+        // The data isn't modified once it is appended, so it doesn't have to be copied
+        // before it is serialized into the record
+        byte[] compressed = compress(data);
+        if (compressed != null) {
+            logEntryBuilder.setData(UnsafeByteOperations.unsafeWrap(compressed))
+                    .setCodec(codec)
+                    .setRawDataLength(data.length);
+        } else {
+            logEntryBuilder.setData(UnsafeByteOperations.unsafeWrap(data));
+        }
 
         Optional<Types.DataRank> rank = createProtobufsDataRank(entry);
         if (rank.isPresent()) {
@@ -989,52 +2327,75 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     }
 
     /**
-     * Write a list of LogData entries to the log file.
+     * Write a list of LogData entries to the log file, and add the written records
+     * to the address space of the segment.
      * @param sh segment handle to the logfile
      * @param entries list of LogData entries to write.
-     * @return A map of AddressMetaData for the written records
      * @throws IOException
      */
-    private Map<Long, AddressMetaData> writeRecords(SegmentHandle sh,
-                                             List<LogData> entries) throws IOException {
-        Map<Long, AddressMetaData> recordsMap = new HashMap<>();
-
-        List<ByteBuffer> entryBuffs = new ArrayList<>();
-        int totalBytes = 0;
-
-        List<Metadata> metadataList = new ArrayList<>();
-
-        for (int ind = 0; ind < entries.size(); ind++) {
-            LogData curr = entries.get(ind);
-            LogEntry logEntry = getLogEntry(curr.getGlobalAddress(), curr);
-            Metadata metadata = getMetadata(logEntry);
-            metadataList.add(metadata);
-            ByteBuffer record = getByteBuffer(metadata, logEntry);
-            totalBytes += record.limit();
-            entryBuffs.add(record);
+    private void writeRecords(SegmentHandle sh, List<LogData> entries) throws IOException {
+        List<LogEntry> logEntries = new ArrayList<>();
+        for (LogData curr : entries) {
+            logEntries.add(getLogEntry(curr.getGlobalAddress(), curr));
         }
 
-        ByteBuffer allRecordsBuf = ByteBuffer.allocate(totalBytes);
+        List<Metadata> metadataList = new ArrayList<>();
+        ByteBuffer allRecordsBuf = serializeRecords(logEntries, metadataList);
 
         try (MultiReadWriteLock.AutoCloseableLock ignored =
                      segmentLocks.acquireWriteLock(sh.getSegment())) {
-            for (int ind = 0; ind < entryBuffs.size(); ind++) {
-                long channelOffset = sh.getWriteChannel().position()
-                        + allRecordsBuf.position() + METADATA_SIZE;
-                allRecordsBuf.put(entryBuffs.get(ind));
+            long recordOffset = sh.getWriteChannel().position();
+            appendToSegment(sh, allRecordsBuf);
+
+            // The records are only visible to readers once they are written
+            for (int ind = 0; ind < metadataList.size(); ind++) {
                 Metadata metadata = metadataList.get(ind);
-                recordsMap.put(entries.get(ind).getGlobalAddress(),
+                sh.getKnownAddresses().put(entries.get(ind).getGlobalAddress(),
                         new AddressMetaData(metadata.getPayloadChecksum(),
-                                metadata.getLength(), channelOffset));
+                                metadata.getLength(), recordOffset + METADATA_SIZE));
+                updateStreamTails(sh, logEntries.get(ind));
+                recordOffset += METADATA_SIZE + metadata.getLength();
             }
-
-            allRecordsBuf.flip();
-            safeWrite(sh.getWriteChannel(), allRecordsBuf);
-            channelsToSync.add(sh.getWriteChannel());
             syncTailSegment(entries.get(entries.size() - 1).getGlobalAddress());
         }
+    }
+
+    /**
+     * Serializes log entries into records, each made of its metadata followed by the entry.
+     * The entries are serialized in place and their checksums are computed over the
+     * serialized bytes, so that no intermediate copy of an entry is made.
+     *
+     * @param logEntries   the entries to serialize
+     * @param metadataList the list that the metadata of the records is added to
+     * @return a buffer that holds the records
+     */
+    private ByteBuffer serializeRecords(List<LogEntry> logEntries,
+                                        List<Metadata> metadataList) throws IOException {
+        int totalBytes = 0;
+        for (LogEntry logEntry : logEntries) {
+            totalBytes += METADATA_SIZE + logEntry.getSerializedSize();
+        }
+
+        byte[] records = new byte[totalBytes];
+        int offset = 0;
+        for (LogEntry logEntry : logEntries) {
+            int length = logEntry.getSerializedSize();
+            CodedOutputStream entryOutput = CodedOutputStream.newInstance(records,
+                    offset + METADATA_SIZE, length);
+            logEntry.writeTo(entryOutput);
+            entryOutput.checkNoSpaceLeft();
+
+            Metadata metadata = getMetadata(records, offset + METADATA_SIZE, length);
+            CodedOutputStream metadataOutput = CodedOutputStream.newInstance(records,
+                    offset, METADATA_SIZE);
+            metadata.writeTo(metadataOutput);
+            metadataOutput.checkNoSpaceLeft();
+
+            metadataList.add(metadata);
+            offset += METADATA_SIZE + length;
+        }
 
-        return recordsMap;
+        return ByteBuffer.wrap(records);
     }
 
     /**
@@ -1069,34 +2430,59 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     }
 
     /**
-     * Write a log entry record to a file.
+     * Appends records at the end of a segment and schedules the segment to be synced.
+     * The caller must hold the segment write lock.
+     *
+     * @param sh  The segment to append to.
+     * @param buf The records to append.
+     */
+    private void appendToSegment(SegmentHandle sh, ByteBuffer buf) throws IOException {
+        FileChannel fc = sh.getWriteChannel();
+        try {
+            safeWrite(fc, buf);
+        } catch (IOException e) {
+            // A failed write truncates the segment, including its preallocated region
+            sh.setAllocatedSize(Math.min(sh.getAllocatedSize(), fc.size()));
+            throw e;
+        }
+
+        if (fc.position() > sh.getAllocatedSize()) {
+            sh.setAllocatedSize(fc.position());
+            resizedChannels.add(fc);
+        }
+        channelsToSync.get(getSegmentDevice(sh.getSegment())).add(fc);
+    }
+
+    /**
+     * Write a log entry record to a file, and add the record to the address space
+     * of the segment.
      *
      * @param fh      The file handle to use.
      * @param address The address of the entry.
      * @param entry   The LogData to append.
-     * @return Returns metadata for the written record
      */
-    private AddressMetaData writeRecord(SegmentHandle fh, long address,
-                                        LogData entry) throws IOException {
+    private void writeRecord(SegmentHandle fh, long address,
+                             LogData entry) throws IOException {
+        List<Metadata> metadataList = new ArrayList<>();
         LogEntry logEntry = getLogEntry(address, entry);
-        Metadata metadata = getMetadata(logEntry);
-
-        ByteBuffer record = getByteBuffer(metadata, logEntry);
+        ByteBuffer record = serializeRecords(Collections.singletonList(logEntry),
+                metadataList);
+        Metadata metadata = metadataList.get(0);
         long channelOffset;
 
         try (MultiReadWriteLock.AutoCloseableLock ignored =
                      segmentLocks.acquireWriteLock(fh.getSegment())) {
             channelOffset = fh.getWriteChannel().position() + METADATA_SIZE;
-            safeWrite(fh.getWriteChannel(), record);
-            channelsToSync.add(fh.getWriteChannel());
+            appendToSegment(fh, record);
+            fh.getKnownAddresses().put(address, new AddressMetaData(
+                    metadata.getPayloadChecksum(), metadata.getLength(), channelOffset));
+            updateStreamTails(fh, logEntry);
             syncTailSegment(address);
         }
-
-        return new AddressMetaData(metadata.getPayloadChecksum(), metadata.getLength(), channelOffset);
     }
 
     long getSegment(LogData entry) {
-        return entry.getGlobalAddress() / RECORDS_PER_LOG_FILE;
+        return entry.getGlobalAddress() / recordsPerSegment;
     }
 
     /**
@@ -1152,8 +2538,8 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
 
         // Check if the range spans more than two segments
         long lastAddress = range.get(range.size() - 1).getGlobalAddress();
-        long firstSegment = firstAddress / RECORDS_PER_LOG_FILE;
-        long endSegment = lastAddress / RECORDS_PER_LOG_FILE;
+        long firstSegment = firstAddress / recordsPerSegment;
+        long endSegment = lastAddress / recordsPerSegment;
 
         if (endSegment - firstSegment > 1) {
             return false;
@@ -1200,13 +2586,13 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
 
         try {
             if (!segOneEntries.isEmpty()) {
-                Map<Long, AddressMetaData> firstSegAddresses = writeRecords(firstSh, segOneEntries);
-                firstSh.getKnownAddresses().putAll(firstSegAddresses);
+                writeRecords(firstSh, segOneEntries);
+                markForIndexing(firstSh);
             }
 
             if (!segTwoEntries.isEmpty()) {
-                Map<Long, AddressMetaData> lastSegAddresses = writeRecords(lastSh, segTwoEntries);
-                lastSh.getKnownAddresses().putAll(lastSegAddresses);
+                writeRecords(lastSh, segTwoEntries);
+                markForIndexing(lastSh);
             }
         } catch (IOException e) {
             log.error("Disk_write[{}-{}]: Exception", first.getGlobalAddress(),
@@ -1236,13 +2622,12 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                 } else {
                     // the method below might throw DataOutrankedException or ValueAdoptedException
                     assertAppendPermittedUnsafe(address, entry);
-                    AddressMetaData addressMetaData = writeRecord(fh, address, entry);
-                    fh.getKnownAddresses().put(address, addressMetaData);
+                    writeRecord(fh, address, entry);
                 }
             } else {
-                AddressMetaData addressMetaData = writeRecord(fh, address, entry);
-                fh.getKnownAddresses().put(address, addressMetaData);
+                writeRecord(fh, address, entry);
             }
+            markForIndexing(fh);
             log.trace("Disk_write[{}]: Written to disk.", address);
         } catch (IOException e) {
             log.error("Disk_write[{}]: Exception", address, e);
@@ -1252,32 +2637,242 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         }
     }
 
+    /**
+     * Schedule a full segment to be indexed on the next sync. Ranked overwrites
+     * on a full segment re-index it.
+     */
+    private void markForIndexing(SegmentHandle sh) {
+        if (isSegmentFull(sh)) {
+            segmentsToIndex.get(getSegmentDevice(sh.getSegment())).add(sh);
+        }
+    }
+
     @Override
     public LogData read(long address) {
-        if (isTrimmed(address)) {
-            return LogData.getTrimmed(address);
+        return read(address, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The data of the record is copied from the segment straight into the serialized
+     * form, which is what the log unit sends to the clients.
+     */
+    @Override
+    public LogData readSerialized(long address) {
+        return read(address, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The records of adjacent addresses in a segment are read with a single I/O.
+     */
+    @Override
+    public Map<Long, LogData> readAll(Iterable<? extends Long> addresses, boolean serialized) {
+        Map<Long, List<Long>> segmentAddresses = new TreeMap<>();
+        for (long address : addresses) {
+            segmentAddresses.computeIfAbsent(address / recordsPerSegment,
+                    segment -> new ArrayList<>()).add(address);
         }
-        SegmentHandle sh = getSegmentHandleForAddress(address);
 
+        Map<Long, LogData> entries = new HashMap<>();
         try {
+            for (List<Long> segment : segmentAddresses.values()) {
+                entries.putAll(readSegment(segment, serialized));
+            }
+        } catch (RuntimeException e) {
+            entries.values().forEach(LogData::releaseBuffer);
+            throw e;
+        }
+        return entries;
+    }
+
+    /**
+     * Read the entries of a set of addresses in the same segment.
+     *
+     * @param addresses  The addresses to read.
+     * @param serialized Whether to return entries backed by their serialized form.
+     * @return The entries that exist, keyed by their addresses.
+     */
+    private Map<Long, LogData> readSegment(List<Long> addresses, boolean serialized) {
+        while (true) {
+            Map<Long, LogData> entries = new HashMap<>();
+            List<Long> toRead = new ArrayList<>();
+            for (long address : addresses) {
+                if (isTrimmed(address)) {
+                    entries.put(address, LogData.getTrimmed(address));
+                } else {
+                    toRead.add(address);
+                }
+            }
+            if (toRead.isEmpty()) {
+                return entries;
+            }
+
+            SegmentHandle sh = getSegmentHandleForAddress(toRead.get(0));
+            try (MultiReadWriteLock.AutoCloseableLock ignored =
+                         segmentLocks.acquireReadLock(sh.getSegment())) {
+                if (sh.isClosed()) {
+                    // The segment was trimmed or compacted after the handle
+                    // was acquired, retry with a reloaded handle
+                    continue;
+                }
+
+                try {
+                    readRecords(sh, toRead, serialized, entries);
+                } catch (RuntimeException e) {
+                    entries.values().forEach(LogData::releaseBuffer);
+                    throw e;
+                }
+                return entries;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                sh.release();
+            }
+        }
+    }
+
+    /**
+     * Read the records of a set of addresses in a segment, coalescing the records that are
+     * adjacent in the segment file into a single read. The caller must hold the segment
+     * read lock.
+     */
+    private void readRecords(SegmentHandle sh, List<Long> addresses, boolean serialized,
+                             Map<Long, LogData> entries) throws IOException {
+        List<Long> records = new ArrayList<>();
+        for (long address : addresses) {
             if (sh.getPendingTrims().contains(address)) {
+                entries.put(address, LogData.getTrimmed(address));
+                continue;
+            }
+
+            AddressMetaData metaData = sh.getKnownAddresses().get(address);
+            if (metaData == null) {
+                continue;
+            }
+
+            LogEntry mapped = null;
+            if (mmapReads) {
+                try {
+                    mapped = readMappedRecord(sh, metaData);
+                } catch (InvalidProtocolBufferException e) {
+                    throw new DataCorruptionException();
+                }
+            }
+
+            if (mapped != null) {
+                entries.put(address, serialized ? getSerializedLogData(mapped)
+                        : getLogData(mapped));
+            } else {
+                records.add(address);
+            }
+        }
+
+        records.sort(Comparator.comparingLong(address ->
+                sh.getKnownAddresses().get(address).offset));
+
+        int runStart = 0;
+        while (runStart < records.size()) {
+            // Extend the run while the next record directly follows the previous one,
+            // only separated by its metadata
+            AddressMetaData first = sh.getKnownAddresses().get(records.get(runStart));
+            long runEnd = first.offset + first.length;
+            int next = runStart + 1;
+            while (next < records.size()) {
+                AddressMetaData metaData = sh.getKnownAddresses().get(records.get(next));
+                long end = metaData.offset + metaData.length;
+                if (metaData.offset - runEnd > METADATA_SIZE
+                        || end - first.offset > MAX_COALESCED_READ_SIZE) {
+                    break;
+                }
+                runEnd = end;
+                next++;
+            }
+
+            ByteBuffer runBuf = ByteBuffer.allocate((int) (runEnd - first.offset));
+            while (runBuf.hasRemaining()) {
+                int read = sh.getReadChannel().read(runBuf, first.offset + runBuf.position());
+                if (read < 0) {
+                    throw new DataCorruptionException();
+                }
+            }
+
+            for (int ind = runStart; ind < next; ind++) {
+                long address = records.get(ind);
+                AddressMetaData metaData = sh.getKnownAddresses().get(address);
+
+                // The buffer isn't reused, so the data of the entries can alias it
+                CodedInputStream input = CodedInputStream.newInstance(runBuf.array(),
+                        (int) (metaData.offset - first.offset), metaData.length);
+                input.enableAliasing(true);
+                LogEntry entry;
+                try {
+                    entry = LogEntry.parseFrom(input);
+                } catch (InvalidProtocolBufferException e) {
+                    throw new DataCorruptionException();
+                }
+                entries.put(address, serialized ? getSerializedLogData(entry)
+                        : getLogData(entry));
+            }
+            runStart = next;
+        }
+    }
+
+    private LogData read(long address, boolean serialized) {
+        while (true) {
+            if (isTrimmed(address)) {
                 return LogData.getTrimmed(address);
             }
-            return readRecord(sh, address);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        } finally {
-            sh.release();
+            SegmentHandle sh = getSegmentHandleForAddress(address);
+
+            // Reads on different segments proceed concurrently, the segment read lock
+            // only excludes the segment from being closed while it is read.
+            try (MultiReadWriteLock.AutoCloseableLock ignored =
+                         segmentLocks.acquireReadLock(sh.getSegment())) {
+                if (sh.isClosed()) {
+                    // The segment was trimmed or compacted after the handle
+                    // was acquired, retry with a reloaded handle
+                    continue;
+                }
+
+                if (sh.getPendingTrims().contains(address)) {
+                    return LogData.getTrimmed(address);
+                }
+
+                // The record is converted under the segment lock, since its data
+                // may alias the segment mapping
+                LogEntry entry = readRecord(sh, address);
+                if (entry == null) {
+                    return null;
+                }
+                return serialized ? getSerializedLogData(entry) : getLogData(entry);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                sh.release();
+            }
         }
     }
 
     @Override
     public void close() {
+        if (preallocationService != null) {
+            preallocationService.shutdownNow();
+            try {
+                preallocationService.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                throw new UnrecoverableCorfuInterruptedError(e);
+            }
+        }
+
         for (SegmentHandle fh : writeChannels.values()) {
-            fh.close();
+            closeSegmentHandle(fh);
         }
 
         writeChannels = new HashMap<>();
+        closeCodecs();
     }
 
     @Override
@@ -1297,7 +2892,7 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                                     + " attempting to trim anyways", sh.getSegment(),
                             sh.getRefCount());
                 }
-                sh.close();
+                closeSegmentHandle(sh);
                 writeChannels.remove(sh.getFileName());
             }
         }
@@ -1311,16 +2906,18 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     private void deleteFilesMatchingFilter(FileFilter fileFilter) {
         int numFiles = 0;
         long freedBytes = 0;
-        File dir = new File(logDir);
-        File[] files = dir.listFiles(fileFilter);
-        for (File file : files) {
-            long delta = file.length();
+        for (String path : logDirs) {
+            File[] files = new File(path).listFiles(fileFilter);
+            for (File file : files) {
+                long delta = file.length();
 
-            if (!file.delete()) {
-                log.error("deleteFilesMatchingFilter: Couldn't delete file {}", file.getName());
-            } else {
-                freedBytes += delta;
-                numFiles++;
+                if (!file.delete()) {
+                    log.error("deleteFilesMatchingFilter: Couldn't delete file {}",
+                            file.getName());
+                } else {
+                    freedBytes += delta;
+                    numFiles++;
+                }
             }
         }
         log.info("deleteFilesMatchingFilter: completed, deleted {} files, freed {} bytes",
@@ -1335,7 +2932,7 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     @Override
     public void reset() {
         // Trim all segments
-        long endSegment = (globalTail.get() / RECORDS_PER_LOG_FILE);
+        long endSegment = (globalTail.get() / recordsPerSegment);
         log.warn("Global Tail:{}, endSegment={}", globalTail.get(), endSegment);
 
         // Close segments before deleting their corresponding log files
@@ -1354,15 +2951,18 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         serverContext.setStartingAddress(0L);
         serverContext.setTailSegment(0L);
         globalTail.set(0L);
+        streamTails = null;
         initializeStartingAddress();
-        initializeMaxGlobalAddress();
+        initializeMaxGlobalAddress(Collections.emptySet());
 
         log.info("reset: Completed, end segment {}", endSegment);
     }
 
     @VisibleForTesting
     Set<FileChannel> getChannelsToSync() {
-        return channelsToSync;
+        Set<FileChannel> channels = new HashSet<>();
+        channelsToSync.forEach(channels::addAll);
+        return channels;
     }
 
     @VisibleForTesting
@@ -1370,21 +2970,8 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         return writeChannels.values();
     }
 
-    public static class CompactedEntry {
-        private final LogHeader logHeader;
-        private final Collection<LogEntry> entries;
-
-        public CompactedEntry(LogHeader logHeader, Collection<LogEntry> entries) {
-            this.logHeader = logHeader;
-            this.entries = entries;
-        }
-
-        public LogHeader getLogHeader() {
-            return logHeader;
-        }
-
-        public Collection<LogEntry> getEntries() {
-            return entries;
-        }
+    @VisibleForTesting
+    int getIdleCodecs() {
+        return deflaters.size() + inflaters.size();
     }
 }
@@ -0,0 +1,201 @@
+package org.corfudb.migration;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.corfudb.format.Types;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.corfudb.migration.LogFormat1to2.getByteBufferWithMetaData;
+import static org.corfudb.migration.LogFormat1to2.getChecksum;
+
+/**
+ * This migration tool will migrate the log segment files from version 2 to 3. Version 3 stores
+ * the backpointers of a record as raw stream ids and addresses, instead of the string keyed
+ * streams and backpointers fields. As a result, every record is rewritten and its checksums
+ * are recomputed. Segment index files are deleted, since the offsets of the records change,
+ * and are rebuilt by the log unit.
+ *
+ * To run this tool, stop the log unit and execute the following steps:
+ *
+ * 1. cd migration; mvn clean install
+ * 2. cd target; java -cp migration-0.1-SNAPSHOT-shaded.jar org.corfudb.migration.LogFormat2to3 corfuDataDir
+ */
+
+public class LogFormat2to3 {
+
+    static final int srcVersion = 2;
+
+    static final int destVersion = 3;
+
+    public static final int METADATA_SIZE = Types.Metadata.newBuilder()
+            .setLengthChecksum(-1)
+            .setPayloadChecksum(-1)
+            .setLength(-1)
+            .build()
+            .getSerializedSize();
+
+    /**
+     * Migrates the log segments.
+     *
+     * @param args Accepts the CorfuDB data directory.
+     * @throws Exception if migration fails.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Expected parameters: CorfuDB data directory");
+        }
+
+        migrateLUData(args[0]);
+    }
+
+    public static void migrateLUData(String dir) throws IOException {
+        String luDir = dir + File.separator + "log";
+        File path = new File(luDir);
+        File[] files = path.listFiles((dir1, name) -> name.endsWith(".log"));
+
+        if (files == null) {
+            throw new IllegalArgumentException("Invalid directory " + dir);
+        }
+
+        for (File file : files) {
+            processSegment(file.getAbsolutePath());
+            Files.deleteIfExists(Paths.get(file.getAbsolutePath() + ".index"));
+        }
+    }
+
+    public static void processSegment(String path) throws IOException {
+
+        Path srcPath = Paths.get(path);
+        Path destPath = Paths.get(path + ".tmp");
+
+        try (FileChannel src = FileChannel.open(srcPath, EnumSet.of(StandardOpenOption.READ))) {
+            // Parse header
+            Types.Metadata headerMetadata = readMetadata(src);
+            ByteBuffer headerBuf = headerMetadata == null
+                    ? null : readSerializedEntry(headerMetadata, src);
+            if (headerBuf == null) {
+                // The log unit rewrites partially written headers, there are no records
+                return;
+            }
+
+            Types.LogHeader header;
+
+            try {
+                header = Types.LogHeader.parseFrom(headerBuf.array());
+            } catch (InvalidProtocolBufferException e) {
+                throw new IllegalStateException("Can't parse log header for " + path);
+            }
+
+            if (header.getVersion() != srcVersion) {
+                throw new IllegalStateException("Segment version must be " + srcVersion
+                        + " but found " + header.getVersion() + " in file " + path);
+            }
+
+            try (FileChannel dest = FileChannel.open(destPath, EnumSet.of(StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))) {
+                // Write header with the new format, the converted segment only holds its records
+                Types.LogHeader newHeader = header.toBuilder()
+                        .setVersion(destVersion)
+                        .setPreallocated(false)
+                        .build();
+                dest.write(getByteBufferWithMetaData(newHeader));
+
+                // Parse segment entries, up to a partially written record or the
+                // unwritten region of a preallocated segment
+                while (!(header.getPreallocated() && isUnwrittenRegion(src))) {
+                    Types.Metadata entryMetadata = readMetadata(src);
+                    ByteBuffer serializedEntry = entryMetadata == null
+                            ? null : readSerializedEntry(entryMetadata, src);
+                    if (serializedEntry == null) {
+                        break;
+                    }
+
+                    if (header.getVerifyChecksum() && entryMetadata.getPayloadChecksum()
+                            != getChecksum(serializedEntry.array())) {
+                        throw new IllegalStateException("Data corruption detected while reading "
+                                + path);
+                    }
+
+                    Types.LogEntry entry = Types.LogEntry.parseFrom(serializedEntry.array());
+
+                    // Write the entry in the new format
+                    dest.write(getByteBufferWithMetaData(convertEntry(entry)));
+                }
+
+                dest.force(true);
+            }
+        }
+
+        Files.move(destPath, srcPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replaces the string keyed streams and backpointers of an entry with the backpointers
+     * of log format 3, the bits of the stream id followed by the address.
+     */
+    static Types.LogEntry convertEntry(Types.LogEntry entry) {
+        Types.LogEntry.Builder builder = entry.toBuilder()
+                .clearStreams()
+                .clearBackpointers();
+
+        for (Map.Entry<String, Long> backpointer : entry.getBackpointersMap().entrySet()) {
+            UUID streamId = UUID.fromString(backpointer.getKey());
+            builder.addStreamBackpointers(streamId.getMostSignificantBits())
+                    .addStreamBackpointers(streamId.getLeastSignificantBits())
+                    .addStreamBackpointers(backpointer.getValue());
+        }
+
+        return builder.build();
+    }
+
+    static boolean isUnwrittenRegion(FileChannel fc) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(METADATA_SIZE,
+                fc.size() - fc.position()));
+        fc.read(buf, fc.position());
+        for (byte b : buf.array()) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Types.Metadata readMetadata(FileChannel fc) throws IOException {
+        if (fc.size() - fc.position() < METADATA_SIZE) {
+            return null;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(METADATA_SIZE);
+        fc.read(buf);
+        buf.flip();
+        Types.Metadata metadata = Types.Metadata.parseFrom(buf.array());
+        if (metadata.getLengthChecksum() != getChecksum(metadata.getLength())) {
+            throw new IllegalStateException("Data corruption detected while reading " + fc);
+        }
+        return metadata;
+    }
+
+    static ByteBuffer readSerializedEntry(Types.Metadata entryMetadata, FileChannel fc)
+            throws IOException {
+        if (fc.size() - fc.position() < entryMetadata.getLength()) {
+            return null;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(entryMetadata.getLength());
+        fc.read(buf);
+        buf.flip();
+        return buf;
+    }
+}
@@ -0,0 +1,154 @@
+package org.corfudb.migration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.corfudb.migration.LogFormat1to2.getByteBufferWithMetaData;
+import static org.corfudb.migration.LogFormat1to2.getChecksum;
+
+import com.google.protobuf.ByteString;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.corfudb.format.Types;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the migration of the log segments from version 2 to 3.
+ */
+public class LogFormat2to3Test {
+
+    private static final int NUM_RECORDS = 5;
+
+    private static final int PREALLOCATED_BYTES = 4096;
+
+    private static final int BACKPOINTER_FIELDS = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+
+    private final UUID streamB = UUID.nameUUIDFromBytes("streamB".getBytes());
+
+    private final UUID streamC = UUID.nameUUIDFromBytes("streamC".getBytes());
+
+    /**
+     * Returns the backpointers of a record, every record is on stream A and every other
+     * record is on the streams B and C as well.
+     */
+    private Map<UUID, Long> getBackpointers(long address) {
+        Map<UUID, Long> backpointers = new HashMap<>();
+        backpointers.put(streamA, address - 1);
+        if (address % 2 == 0) {
+            backpointers.put(streamB, address - 2);
+            backpointers.put(streamC, address - 2);
+        }
+        return backpointers;
+    }
+
+    private Types.LogEntry getVersion2Entry(long address) {
+        Types.LogEntry.Builder builder = Types.LogEntry.newBuilder()
+                .setDataType(Types.DataType.DATA)
+                .setData(ByteString.copyFromUtf8("Payload" + address))
+                .setGlobalAddress(address);
+        for (Map.Entry<UUID, Long> backpointer : getBackpointers(address).entrySet()) {
+            builder.addStreams(backpointer.getKey().toString())
+                    .putBackpointers(backpointer.getKey().toString(), backpointer.getValue());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Writes a preallocated version 2 segment, with its unwritten region zero-filled.
+     */
+    private void writeVersion2Segment(Path segment) throws IOException {
+        try (FileChannel fc = FileChannel.open(segment, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            fc.write(getByteBufferWithMetaData(Types.LogHeader.newBuilder()
+                    .setVersion(LogFormat2to3.srcVersion)
+                    .setVerifyChecksum(true)
+                    .setPreallocated(true)
+                    .build()));
+            for (long address = 0; address < NUM_RECORDS; address++) {
+                fc.write(getByteBufferWithMetaData(getVersion2Entry(address)));
+            }
+            fc.write(ByteBuffer.allocate(PREALLOCATED_BYTES));
+        }
+    }
+
+    private Types.LogEntry readEntry(FileChannel fc) throws IOException {
+        Types.Metadata metadata = LogFormat2to3.readMetadata(fc);
+        ByteBuffer serialized = LogFormat2to3.readSerializedEntry(metadata, fc);
+        assertThat(serialized).isNotNull();
+        assertThat(metadata.getPayloadChecksum()).isEqualTo(getChecksum(serialized.array()));
+        return Types.LogEntry.parseFrom(serialized.array());
+    }
+
+    @Test
+    public void migratedSegmentHasStreamBackpointers() throws IOException {
+        File logDir = folder.newFolder("log");
+        Path segment = Paths.get(logDir.getAbsolutePath(), "0.log");
+        writeVersion2Segment(segment);
+        File index = new File(segment + ".index");
+        assertThat(index.createNewFile()).isTrue();
+
+        LogFormat2to3.migrateLUData(folder.getRoot().getAbsolutePath());
+
+        // The stale index is removed, the log unit rebuilds it
+        assertThat(index).doesNotExist();
+
+        try (FileChannel fc = FileChannel.open(segment, StandardOpenOption.READ)) {
+            Types.Metadata headerMetadata = LogFormat2to3.readMetadata(fc);
+            Types.LogHeader header = Types.LogHeader.parseFrom(
+                    LogFormat2to3.readSerializedEntry(headerMetadata, fc).array());
+            assertThat(header.getVersion()).isEqualTo(LogFormat2to3.destVersion);
+            assertThat(header.getVerifyChecksum()).isTrue();
+            // The zero-filled region isn't carried over
+            assertThat(header.getPreallocated()).isFalse();
+
+            List<Long> addresses = new ArrayList<>();
+            while (fc.position() < fc.size()) {
+                Types.LogEntry entry = readEntry(fc);
+                long address = entry.getGlobalAddress();
+                addresses.add(address);
+
+                assertThat(entry.getData().toStringUtf8()).isEqualTo("Payload" + address);
+                assertThat(entry.getStreamsCount()).isZero();
+                assertThat(entry.getBackpointersCount()).isZero();
+
+                Map<UUID, Long> backpointers = new HashMap<>();
+                for (int i = 0; i < entry.getStreamBackpointersCount(); i += BACKPOINTER_FIELDS) {
+                    backpointers.put(new UUID(entry.getStreamBackpointers(i),
+                            entry.getStreamBackpointers(i + 1)),
+                            entry.getStreamBackpointers(i + 2));
+                }
+                assertThat(backpointers).isEqualTo(getBackpointers(address));
+            }
+            assertThat(addresses).containsExactly(0L, 1L, 2L, 3L, 4L);
+        }
+    }
+
+    @Test
+    public void segmentWithPartialHeaderIsLeftAsIs() throws IOException {
+        File logDir = folder.newFolder("log");
+        Path segment = Paths.get(logDir.getAbsolutePath(), "0.log");
+        byte[] partialHeader = new byte[LogFormat2to3.METADATA_SIZE - 1];
+        Files.write(segment, partialHeader);
+
+        LogFormat2to3.migrateLUData(folder.getRoot().getAbsolutePath());
+        assertThat(Files.readAllBytes(segment)).isEqualTo(partialHeader);
+    }
+}
@@ -51,6 +51,8 @@ public enum CorfuMsgType {
     TOKEN_RES(26, new TypeToken<CorfuPayloadMsg<TokenResponse>>(){}),
     BOOTSTRAP_SEQUENCER(27, new TypeToken<CorfuPayloadMsg<SequencerTailsRecoveryMsg>>(){}),
     SEQUENCER_TRIM_REQ(28, new TypeToken<CorfuPayloadMsg<Long>>() {}),
+    TOKEN_BATCH_REQ(23, new TypeToken<CorfuPayloadMsg<TokenBatchRequest>>(){}),
+    TOKEN_BATCH_RES(24, new TypeToken<CorfuPayloadMsg<TokenBatchResponse>>(){}),
 
     // Logging Unit Messages
     WRITE(30, new TypeToken<CorfuPayloadMsg<WriteRequest>>() {}),
@@ -59,6 +61,9 @@ public enum CorfuMsgType {
     MULTIPLE_READ_REQUEST(35, new TypeToken<CorfuPayloadMsg<MultipleReadRequest>>() {}),
     TRIM(33, new TypeToken<CorfuPayloadMsg<TrimRequest>>() {}),
     FILL_HOLE(34, new TypeToken<CorfuPayloadMsg<TrimRequest>>() {}),
+    MULTIPLE_FILL_HOLE(39, new TypeToken<CorfuPayloadMsg<MultipleFillHoleRequest>>() {}),
+    MULTIPLE_FILL_HOLE_RESPONSE(40,
+            new TypeToken<CorfuPayloadMsg<MultipleFillHoleResponse>>() {}),
     PREFIX_TRIM(38, new TypeToken<CorfuPayloadMsg<TrimRequest>>() {}),
     TAIL_REQUEST(41, TypeToken.of(CorfuMsg.class), true),
     TAIL_RESPONSE(42, new TypeToken<CorfuPayloadMsg<Long>>(){}, true),
@@ -67,6 +72,10 @@ public enum CorfuMsgType {
     TRIM_MARK_REQUEST(45, TypeToken.of(CorfuMsg.class), true),
     TRIM_MARK_RESPONSE(46, new TypeToken<CorfuPayloadMsg<Long>>(){}, true),
     RESET_LOGUNIT(47, TypeToken.of(CorfuMsg.class)),
+    DURABLE_TAIL_REQUEST(48, TypeToken.of(CorfuMsg.class), true),
+    DURABLE_TAIL_RESPONSE(49, new TypeToken<CorfuPayloadMsg<Long>>(){}, true),
+    STREAM_TAILS_REQUEST(36, TypeToken.of(CorfuMsg.class), true),
+    STREAM_TAILS_RESPONSE(37, new TypeToken<CorfuPayloadMsg<StreamTailsResponse>>(){}, true),
 
     WRITE_OK(50, TypeToken.of(CorfuMsg.class)),
     ERROR_TRIMMED(51, TypeToken.of(CorfuMsg.class)),
@@ -1,8 +1,10 @@
 package org.corfudb.protocols.wireprotocol;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
 
+import java.nio.ByteBuffer;
 import java.util.EnumMap;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -25,13 +27,20 @@ public class LogData implements ICorfuPayload<LogData>, IMetadata, ILogData {
     @Getter
     final DataType type;
 
-    @Getter
     byte[] data;
 
     private ByteBuf serializedCache = null;
 
     private int lastKnownSize = NOT_KNOWN;
 
+    /**
+     * The offset of the data within the serialized form, for log data that is only
+     * backed by its serialized form (see {@link #fromSerialized(ByteBuf)}).
+     */
+    private int serializedDataOffset = NOT_KNOWN;
+
+    private boolean serializedOnly = false;
+
     private final transient AtomicReference<Object> payload = new AtomicReference<>();
 
     public static LogData getTrimmed(long address) {
@@ -52,6 +61,111 @@ public class LogData implements ICorfuPayload<LogData>, IMetadata, ILogData {
         return logData;
     }
 
+    /**
+     * Return a log data that is backed by its serialized form, without copying the data
+     * out of the buffer. The log data takes ownership of the buffer, which is released
+     * once the last reference is dropped with {@link #releaseBuffer()}.
+     *
+     * @param serialized A buffer holding the serialized log data.
+     * @return The log data backed by the buffer.
+     */
+    public static LogData fromSerialized(ByteBuf serialized) {
+        return new LogData(serialized, true);
+    }
+
+    /**
+     * Return a copy of this log data that is backed by its serialized form in a
+     * pooled direct buffer.
+     *
+     * @return The log data backed by the buffer.
+     */
+    public LogData serializeToDirectBuffer() {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer();
+        try {
+            doSerialize(buf);
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+        return fromSerialized(buf);
+    }
+
+    /**
+     * Return a log data that is backed by a pooled direct buffer, into which the given
+     * data and the type and metadata of this log data are serialized. The data is copied
+     * straight into the serialized form, without an intermediate byte array.
+     *
+     * @param data The data to serialize.
+     * @return The log data backed by the buffer.
+     */
+    public LogData serializeToDirectBuffer(ByteBuffer data) {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer();
+        try {
+            ICorfuPayload.serialize(buf, type);
+            if (type == DataType.DATA) {
+                buf.writeInt(data.remaining());
+                buf.writeBytes(data.duplicate());
+            }
+            if (type.isMetadataAware()) {
+                ICorfuPayload.serialize(buf, metadataMap);
+            }
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+        return fromSerialized(buf);
+    }
+
+    /**
+     * Return true if this log data is only backed by its serialized form, which has to be
+     * released with {@link #releaseBuffer()}.
+     */
+    public boolean isSerializedOnly() {
+        return serializedOnly;
+    }
+
+    private LogData(ByteBuf serialized, boolean ignored) {
+        ByteBuf buf = serialized.duplicate();
+        type = ICorfuPayload.fromBuffer(buf, DataType.class);
+        if (type == DataType.DATA) {
+            int length = buf.readInt();
+            serializedDataOffset = buf.readerIndex() - serialized.readerIndex();
+            buf.skipBytes(length);
+        }
+        if (type.isMetadataAware()) {
+            metadataMap =
+                    ICorfuPayload.enumMapFromBuffer(buf,
+                            IMetadata.LogUnitMetadataType.class, Object.class);
+        } else {
+            metadataMap = new EnumMap<>(IMetadata.LogUnitMetadataType.class);
+        }
+        serializedCache = serialized;
+        serializedOnly = true;
+        lastKnownSize = serialized.readableBytes();
+    }
+
+    /**
+     * Return the data, which is copied out of the serialized form if
+     * this log data is only backed by it.
+     */
+    public byte[] getData() {
+        byte[] tempData = data;
+        if (tempData != null || serializedDataOffset == NOT_KNOWN) {
+            return tempData;
+        }
+
+        synchronized (this) {
+            if (serializedCache == null) {
+                throw new IllegalStateException("getData: serialized form of "
+                        + this + " was already released");
+            }
+            int dataIndex = serializedCache.readerIndex() + serializedDataOffset;
+            byte[] copy = new byte[serializedCache.getInt(dataIndex - Integer.BYTES)];
+            serializedCache.getBytes(dataIndex, copy);
+            return copy;
+        }
+    }
+
     /**
      * Return the payload.
      */
@@ -61,10 +175,11 @@ public class LogData implements ICorfuPayload<LogData>, IMetadata, ILogData {
             synchronized (this.payload) {
                 value = this.payload.get();
                 if (value == null) {
-                    if (data == null) {
+                    byte[] rawData = getData();
+                    if (rawData == null) {
                         this.payload.set(null);
                     } else {
-                        ByteBuf copyBuf = Unpooled.wrappedBuffer(data);
+                        ByteBuf copyBuf = Unpooled.wrappedBuffer(rawData);
                         final Object actualValue =
                                 Serializers.CORFU.deserialize(copyBuf, runtime);
                         // TODO: Remove circular dependency on logentry.
@@ -75,7 +190,7 @@ public class LogData implements ICorfuPayload<LogData>, IMetadata, ILogData {
                         value = actualValue == null ? this.payload : actualValue;
                         this.payload.set(value);
                         copyBuf.release();
-                        lastKnownSize = data.length;
+                        lastKnownSize = rawData.length;
                         data = null;
                     }
                 }
@@ -95,6 +210,20 @@ public class LogData implements ICorfuPayload<LogData>, IMetadata, ILogData {
         }
     }
 
+    /**
+     * Retain the serialized form of this log data, if it still has one.
+     *
+     * @return True, if the serialized form was retained and has to be
+     *     released with {@link #releaseBuffer()}.
+     */
+    public synchronized boolean tryAcquireBuffer() {
+        if (serializedCache == null) {
+            return false;
+        }
+        serializedCache.retain();
+        return true;
+    }
+
     @Override
     public synchronized void acquireBuffer() {
         if (serializedCache == null) {
@@ -198,9 +327,10 @@ public class LogData implements ICorfuPayload<LogData>, IMetadata, ILogData {
 
     @Override
     public void doSerialize(ByteBuf buf) {
+        ByteBuf serializedCache = this.serializedCache;
         if (serializedCache != null) {
-            serializedCache.resetReaderIndex();
-            buf.writeBytes(serializedCache);
+            buf.writeBytes(serializedCache, serializedCache.readerIndex(),
+                    serializedCache.readableBytes());
         } else {
             doSerializeInternal(buf);
         }
@@ -0,0 +1,32 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A request to fill the holes at multiple addresses.
+ */
+@Data
+@AllArgsConstructor
+public class MultipleFillHoleRequest implements ICorfuPayload<MultipleFillHoleRequest> {
+
+    final List<Long> addresses;
+
+    /**
+     * Deserialization Constructor from ByteBuf to MultipleFillHoleRequest.
+     *
+     * @param buf The buffer to deserialize
+     */
+    public MultipleFillHoleRequest(ByteBuf buf) {
+        addresses = ICorfuPayload.listFromBuffer(buf, Long.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, addresses);
+    }
+}
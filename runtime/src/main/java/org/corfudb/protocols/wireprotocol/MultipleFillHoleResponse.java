@@ -0,0 +1,33 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * The response to a {@link MultipleFillHoleRequest}, which holds the addresses that
+ * were already written, and so were not filled.
+ */
+@Data
+@AllArgsConstructor
+public class MultipleFillHoleResponse implements ICorfuPayload<MultipleFillHoleResponse> {
+
+    final List<Long> writtenAddresses;
+
+    /**
+     * Deserialization Constructor from ByteBuf to MultipleFillHoleResponse.
+     *
+     * @param buf The buffer to deserialize
+     */
+    public MultipleFillHoleResponse(ByteBuf buf) {
+        writtenAddresses = ICorfuPayload.listFromBuffer(buf, Long.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, writtenAddresses);
+    }
+}
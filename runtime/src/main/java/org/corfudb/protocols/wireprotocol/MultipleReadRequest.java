@@ -20,6 +20,12 @@ public class MultipleReadRequest implements ICorfuPayload<MultipleReadRequest> {
     @Getter
     final List<Long> addresses;
 
+    /**
+     * Whether the log unit may admit the entries it loads for this request into its
+     * cache.
+     */
+    final boolean cacheable;
+
     /**
      * Deserialization Constructor from ByteBuf to ReadRequest.
      *
@@ -27,14 +33,20 @@ public class MultipleReadRequest implements ICorfuPayload<MultipleReadRequest> {
      */
     public MultipleReadRequest(ByteBuf buf) {
         addresses = ICorfuPayload.listFromBuffer(buf, Long.class);
+        cacheable = ICorfuPayload.fromBuffer(buf, Boolean.class);
     }
 
     public MultipleReadRequest(Long address) {
-        addresses = Arrays.asList(address);
+        this(Arrays.asList(address));
+    }
+
+    public MultipleReadRequest(List<Long> addresses) {
+        this(addresses, true);
     }
 
     @Override
     public void doSerialize(ByteBuf buf) {
         ICorfuPayload.serialize(buf, addresses);
+        ICorfuPayload.serialize(buf, cacheable);
     }
 }
@@ -18,6 +18,13 @@ public class ReadRequest implements ICorfuPayload<ReadRequest> {
 
     final Range<Long> range;
 
+    /**
+     * Whether the log unit may admit the entries it loads for this request into its
+     * cache. Bulk sequential reads clear it, so that they don't evict the working set
+     * of the other clients.
+     */
+    final boolean cacheable;
+
     /**
      * Deserialization Constructor from ByteBuf to ReadRequest.
      *
@@ -25,15 +32,21 @@ public class ReadRequest implements ICorfuPayload<ReadRequest> {
      */
     public ReadRequest(ByteBuf buf) {
         range = ICorfuPayload.rangeFromBuffer(buf, Long.class);
+        cacheable = ICorfuPayload.fromBuffer(buf, Boolean.class);
     }
 
     public ReadRequest(Long address) {
-        range = Range.singleton(address);
+        this(Range.singleton(address));
+    }
+
+    public ReadRequest(Range<Long> range) {
+        this(range, true);
     }
 
     @Override
     public void doSerialize(ByteBuf buf) {
         ICorfuPayload.serialize(buf, range);
+        ICorfuPayload.serialize(buf, cacheable);
     }
 
 }
@@ -0,0 +1,27 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The highest address that a log unit has written for every stream.
+ */
+@Data
+@AllArgsConstructor
+public class StreamTailsResponse implements ICorfuPayload<StreamTailsResponse> {
+
+    private Map<UUID, Long> streamTails;
+
+    public StreamTailsResponse(ByteBuf buf) {
+        streamTails = ICorfuPayload.mapFromBuffer(buf, UUID.class, Long.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, streamTails);
+    }
+}
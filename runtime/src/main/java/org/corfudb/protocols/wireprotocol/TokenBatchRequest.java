@@ -0,0 +1,34 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A batch of token requests, which the sequencer serves in order and answers with a
+ * single {@link TokenBatchResponse}.
+ */
+@Data
+@AllArgsConstructor
+public class TokenBatchRequest implements ICorfuPayload<TokenBatchRequest> {
+
+    /** The token requests, in the order they are served. */
+    final List<TokenRequest> requests;
+
+    /**
+     * Deserialization Constructor from ByteBuf to TokenBatchRequest.
+     *
+     * @param buf The buffer to deserialize
+     */
+    public TokenBatchRequest(ByteBuf buf) {
+        requests = ICorfuPayload.listFromBuffer(buf, TokenRequest.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, requests);
+    }
+}
@@ -14,7 +14,16 @@ import lombok.RequiredArgsConstructor;
  */
 @RequiredArgsConstructor
 public enum WriteMode implements ICorfuPayload<WriteMode> {
-    NORMAL((byte) 0);
+    /**
+     * The write is acknowledged once it is durable.
+     */
+    NORMAL((byte) 0),
+    /**
+     * The write is acknowledged once it is written to the log unit, and becomes durable
+     * within the log unit's sync interval. It can be lost if the log unit crashes in the
+     * meantime, see {@link CorfuMsgType#DURABLE_TAIL_REQUEST}.
+     */
+    ASYNC((byte) 1);
 
     final int val;
 
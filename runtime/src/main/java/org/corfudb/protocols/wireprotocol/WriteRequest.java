@@ -40,8 +40,7 @@ public class WriteRequest implements ICorfuPayload<WriteRequest>, IMetadata {
     }
 
     public WriteRequest(ILogData data) {
-        writeMode = WriteMode.NORMAL;
-        this.data = data;
+        this(WriteMode.NORMAL, data);
     }
 
     @Override
@@ -23,6 +23,7 @@ import org.corfudb.protocols.wireprotocol.FillHoleRequest;
 import org.corfudb.protocols.wireprotocol.ILogData;
 import org.corfudb.protocols.wireprotocol.IMetadata;
 import org.corfudb.protocols.wireprotocol.LogData;
+import org.corfudb.protocols.wireprotocol.MultipleFillHoleRequest;
 import org.corfudb.protocols.wireprotocol.MultipleReadRequest;
 import org.corfudb.protocols.wireprotocol.RangeWriteMsg;
 import org.corfudb.protocols.wireprotocol.ReadRequest;
@@ -115,8 +116,22 @@ public class LogUnitClient extends AbstractClient {
      *     write completes.
      */
     public CompletableFuture<Boolean> write(ILogData payload) {
+        return write(payload, WriteMode.NORMAL);
+    }
+
+    /**
+     * Asynchronously write to the logging unit, with the given durability.
+     *
+     * @param payload   The log data to write to the logging unit.
+     * @param writeMode Whether the write is acknowledged once it is durable (NORMAL), or
+     *                  once it is written but before it is durable (ASYNC).
+     * @return A CompletableFuture which will complete with the WriteResult once the
+     *     write completes.
+     */
+    public CompletableFuture<Boolean> write(ILogData payload, WriteMode writeMode) {
         checkWriteSize(payload);
-        return sendMessageWithFuture(CorfuMsgType.WRITE.payloadMsg(new WriteRequest(payload)));
+        return sendMessageWithFuture(CorfuMsgType.WRITE.payloadMsg(
+                new WriteRequest(writeMode, payload)));
     }
 
     /**
@@ -182,9 +197,20 @@ public class LogUnitClient extends AbstractClient {
      * @return CompletableFuture which returns a ReadResponse on completion.
      */
     public CompletableFuture<ReadResponse> read(Range<Long> range) {
+        return read(range, true);
+    }
+
+    /**
+     * Read data from the log unit server for a range of addresses.
+     *
+     * @param range     Range of global offsets.
+     * @param cacheable Whether the log unit may cache the entries it loads for this read.
+     * @return CompletableFuture which returns a ReadResponse on completion.
+     */
+    public CompletableFuture<ReadResponse> read(Range<Long> range, boolean cacheable) {
         Timer.Context context = getTimerContext("readRange");
         CompletableFuture<ReadResponse> cf = sendMessageWithFuture(
-                CorfuMsgType.READ_REQUEST.payloadMsg(new ReadRequest(range)));
+                CorfuMsgType.READ_REQUEST.payloadMsg(new ReadRequest(range, cacheable)));
         return cf.thenApply(x -> {
             context.stop();
             return x;
@@ -198,9 +224,21 @@ public class LogUnitClient extends AbstractClient {
      * @return CompletableFuture which returns a ReadResponse on completion.
      */
     public CompletableFuture<ReadResponse> read(List<Long> list) {
+        return read(list, true);
+    }
+
+    /**
+     * Read data from the log unit server for a list of addresses.
+     *
+     * @param list      list of global addresses.
+     * @param cacheable Whether the log unit may cache the entries it loads for this read.
+     * @return CompletableFuture which returns a ReadResponse on completion.
+     */
+    public CompletableFuture<ReadResponse> read(List<Long> list, boolean cacheable) {
         Timer.Context context = getTimerContext("readList");
         CompletableFuture<ReadResponse> cf = sendMessageWithFuture(
-                CorfuMsgType.MULTIPLE_READ_REQUEST.payloadMsg(new MultipleReadRequest(list)));
+                CorfuMsgType.MULTIPLE_READ_REQUEST.payloadMsg(
+                        new MultipleReadRequest(list, cacheable)));
         return cf.thenApply(x -> {
             context.stop();
             return x;
@@ -217,6 +255,28 @@ public class LogUnitClient extends AbstractClient {
         return sendMessageWithFuture(CorfuMsgType.TAIL_REQUEST.msg());
     }
 
+    /**
+     * Get the last durable address of the log unit. The acknowledged writes up to that
+     * address survive a crash of the log unit, asynchronous writes past it may be lost.
+     *
+     * @return A CompletableFuture which will complete with the durable tail once
+     * received.
+     */
+    public CompletableFuture<Long> getDurableTail() {
+        return sendMessageWithFuture(CorfuMsgType.DURABLE_TAIL_REQUEST.msg());
+    }
+
+    /**
+     * Get the highest address the log unit has written for every stream, which is used
+     * to bootstrap a sequencer without scanning the log.
+     *
+     * @return A CompletableFuture which will complete with the stream tails once
+     * received.
+     */
+    public CompletableFuture<Map<UUID, Long>> getStreamTails() {
+        return sendMessageWithFuture(CorfuMsgType.STREAM_TAILS_REQUEST.msg());
+    }
+
     /**
      * Get the starting address of a loggining unit.
      * @return A CompletableFuture for the starting address
@@ -273,6 +333,24 @@ public class LogUnitClient extends AbstractClient {
         });
     }
 
+    /**
+     * Fill the holes at a set of addresses, which are filled together by the log unit.
+     *
+     * @param addresses The addresses to fill holes at.
+     * @return A CompletableFuture which will complete with the addresses that were
+     *     already written, and were not filled.
+     */
+    public CompletableFuture<List<Long>> fillHoles(List<Long> addresses) {
+        Timer.Context context = getTimerContext("fillHoles");
+        CompletableFuture<List<Long>> cf = sendMessageWithFuture(
+                CorfuMsgType.MULTIPLE_FILL_HOLE.payloadMsg(
+                        new MultipleFillHoleRequest(addresses)));
+        return cf.thenApply(x -> {
+            context.stop();
+            return x;
+        });
+    }
+
     /**
      * Fills hole at a given address for a particular streamID.
      *
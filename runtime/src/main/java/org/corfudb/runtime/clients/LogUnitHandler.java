@@ -9,7 +9,9 @@ import lombok.Setter;
 import org.corfudb.protocols.wireprotocol.CorfuMsg;
 import org.corfudb.protocols.wireprotocol.CorfuMsgType;
 import org.corfudb.protocols.wireprotocol.CorfuPayloadMsg;
+import org.corfudb.protocols.wireprotocol.MultipleFillHoleResponse;
 import org.corfudb.protocols.wireprotocol.ReadResponse;
+import org.corfudb.protocols.wireprotocol.StreamTailsResponse;
 import org.corfudb.runtime.exceptions.DataCorruptionException;
 import org.corfudb.runtime.exceptions.DataOutrankedException;
 import org.corfudb.runtime.exceptions.OutOfSpaceException;
@@ -167,6 +169,21 @@ public class LogUnitHandler implements IClient, IHandler<LogUnitClient> {
         return msg.getPayload();
     }
 
+    /**
+     * Handle a MULTIPLE_FILL_HOLE_RESPONSE message.
+     *
+     * @param msg Incoming Message
+     * @param ctx Context
+     * @param r   Router
+     * @return The addresses which were already written.
+     */
+    @ClientHandler(type = CorfuMsgType.MULTIPLE_FILL_HOLE_RESPONSE)
+    private static Object handleMultipleFillHoleResponse(
+            CorfuPayloadMsg<MultipleFillHoleResponse> msg,
+            ChannelHandlerContext ctx, IClientRouter r) {
+        return msg.getPayload().getWrittenAddresses();
+    }
+
     /**
      * Handle a ERROR_DATA_CORRUPTION message.
      *
@@ -193,6 +210,32 @@ public class LogUnitHandler implements IClient, IHandler<LogUnitClient> {
         return msg.getPayload();
     }
 
+    /**
+     * Handle a DURABLE_TAIL_RESPONSE message.
+     *
+     * @param msg Incoming Message
+     * @param ctx Context
+     * @param r   Router
+     */
+    @ClientHandler(type = CorfuMsgType.DURABLE_TAIL_RESPONSE)
+    private static Object handleDurableTailResponse(CorfuPayloadMsg<Long> msg,
+                                                    ChannelHandlerContext ctx, IClientRouter r) {
+        return msg.getPayload();
+    }
+
+    /**
+     * Handle a STREAM_TAILS_RESPONSE message.
+     *
+     * @param msg Incoming Message
+     * @param ctx Context
+     * @param r   Router
+     */
+    @ClientHandler(type = CorfuMsgType.STREAM_TAILS_RESPONSE)
+    private static Object handleStreamTailsResponse(CorfuPayloadMsg<StreamTailsResponse> msg,
+                                                    ChannelHandlerContext ctx, IClientRouter r) {
+        return msg.getPayload().getStreamTails();
+    }
+
     /**
      * Handle a HEAD_RESPONSE message
      * @param msg   Incoming Message
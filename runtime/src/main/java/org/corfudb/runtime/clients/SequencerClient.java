@@ -1,12 +1,21 @@
 package org.corfudb.runtime.clients;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.AllArgsConstructor;
 
 import org.corfudb.protocols.wireprotocol.CorfuMsgType;
 import org.corfudb.protocols.wireprotocol.SequencerTailsRecoveryMsg;
+import org.corfudb.protocols.wireprotocol.TokenBatchRequest;
 import org.corfudb.protocols.wireprotocol.TokenRequest;
 import org.corfudb.protocols.wireprotocol.TokenResponse;
 import org.corfudb.protocols.wireprotocol.TxResolutionInfo;
@@ -17,10 +26,36 @@ import org.corfudb.protocols.wireprotocol.TxResolutionInfo;
  *
  * <p>This client allows the client to obtain sequence numbers from a sequencer.
  *
+ * <p>Token requests are sent right away as long as fewer than
+ * {@link SequencerClient#MAX_OUTSTANDING_MESSAGES} token messages are awaiting a response.
+ * Requests made while the limit is reached are queued, and sent together in one
+ * TOKEN_BATCH_REQ as soon as a response arrives. Under many concurrent callers the
+ * requests are therefore coalesced, without delaying a request when the sequencer
+ * is idle.
+ *
  * <p>Created by mwei on 12/10/15.
  */
 public class SequencerClient extends AbstractClient {
 
+    /** The number of token messages which may await a response before requests are queued. */
+    private static final int MAX_OUTSTANDING_MESSAGES = 4;
+
+    /** The maximum number of token requests sent in one batch. */
+    private static final int MAX_BATCH_SIZE = 512;
+
+    /** Token requests which are waiting to be sent. */
+    private final Queue<PendingTokenRequest> pendingRequests = new ConcurrentLinkedQueue<>();
+
+    /** The number of token messages awaiting a response. */
+    private final AtomicInteger outstandingMessages = new AtomicInteger();
+
+    /** A token request and the future to complete with its response. */
+    @AllArgsConstructor
+    private static class PendingTokenRequest {
+        final TokenRequest request;
+        final CompletableFuture<TokenResponse> future;
+    }
+
     public SequencerClient(IClientRouter router, long epoch) {
         super(router, epoch);
     }
@@ -33,8 +68,7 @@ public class SequencerClient extends AbstractClient {
      * @return A completable future with the token response from the sequencer.
      */
     public CompletableFuture<TokenResponse> nextToken(Set<UUID> streamIDs, long numTokens) {
-        return sendMessageWithFuture(CorfuMsgType.TOKEN_REQ.payloadMsg(
-                new TokenRequest(numTokens, streamIDs)));
+        return requestToken(new TokenRequest(numTokens, streamIDs));
     }
 
     /**
@@ -47,8 +81,102 @@ public class SequencerClient extends AbstractClient {
      */
     public CompletableFuture<TokenResponse> nextToken(Set<UUID> streamIDs, long numTokens,
                                                       TxResolutionInfo conflictInfo) {
-        return sendMessageWithFuture(CorfuMsgType.TOKEN_REQ.payloadMsg(
-                new TokenRequest(numTokens, streamIDs, conflictInfo)));
+        return requestToken(new TokenRequest(numTokens, streamIDs, conflictInfo));
+    }
+
+    /**
+     * Queue a token request and send the pending requests, if a message can be sent.
+     *
+     * @param request The token request.
+     * @return A completable future with the token response from the sequencer.
+     */
+    private CompletableFuture<TokenResponse> requestToken(TokenRequest request) {
+        CompletableFuture<TokenResponse> future = new CompletableFuture<>();
+        pendingRequests.add(new PendingTokenRequest(request, future));
+        sendPendingRequests();
+        return future;
+    }
+
+    /**
+     * Send the pending token requests, in batches of up to {@link #MAX_BATCH_SIZE}, until
+     * there are no more pending requests or {@link #MAX_OUTSTANDING_MESSAGES} messages are
+     * awaiting a response. In the latter case, the pending requests are sent once a
+     * response arrives.
+     */
+    private void sendPendingRequests() {
+        while (!pendingRequests.isEmpty()) {
+            final int outstanding = outstandingMessages.get();
+            if (outstanding >= MAX_OUTSTANDING_MESSAGES) {
+                return;
+            }
+            if (!outstandingMessages.compareAndSet(outstanding, outstanding + 1)) {
+                continue;
+            }
+
+            List<PendingTokenRequest> batch = new ArrayList<>();
+            PendingTokenRequest pending;
+            while (batch.size() < MAX_BATCH_SIZE && (pending = pendingRequests.poll()) != null) {
+                batch.add(pending);
+            }
+            if (batch.isEmpty()) {
+                // Another thread sent the requests.
+                outstandingMessages.decrementAndGet();
+                continue;
+            }
+
+            CompletableFuture<Void> sent;
+            try {
+                sent = sendTokenRequests(batch);
+            } catch (RuntimeException | Error e) {
+                batch.forEach(p -> p.future.completeExceptionally(e));
+                sent = CompletableFuture.completedFuture(null);
+            }
+            sent.whenComplete((r, e) -> {
+                outstandingMessages.decrementAndGet();
+                sendPendingRequests();
+            });
+        }
+    }
+
+    /**
+     * Send a batch of token requests, a single request is sent as a TOKEN_REQ.
+     *
+     * @param batch The token requests to send.
+     * @return A completable future which completes once the futures of the requests
+     *     are completed.
+     */
+    private CompletableFuture<Void> sendTokenRequests(List<PendingTokenRequest> batch) {
+        if (batch.size() == 1) {
+            final PendingTokenRequest pending = batch.get(0);
+            CompletableFuture<TokenResponse> cf = sendMessageWithFuture(
+                    CorfuMsgType.TOKEN_REQ.payloadMsg(pending.request));
+            return cf.handle((response, ex) -> {
+                completeRequest(pending, response, ex);
+                return null;
+            });
+        }
+
+        List<TokenRequest> requests = new ArrayList<>(batch.size());
+        batch.forEach(p -> requests.add(p.request));
+        CompletableFuture<List<TokenResponse>> cf = sendMessageWithFuture(
+                CorfuMsgType.TOKEN_BATCH_REQ.payloadMsg(new TokenBatchRequest(requests)));
+        return cf.handle((responses, ex) -> {
+            for (int i = 0; i < batch.size(); i++) {
+                completeRequest(batch.get(i), ex == null ? responses.get(i) : null, ex);
+            }
+            return null;
+        });
+    }
+
+    private void completeRequest(PendingTokenRequest pending, TokenResponse response,
+                                 Throwable ex) {
+        if (ex == null) {
+            pending.future.complete(response);
+        } else if (ex instanceof CompletionException && ex.getCause() != null) {
+            pending.future.completeExceptionally(ex.getCause());
+        } else {
+            pending.future.completeExceptionally(ex);
+        }
     }
 
     public CompletableFuture<Void> trimCache(Long address) {
@@ -8,6 +8,7 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.google.common.collect.Iterables;
 
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -207,11 +208,35 @@ public class AddressSpaceView extends AbstractView {
      * @return A result, which be cached.
      */
     public Map<Long, ILogData> read(Iterable<Long> addresses) {
+        return read(addresses, true);
+    }
+
+    /**
+     * Read the given object from a range of addresses. Bulk reads which are not
+     * cacheable, such as checkpoint replay, are served from the cache when they
+     * hit, but the entries they fetch are neither cached here nor on the log units.
+     *
+     * @param addresses An iterable with addresses to read from
+     * @param cacheable Whether the entries which are fetched may be cached
+     * @return A result, which be cached.
+     */
+    public Map<Long, ILogData> read(Iterable<Long> addresses, boolean cacheable) {
         Map<Long, ILogData> addressesMap;
-        if (!runtime.getParameters().isCacheDisabled()) {
+        if (runtime.getParameters().isCacheDisabled()) {
+            addressesMap = this.cacheFetch(addresses, cacheable);
+        } else if (cacheable) {
             addressesMap = readCache.getAll(addresses);
         } else {
-            addressesMap = this.cacheFetch(addresses);
+            addressesMap = new HashMap<>(readCache.getAllPresent(addresses));
+            List<Long> misses = new ArrayList<>();
+            addresses.forEach(address -> {
+                if (!addressesMap.containsKey(address)) {
+                    misses.add(address);
+                }
+            });
+            if (!misses.isEmpty()) {
+                addressesMap.putAll(this.cacheFetch(misses, false));
+            }
         }
 
         for (ILogData logData : addressesMap.values()) {
@@ -331,6 +356,18 @@ public class AddressSpaceView extends AbstractView {
      */
     public @Nonnull
     Map<Long, ILogData> cacheFetch(Iterable<Long> addresses) {
+        return cacheFetch(addresses, true);
+    }
+
+    /**
+     * Fetch a collection of addresses.
+     *
+     * @param addresses collection of addresses to read from.
+     * @param cacheable whether the log units may cache the entries.
+     * @return A result to be cached
+     */
+    public @Nonnull
+    Map<Long, ILogData> cacheFetch(Iterable<Long> addresses, boolean cacheable) {
         Map<Long, ILogData> allAddresses = new HashMap<>();
 
         Iterable<List<Long>> batches = Iterables.partition(addresses,
@@ -342,7 +379,7 @@ public class AddressSpaceView extends AbstractView {
                 allAddresses.putAll(layoutHelper(e -> e.getLayout()
                         .getReplicationMode(batch.iterator().next())
                         .getReplicationProtocol(runtime)
-                        .readAll(e, batch)));
+                        .readAll(e, batch, cacheable)));
             } catch (Exception e) {
                 log.error("cacheFetch: Couldn't read addresses {}", batch, e);
                 throw new UnrecoverableCorfuError(
@@ -2,10 +2,14 @@ package org.corfudb.runtime.view;
 
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
 
@@ -434,15 +438,7 @@ public class LayoutManagementView extends AbstractView {
             Layout.LayoutSegment latestSegment = newLayout.getSegments()
                     .get(newLayout.getSegments().size() - 1);
             maxTokenRequested = getMaxGlobalTail(newLayout, latestSegment);
-
-            FastObjectLoader fastObjectLoader = new FastObjectLoader(runtime);
-            fastObjectLoader.setRecoverSequencerMode(true);
-            fastObjectLoader.setLoadInCache(false);
-
-            // FastSMRLoader sets the logHead based on trim mark.
-            fastObjectLoader.setLogTail(maxTokenRequested);
-            fastObjectLoader.loadMaps();
-            streamTails = fastObjectLoader.getStreamTails();
+            streamTails = getStreamTails(newLayout, maxTokenRequested);
             verifyStreamTailsMap(streamTails);
 
             // Incrementing the maxTokenRequested value for sequencer reset.
@@ -461,6 +457,68 @@ public class LayoutManagementView extends AbstractView {
         }
     }
 
+    /**
+     * Fetches the stream tails to bootstrap a sequencer with. The stream tails are merged
+     * from the stream tails of the log unit servers, if one of them can't provide its
+     * stream tails, they are recovered by scanning the log.
+     *
+     * @param layout     Latest layout to get clients to fetch the stream tails.
+     * @param globalTail The max global log tail of the log unit servers.
+     * @return The tail of every stream.
+     */
+    private Map<UUID, Long> getStreamTails(Layout layout, long globalTail) {
+        try {
+            return getLogUnitStreamTails(layout);
+        } catch (RuntimeException e) {
+            log.warn("getStreamTails: Failed to fetch the stream tails of the log units, "
+                    + "scanning the log instead", e);
+        }
+
+        FastObjectLoader fastObjectLoader = new FastObjectLoader(runtime);
+        fastObjectLoader.setRecoverSequencerMode(true);
+        fastObjectLoader.setLoadInCache(false);
+
+        // FastSMRLoader sets the logHead based on trim mark.
+        fastObjectLoader.setLogTail(globalTail);
+        fastObjectLoader.loadMaps();
+        return fastObjectLoader.getStreamTails();
+    }
+
+    /**
+     * Fetches the stream tails from the log unit cluster. Every segment is queried, since
+     * the last write of a stream can be in an earlier segment than the latest one.
+     * CHAIN: Fetch the stream tails of the head log unit in every stripe.
+     * QUORUM: Fetch the stream tails of every log unit in every stripe.
+     *
+     * @param layout Latest layout to get clients to fetch the stream tails.
+     * @return The highest address of every stream across the log unit servers.
+     */
+    private Map<UUID, Long> getLogUnitStreamTails(Layout layout) {
+        Set<String> logServers = new HashSet<>();
+        for (Layout.LayoutSegment segment : layout.getSegments()) {
+            for (Layout.LayoutStripe stripe : segment.getStripes()) {
+                if (segment.getReplicationMode()
+                        .equals(Layout.ReplicationMode.CHAIN_REPLICATION)) {
+                    logServers.add(stripe.getLogServers().get(0));
+                } else {
+                    logServers.addAll(stripe.getLogServers());
+                }
+            }
+        }
+
+        List<CompletableFuture<Map<UUID, Long>>> futures = logServers.stream()
+                .map(s -> runtime.getLayoutView().getRuntimeLayout(layout)
+                        .getLogUnitClient(s).getStreamTails())
+                .collect(Collectors.toList());
+
+        Map<UUID, Long> streamTails = new HashMap<>();
+        for (CompletableFuture<Map<UUID, Long>> future : futures) {
+            CFUtils.getUninterruptibly(future).forEach((streamId, tail) ->
+                    streamTails.merge(streamId, tail, Math::max));
+        }
+        return streamTails;
+    }
+
     /**
      * Verifies whether there are any invalid streamTails.
      *
@@ -1,5 +1,9 @@
 package org.corfudb.runtime.view.replication;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 
 import lombok.extern.slf4j.Slf4j;
@@ -58,4 +62,61 @@ public abstract class AbstractReplicationProtocol implements IReplicationProtoco
      * @param globalAddress  The address to hole fill.
      */
     protected abstract void holeFill(RuntimeLayout runtimeLayout, long globalAddress);
+
+    /**
+     * Write special hole filling entries at a set of addresses, like
+     * {@link #holeFill(RuntimeLayout, long)}. The base implementation hole fills
+     * each address in turn.
+     *
+     * @param globalAddresses  The addresses to hole fill.
+     */
+    protected void holeFill(RuntimeLayout runtimeLayout, List<Long> globalAddresses) {
+        for (long globalAddress : globalAddresses) {
+            holeFill(runtimeLayout, globalAddress);
+        }
+    }
+
+    /**
+     * Peek data from a set of addresses. The base implementation peeks each
+     * address in turn.
+     *
+     * @param globalAddresses  The addresses to peek.
+     * @return The committed data, by address. The addresses without committed
+     *         data are left out.
+     */
+    protected Map<Long, ILogData> peekAll(RuntimeLayout runtimeLayout,
+                                          List<Long> globalAddresses) {
+        Map<Long, ILogData> result = new HashMap<>();
+        for (long globalAddress : globalAddresses) {
+            ILogData data = peek(runtimeLayout, globalAddress);
+            if (data != null) {
+                result.put(globalAddress, data);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read a set of addresses at which a bulk read found no committed data. The hole
+     * fill policy is applied to all of them together, and the addresses that require
+     * a hole fill are hole filled together, which spares a round trip per address
+     * when a crashed client or sequencer left many holes behind.
+     *
+     * @param globalAddresses  The addresses to read.
+     * @return The committed data, by address.
+     */
+    protected Map<Long, ILogData> readAllEmpty(RuntimeLayout runtimeLayout,
+                                               List<Long> globalAddresses) {
+        Map<Long, ILogData> result = new HashMap<>(holeFillPolicy
+                .peekAllUntilHoleFillRequired(globalAddresses, a -> peekAll(runtimeLayout, a)));
+        List<Long> holes = globalAddresses.stream()
+                .filter(a -> !result.containsKey(a))
+                .collect(Collectors.toList());
+        if (!holes.isEmpty()) {
+            log.debug("HoleFill[{}] {} addresses", holes.get(0), holes.size());
+            holeFill(runtimeLayout, holes);
+            result.putAll(peekAll(runtimeLayout, holes));
+        }
+        return result;
+    }
 }
@@ -1,5 +1,8 @@
 package org.corfudb.runtime.view.replication;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 import javax.annotation.Nonnull;
 import org.corfudb.protocols.wireprotocol.ILogData;
@@ -25,4 +28,14 @@ public class AlwaysHoleFillPolicy implements IHoleFillPolicy {
         }
         return data;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Nonnull
+    @Override
+    public Map<Long, ILogData> peekAllUntilHoleFillRequired(
+            List<Long> addresses, Function<List<Long>, Map<Long, ILogData>> peekFunction) {
+        return new HashMap<>(peekFunction.apply(addresses));
+    }
 }
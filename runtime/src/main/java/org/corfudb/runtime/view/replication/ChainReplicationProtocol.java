@@ -2,10 +2,15 @@ package org.corfudb.runtime.view.replication;
 
 import com.google.common.collect.Range;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
 import org.corfudb.protocols.wireprotocol.ILogData;
@@ -80,6 +85,15 @@ public class ChainReplicationProtocol extends AbstractReplicationProtocol {
      */
     @Override
     public Map<Long, ILogData> readAll(RuntimeLayout runtimeLayout, List<Long> globalAddresses) {
+        return readAll(runtimeLayout, globalAddresses, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Long, ILogData> readAll(RuntimeLayout runtimeLayout, List<Long> globalAddresses,
+                                       boolean cacheable) {
         long startAddress = globalAddresses.iterator().next();
         int numUnits = runtimeLayout.getLayout().getSegmentLength(startAddress);
         log.trace("readAll[{}]: chain {}/{}", globalAddresses, numUnits, numUnits);
@@ -87,20 +101,9 @@ public class ChainReplicationProtocol extends AbstractReplicationProtocol {
         Map<Long, LogData> logResult = CFUtils.getUninterruptibly(
                 runtimeLayout
                         .getLogUnitClient(startAddress, numUnits - 1)
-                        .read(globalAddresses)).getAddresses();
-
-        //in case of a hole, do a normal read and use its hole fill policy
-        Map<Long, ILogData> returnResult = new TreeMap<>();
-        for (Map.Entry<Long, LogData> entry : logResult.entrySet()) {
-            ILogData value = entry.getValue();
-            if (value == null || value.isEmpty()) {
-                value = read(runtimeLayout, entry.getKey());
-            }
+                        .read(globalAddresses, cacheable)).getAddresses();
 
-            returnResult.put(entry.getKey(), value);
-        }
-
-        return returnResult;
+        return completeBulkRead(runtimeLayout, logResult);
     }
 
     @Override
@@ -114,22 +117,73 @@ public class ChainReplicationProtocol extends AbstractReplicationProtocol {
         Map<Long, LogData> logResult = CFUtils.getUninterruptibly(
                 runtimeLayout
                         .getLogUnitClient(startAddress, numUnits - 1)
-                        .read(range)).getAddresses();
+                        .read(range, false)).getAddresses();
 
-        //in case of a hole, do a normal read and use its hole fill policy
+        return completeBulkRead(runtimeLayout, logResult);
+    }
+
+    /**
+     * Complete the result of a bulk read. The addresses at which no committed data
+     * was read are read again, applying the hole fill policy to all of them together.
+     */
+    private Map<Long, ILogData> completeBulkRead(RuntimeLayout runtimeLayout,
+                                                 Map<Long, LogData> logResult) {
         Map<Long, ILogData> returnResult = new TreeMap<>();
+        List<Long> empty = new ArrayList<>();
         for (Map.Entry<Long, LogData> entry : logResult.entrySet()) {
             ILogData value = entry.getValue();
             if (value == null || value.isEmpty()) {
-                value = read(runtimeLayout, entry.getKey());
+                empty.add(entry.getKey());
+            } else {
+                returnResult.put(entry.getKey(), value);
             }
-
-            returnResult.put(entry.getKey(), value);
         }
 
+        if (!empty.isEmpty()) {
+            returnResult.putAll(readAllEmpty(runtimeLayout, empty));
+        }
         return returnResult;
     }
 
+    /**
+     * Group addresses by the chain of log units which stores them.
+     */
+    private Map<List<String>, List<Long>> groupByChain(RuntimeLayout runtimeLayout,
+                                                       List<Long> globalAddresses) {
+        Map<List<String>, List<Long>> chains = new LinkedHashMap<>();
+        for (long globalAddress : globalAddresses) {
+            chains.computeIfAbsent(runtimeLayout.getLayout().getStripe(globalAddress)
+                    .getLogServers(), chain -> new ArrayList<>()).add(globalAddress);
+        }
+        return chains;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>In chain replication, the addresses stored by a chain are read together
+     * from its last unit.
+     */
+    @Override
+    protected Map<Long, ILogData> peekAll(RuntimeLayout runtimeLayout,
+                                          List<Long> globalAddresses) {
+        Map<Long, ILogData> result = new HashMap<>();
+        groupByChain(runtimeLayout, globalAddresses).forEach((chain, addresses) -> {
+            long startAddress = addresses.get(0);
+            int numUnits = chain.size();
+            log.trace("PeekAll[{}]: chain {}/{}", addresses, numUnits, numUnits);
+            Map<Long, LogData> logResult = CFUtils.getUninterruptibly(runtimeLayout
+                    .getLogUnitClient(startAddress, numUnits - 1)
+                    .read(addresses)).getAddresses();
+            logResult.forEach((address, data) -> {
+                if (data != null && !data.isEmpty()) {
+                    result.put(address, data);
+                }
+            });
+        });
+        return result;
+    }
+
     /**
      * Propagate a write down the chain, ignoring
      * any overwrite errors. It is expected that the
@@ -246,4 +300,40 @@ public class ChainReplicationProtocol extends AbstractReplicationProtocol {
             recover(runtimeLayout, globalAddress);
         }
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>In chain replication, the addresses stored by a chain are hole filled
+     * together on each of its units. Only the holes that were filled at the head are
+     * propagated, the other addresses hold the value of another writer, which has to
+     * be adopted.
+     */
+    @Override
+    protected void holeFill(RuntimeLayout runtimeLayout, List<Long> globalAddresses) {
+        groupByChain(runtimeLayout, globalAddresses).forEach((chain, addresses) -> {
+            long startAddress = addresses.get(0);
+            int numUnits = chain.size();
+            log.trace("fillHoles[{}]: chain head {}/{}", addresses, 1, numUnits);
+            Set<Long> written = new HashSet<>(CFUtils.getUninterruptibly(runtimeLayout
+                    .getLogUnitClient(startAddress, 0)
+                    .fillHoles(addresses)));
+            List<Long> filled = addresses.stream()
+                    .filter(a -> !written.contains(a))
+                    .collect(Collectors.toList());
+
+            for (int i = 1; i < numUnits && !filled.isEmpty(); i++) {
+                log.trace("Propogate[{}]: chain {}/{}", filled, i + 1, numUnits);
+                // The holes which were already filled down the chain were completed
+                // by another writer
+                CFUtils.getUninterruptibly(runtimeLayout
+                        .getLogUnitClient(startAddress, i)
+                        .fillHoles(filled));
+            }
+
+            for (long globalAddress : written) {
+                recover(runtimeLayout, globalAddress);
+            }
+        });
+    }
 }
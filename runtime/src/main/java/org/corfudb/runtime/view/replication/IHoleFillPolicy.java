@@ -1,5 +1,9 @@
 package org.corfudb.runtime.view.replication;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 import javax.annotation.Nonnull;
 
@@ -27,4 +31,35 @@ public interface IHoleFillPolicy {
     ILogData peekUntilHoleFillRequired(long address,
                                        Function<Long, ILogData> peekFunction)
             throws HoleFillRequiredException;
+
+    /** Apply the given bulk peek function to a set of addresses, until hole filling
+     * is required or committed data is returned for each of them. Unlike
+     * {@link #peekUntilHoleFillRequired(long, Function)}, the addresses which require
+     * hole filling are not signaled by an exception, but left out of the result, so
+     * that they can be hole filled together.
+     *
+     * <p>The default implementation applies the policy to each address in turn.
+     *
+     * @param addresses                 The addresses to apply the function.
+     *
+     * @param peekFunction              The function to use to peek data from the
+     *                                  log, which returns the committed data it
+     *                                  found, by address.
+     *
+     * @return                          The committed data, by address.
+     */
+    @Nonnull
+    default Map<Long, ILogData> peekAllUntilHoleFillRequired(
+            List<Long> addresses, Function<List<Long>, Map<Long, ILogData>> peekFunction) {
+        Map<Long, ILogData> result = new HashMap<>();
+        for (long address : addresses) {
+            try {
+                result.put(address, peekUntilHoleFillRequired(address, a ->
+                        peekFunction.apply(Collections.singletonList(a)).get(a)));
+            } catch (HoleFillRequiredException e) {
+                // Left out of the result
+            }
+        }
+        return result;
+    }
 }
@@ -75,11 +75,32 @@ public interface IReplicationProtocol {
                 .collect(Collectors.toMap(r -> r.getKey(), r -> r.getValue()));
     }
 
+    /** Read data from all the given addresses, like {@link #readAll(RuntimeLayout, List)}.
+     *
+     * <p>A read which is not cacheable is part of a bulk read, and an implementation
+     * should ask the log units not to cache the entries they load for it.
+     *
+     * @param runtimeLayout         The RuntimeLayout stamped with layout to use for the readAll.
+     * @param globalAddresses       A list of addresses to read from.
+     * @param cacheable             Whether the log units may cache the entries.
+     * @return                      A map of addresses to committed
+     *                              addresses, hole filling if necessary.
+     */
+    default @Nonnull
+            Map<Long, ILogData> readAll(RuntimeLayout runtimeLayout, List<Long> globalAddresses,
+                                        boolean cacheable) {
+        return readAll(runtimeLayout, globalAddresses);
+    }
+
     /** Read data from a range.
      *
      * <p>This method functions exactly like a readAll, except
      * that it returns the result for a range of addresses.
      *
+     * <p>Ranges are read by bulk sequential reads, such as state transfer
+     * and the fast object loader, so an implementation should ask the log
+     * units not to cache the entries they load for it.
+     *
      * <p>An implementation may optimize for this type of
      * bulk request, but the default implementation
      * just performs multiple reads (possible in parallel).
@@ -1,6 +1,10 @@
 package org.corfudb.runtime.view.replication;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import lombok.extern.slf4j.Slf4j;
 import org.corfudb.protocols.wireprotocol.ILogData;
@@ -48,4 +52,28 @@ public class NeverHoleFillPolicy implements IHoleFillPolicy {
         } while (data == null);
         return data;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Nonnull
+    @Override
+    public Map<Long, ILogData> peekAllUntilHoleFillRequired(
+            List<Long> addresses, Function<List<Long>, Map<Long, ILogData>> peekFunction) {
+        Map<Long, ILogData> result = new HashMap<>();
+        List<Long> remaining = addresses;
+        int tryNum = 0;
+        do {
+            if (tryNum != 0) {
+                log.trace("PeekAll[{}] Retrying read {}", remaining, tryNum);
+                Sleep.MILLISECONDS.sleepUninterruptibly(waitMs);
+            }
+            result.putAll(peekFunction.apply(remaining));
+            remaining = remaining.stream()
+                    .filter(a -> !result.containsKey(a))
+                    .collect(Collectors.toList());
+            tryNum++;
+        } while (!remaining.isEmpty());
+        return result;
+    }
 }
@@ -1,6 +1,10 @@
 package org.corfudb.runtime.view.replication;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 
 import org.corfudb.protocols.wireprotocol.ILogData;
@@ -58,4 +62,30 @@ public class ReadWaitHoleFillPolicy implements IHoleFillPolicy {
 
         throw new HoleFillRequiredException("No data after " + tryNum + " retries");
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The addresses without data are read again together, so that a batch of holes
+     * waits as long as a single hole before requiring a hole fill.
+     */
+    @Nonnull
+    @Override
+    public Map<Long, ILogData> peekAllUntilHoleFillRequired(
+            List<Long> addresses, Function<List<Long>, Map<Long, ILogData>> peekFunction) {
+        Map<Long, ILogData> result = new HashMap<>();
+        List<Long> remaining = addresses;
+        int tryNum = 0;
+        do {
+            if (tryNum != 0) {
+                Sleep.MILLISECONDS.sleepUninterruptibly(waitMs);
+            }
+            result.putAll(peekFunction.apply(remaining));
+            remaining = remaining.stream()
+                    .filter(a -> !result.containsKey(a))
+                    .collect(Collectors.toList());
+            tryNum++;
+        } while (!remaining.isEmpty() && numRetries > tryNum);
+        return result;
+    }
 }
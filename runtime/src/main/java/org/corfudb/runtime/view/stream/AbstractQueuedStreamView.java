@@ -160,8 +160,9 @@ public abstract class AbstractQueuedStreamView extends
         List<Long> toRead = readSet.stream()
                 .collect(Collectors.toList());
 
-        // The list to store read results in
-        List<ILogData> readFrom = readAll(toRead).stream()
+        // The list to store read results in. While there are checkpoint entries to
+        // replay, the read is a bulk read which shouldn't be cached.
+        List<ILogData> readFrom = readAll(toRead, context.readCpQueue.isEmpty()).stream()
                 .filter(x -> x.getType() == DataType.DATA)
                 .filter(x -> x.containsStream(context.id))
                 .collect(Collectors.toList());
@@ -208,10 +209,12 @@ public abstract class AbstractQueuedStreamView extends
      * Given a list of addresses, retrieve the data as a list in the same
      * order of the addresses given in the list.
      * @param addresses     The addresses to read.
+     * @param cacheable     Whether the entries which are fetched may be cached.
      * @return              A list of ILogData in the same order as the
      *                      addresses given.
      */
-    protected @Nonnull List<ILogData> readAll(@Nonnull final List<Long> addresses) {
+    protected @Nonnull List<ILogData> readAll(@Nonnull final List<Long> addresses,
+                                              boolean cacheable) {
         return addresses.parallelStream()
                         .map(this::read)
                         .collect(Collectors.toList());
@@ -160,10 +160,10 @@ public class BackpointerStreamView extends AbstractQueuedStreamView {
 
     @Nonnull
     @Override
-    protected List<ILogData> readAll(@Nonnull List<Long> addresses) {
+    protected List<ILogData> readAll(@Nonnull List<Long> addresses, boolean cacheable) {
         try {
             Map<Long, ILogData> dataMap =
-                    runtime.getAddressSpaceView().read(addresses);
+                    runtime.getAddressSpaceView().read(addresses, cacheable);
             return addresses.stream()
                     .map(x -> dataMap.get(x))
                     .collect(Collectors.toList());
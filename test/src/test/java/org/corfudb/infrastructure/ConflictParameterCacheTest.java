@@ -0,0 +1,107 @@
+package org.corfudb.infrastructure;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.corfudb.AbstractCorfuTest;
+import org.junit.Test;
+
+/**
+ * Tests the lookups, evictions and trims of the sequencer conflict parameter cache.
+ */
+public class ConflictParameterCacheTest extends AbstractCorfuTest {
+
+    private final UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+
+    private final UUID streamB = UUID.nameUUIDFromBytes("streamB".getBytes());
+
+    private static byte[] param(int i) {
+        return ("param" + i).getBytes();
+    }
+
+    @Test
+    public void putAndGet() {
+        ConflictParameterCache cache = new ConflictParameterCache(PARAMETERS.NUM_ITERATIONS_LOW,
+                v -> { });
+        final long timestampB = 3L;
+        cache.put(streamA, param(0), 1L);
+        cache.put(streamA, param(0), 2L);
+        cache.put(streamB, param(1), timestampB);
+
+        assertThat(cache.get(streamA, param(0))).isEqualTo(2L);
+        assertThat(cache.get(streamB, param(1))).isEqualTo(timestampB);
+        // The same parameter on another stream is a distinct entry
+        assertThat(cache.get(streamB, param(0))).isEqualTo(ConflictParameterCache.ABSENT);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void evictionsAreBoundedAndReported() {
+        final int maxSize = PARAMETERS.NUM_ITERATIONS_LOW;
+        List<Long> evicted = new ArrayList<>();
+        ConflictParameterCache cache = new ConflictParameterCache(maxSize, evicted::add);
+
+        for (int i = 0; i < maxSize * 2; i++) {
+            cache.put(streamA, param(i), i);
+            assertThat(cache.size()).isLessThanOrEqualTo(maxSize);
+        }
+
+        assertThat(cache.size()).isEqualTo(maxSize);
+        // The oldest entries are evicted first
+        assertThat(evicted).hasSize(maxSize);
+        for (int i = 0; i < maxSize; i++) {
+            assertThat(evicted.get(i)).isEqualTo(i);
+            assertThat(cache.get(streamA, param(i))).isEqualTo(ConflictParameterCache.ABSENT);
+            assertThat(cache.get(streamA, param(maxSize + i))).isEqualTo(maxSize + i);
+        }
+    }
+
+    @Test
+    public void updatedEntriesAreEvictedLast() {
+        final int maxSize = PARAMETERS.NUM_ITERATIONS_LOW;
+        List<Long> evicted = new ArrayList<>();
+        ConflictParameterCache cache = new ConflictParameterCache(maxSize, evicted::add);
+
+        long timestamp = 0;
+        for (int i = 0; i < maxSize; i++) {
+            cache.put(streamA, param(i), timestamp++);
+        }
+        // Updating the oldest parameter makes it the newest
+        final long updateTimestamp = timestamp++;
+        cache.put(streamA, param(0), updateTimestamp);
+        cache.put(streamB, param(0), timestamp);
+
+        assertThat(evicted).containsExactly(1L);
+        assertThat(cache.get(streamA, param(0))).isEqualTo(updateTimestamp);
+    }
+
+    @Test
+    public void invalidateOlderThan() {
+        final int numEntries = PARAMETERS.NUM_ITERATIONS_LOW;
+        final long trimMark = numEntries / 2;
+        ConflictParameterCache cache = new ConflictParameterCache(numEntries, v -> { });
+        for (int i = 0; i < numEntries; i++) {
+            cache.put(streamA, param(i), i);
+        }
+
+        // Trim in chunks, as the sequencer does
+        final int chunkSize = 3;
+        long removed = 0;
+        int chunk;
+        do {
+            chunk = cache.invalidateOlderThan(trimMark, chunkSize);
+            assertThat(chunk).isLessThanOrEqualTo(chunkSize);
+            removed += chunk;
+        } while (chunk == chunkSize);
+
+        assertThat(removed).isEqualTo(trimMark);
+        assertThat(cache.size()).isEqualTo((int) (numEntries - trimMark));
+        for (int i = 0; i < numEntries; i++) {
+            assertThat(cache.get(streamA, param(i)))
+                    .isEqualTo(i < trimMark ? ConflictParameterCache.ABSENT : i);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.corfudb.infrastructure;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.UUID;
+
+import org.corfudb.AbstractCorfuTest;
+import org.junit.Test;
+
+/**
+ * Tests the journal, snapshots and import of the journaled data store.
+ */
+public class JournaledDataStoreTest extends AbstractCorfuTest {
+
+    private final String serviceDir = PARAMETERS.TEST_TEMP_DIR;
+
+    private final File journal = new File(serviceDir, JournaledDataStore.JOURNAL_FILE);
+
+    private final File snapshot = new File(serviceDir, JournaledDataStore.SNAPSHOT_FILE);
+
+    @Test
+    public void testPutGetDeleteWithRestart() {
+        JournaledDataStore dataStore = new JournaledDataStore(serviceDir);
+        String value = UUID.randomUUID().toString();
+        dataStore.put(String.class, "test", "key", value);
+        dataStore.put(String.class, "test", "other", "OTHER_VALUE");
+        dataStore.put(Long.class, "epoch", "key", 1L);
+        assertThat(dataStore.get(String.class, "test", "key")).isEqualTo(value);
+        dataStore.delete(String.class, "test", "other");
+        assertThat(dataStore.get(String.class, "test", "other")).isNull();
+        dataStore.close();
+
+        // Simulate a restart of the data store, the journal is replayed
+        dataStore = new JournaledDataStore(serviceDir);
+        assertThat(dataStore.get(String.class, "test", "key")).isEqualTo(value);
+        assertThat(dataStore.get(String.class, "test", "other")).isNull();
+        assertThat(dataStore.getAll(String.class, "test")).containsExactly(value);
+        assertThat(dataStore.get(Long.class, "epoch", "key")).isEqualTo(1L);
+        assertThat(snapshot).doesNotExist();
+        dataStore.close();
+    }
+
+    @Test
+    public void testSnapshot() {
+        final long snapshotThreshold = 1024;
+        final long epochs = 100;
+        JournaledDataStore dataStore = new JournaledDataStore(serviceDir, snapshotThreshold);
+        dataStore.put(String.class, "test", "key", "VALUE");
+        dataStore.put(String.class, "test", "deleted", "VALUE");
+        dataStore.delete(String.class, "test", "deleted");
+        for (long epoch = 0; epoch < epochs; epoch++) {
+            dataStore.put(Long.class, "epoch", "key", epoch);
+        }
+        dataStore.close();
+
+        // The journal is truncated once the values are snapshotted
+        assertThat(snapshot).exists();
+        assertThat(journal.length()).isLessThan(snapshotThreshold);
+
+        dataStore = new JournaledDataStore(serviceDir, snapshotThreshold);
+        assertThat(dataStore.get(String.class, "test", "key")).isEqualTo("VALUE");
+        assertThat(dataStore.get(String.class, "test", "deleted")).isNull();
+        assertThat(dataStore.get(Long.class, "epoch", "key")).isEqualTo(epochs - 1);
+        dataStore.close();
+    }
+
+    @Test
+    public void testTornJournalRecord() throws IOException {
+        JournaledDataStore dataStore = new JournaledDataStore(serviceDir);
+        dataStore.put(String.class, "test", "key", "VALUE");
+        final long length = journal.length();
+        dataStore.put(String.class, "test", "key", "NEW_VALUE");
+        dataStore.close();
+
+        // Simulate a crash in the middle of the last append
+        try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        dataStore = new JournaledDataStore(serviceDir);
+        assertThat(dataStore.get(String.class, "test", "key")).isEqualTo("VALUE");
+        assertThat(journal.length()).isEqualTo(length);
+        dataStore.put(String.class, "test", "key", "NEW_VALUE");
+        dataStore.close();
+
+        dataStore = new JournaledDataStore(serviceDir);
+        assertThat(dataStore.get(String.class, "test", "key")).isEqualTo("NEW_VALUE");
+        dataStore.close();
+    }
+
+    @Test
+    public void testImportDataStoreFiles() {
+        DataStore fileStore = new DataStore(new ImmutableMap.Builder<String, Object>()
+                .put("--log-path", serviceDir)
+                .build());
+        String value = UUID.randomUUID().toString();
+        fileStore.put(String.class, "test", "key", value);
+        fileStore.put(Long.class, "epoch", "key", 1L);
+
+        // The values are imported into a snapshot on the first start
+        JournaledDataStore dataStore = new JournaledDataStore(serviceDir);
+        assertThat(dataStore.get(String.class, "test", "key")).isEqualTo(value);
+        assertThat(dataStore.get(Long.class, "epoch", "key")).isEqualTo(1L);
+        assertThat(snapshot).exists();
+        // The imported files are renamed, rather than left to go stale
+        assertThat(new File(serviceDir).list((dir, name) -> name.endsWith(DataStore.EXTENSION)))
+                .isEmpty();
+        assertThat(new File(serviceDir).list((dir, name) ->
+                name.endsWith(DataStore.EXTENSION + JournaledDataStore.IMPORTED_SUFFIX)))
+                .hasSize(2);
+        dataStore.put(Long.class, "epoch", "key", 2L);
+        dataStore.close();
+
+        // Only once
+        dataStore = new JournaledDataStore(serviceDir);
+        assertThat(dataStore.get(Long.class, "epoch", "key")).isEqualTo(2L);
+        dataStore.close();
+
+        // Falling back to the files data store would roll back the epoch
+        assertThatThrownBy(() -> new DataStore(new ImmutableMap.Builder<String, Object>()
+                .put("--log-path", serviceDir)
+                .build()))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -1,5 +1,6 @@
 package org.corfudb.infrastructure;
 
+import com.google.common.collect.Range;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import org.assertj.core.api.Assertions;
@@ -13,10 +14,12 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Random;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -278,6 +281,94 @@ public class LogUnitServerTest extends AbstractServerTest {
         assertThat(entry.getGlobalAddress()).isEqualTo(globalAddress);
     }
 
+    @Test
+    public void checkOffHeapCache() {
+        String serviceDir = PARAMETERS.TEST_TEMP_DIR;
+        final String cacheBudget = "1048576";
+
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setLogPath(serviceDir)
+                .setMemory(false)
+                .setCacheOffHeap(cacheBudget)
+                .build());
+
+        this.router.reset();
+        this.router.addServer(s1);
+
+        final int numEntries = PARAMETERS.NUM_ITERATIONS_VERY_LOW;
+        final String payload = "payload";
+        for (int i = 0; i < numEntries; i++) {
+            rawWrite(i, payload + i, "a");
+        }
+
+        // Entries are kept in their serialized form, and loaded back after a flush
+        for (int i = 0; i < numEntries; i++) {
+            assertThat(s1).matchesDataAtAddress(i, (payload + i).getBytes());
+        }
+        s1.getDataCache().invalidateAll();
+
+        final long address = numEntries - 1;
+        sendMessage(CorfuMsgType.READ_REQUEST.payloadMsg(new ReadRequest(address)));
+        ReadResponse rr = getLastPayloadMessageAs(ReadResponse.class);
+
+        // The serialized form is sent as is
+        ByteBuf buf = Unpooled.buffer();
+        rr.doSerialize(buf);
+        LogData entry = new ReadResponse(buf).getAddresses().get(address);
+        assertThat(entry.getGlobalAddress()).isEqualTo(address);
+        assertThat(entry.getPayload(null)).isEqualTo((payload + address).getBytes());
+        s1.shutdown();
+    }
+
+    @Test
+    public void checkScanReadsAreNotCached() {
+        String serviceDir = PARAMETERS.TEST_TEMP_DIR;
+
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setLogPath(serviceDir)
+                .setMemory(false)
+                .build());
+
+        this.router.reset();
+        this.router.addServer(s1);
+
+        final int numEntries = PARAMETERS.NUM_ITERATIONS_VERY_LOW;
+        final String payload = "payload";
+        for (int i = 0; i < numEntries; i++) {
+            rawWrite(i, payload + i, "a");
+        }
+        s1.getDataCache().invalidateAll();
+
+        // A regular read admits the entry into the cache
+        final long cachedAddress = 0L;
+        sendMessage(CorfuMsgType.READ_REQUEST.payloadMsg(new ReadRequest(cachedAddress)));
+        assertThat(s1.getDataCache().asMap()).containsOnlyKeys(cachedAddress);
+
+        // Bulk reads are served, but their misses are not cached
+        final long lastAddress = numEntries - 1;
+        List<Long> addresses = new ArrayList<>();
+        for (long address = 0; address <= lastAddress; address++) {
+            addresses.add(address);
+        }
+        sendMessage(CorfuMsgType.MULTIPLE_READ_REQUEST.payloadMsg(
+                new MultipleReadRequest(addresses, false)));
+        ReadResponse rr = getLastPayloadMessageAs(ReadResponse.class);
+        assertThat(rr.getAddresses()).containsOnlyKeys(addresses.toArray(new Long[0]));
+        assertThat(rr.getAddresses().get(lastAddress).getPayload(null))
+                .isEqualTo((payload + lastAddress).getBytes());
+
+        sendMessage(CorfuMsgType.READ_REQUEST.payloadMsg(
+                new ReadRequest(Range.closed(0L, lastAddress), false)));
+        rr = getLastPayloadMessageAs(ReadResponse.class);
+        assertThat(rr.getAddresses()).hasSize(numEntries);
+        assertThat(rr.getAddresses().get(lastAddress).getPayload(null))
+                .isEqualTo((payload + lastAddress).getBytes());
+
+        s1.getDataCache().cleanUp();
+        assertThat(s1.getDataCache().asMap()).containsOnlyKeys(cachedAddress);
+        s1.shutdown();
+    }
+
     private String createLogFile(String path, int version, boolean noVerify) throws IOException {
         // Generate a log file and manually change the version
         File logDir = new File(path + File.separator + "log");
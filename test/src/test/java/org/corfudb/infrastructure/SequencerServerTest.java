@@ -1,13 +1,26 @@
 package org.corfudb.infrastructure;
 
+import io.netty.channel.ChannelHandlerContext;
 import org.corfudb.protocols.wireprotocol.*;
+import org.corfudb.runtime.view.Address;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -28,6 +41,19 @@ public class SequencerServerTest extends AbstractServerTest {
         return server;
     }
 
+    @Override
+    public void setServer(AbstractServer server) {
+        super.setServer(server);
+        this.server = (SequencerServer) server;
+    }
+
+    @Override
+    public void sendMessage(UUID clientId, CorfuMsg message) {
+        super.sendMessage(clientId, message);
+        // Only the queries are answered by the handler, the other requests by the writer
+        server.awaitQueuedRequests();
+    }
+
     @Before
     public void bootstrapSequencer() {
         server.setReadyStateEpoch(0L);
@@ -165,6 +191,40 @@ public class SequencerServerTest extends AbstractServerTest {
         }
     }
 
+    @Test
+    public void batchedRequestsAreServedInOrder() {
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+
+        List<TokenRequest> requests = new ArrayList<>();
+        requests.add(new TokenRequest(1L, Collections.singleton(streamA)));
+        requests.add(new TokenRequest(1L, Collections.singleton(streamA)));
+        requests.add(new TokenRequest(1L, Collections.singleton(streamA),
+                new TxResolutionInfo(UUID.randomUUID(), 0L,
+                        Collections.singletonMap(streamA, Collections.emptySet()),
+                        Collections.emptyMap())));
+        requests.add(new TokenRequest(0L, Collections.singleton(streamA)));
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_BATCH_REQ,
+                new TokenBatchRequest(requests)));
+
+        List<TokenResponse> responses = getLastPayloadMessageAs(TokenBatchResponse.class)
+                .getResponses();
+        assertThat(responses).hasSize(requests.size());
+
+        long firstToken = responses.get(0).getTokenValue();
+        assertThat(responses.get(0).getBackpointerMap().get(streamA))
+                .isEqualTo(Address.NON_EXIST);
+        assertThat(responses.get(1).getBackpointerMap().get(streamA))
+                .isEqualTo(firstToken);
+
+        // The transaction read streamA at the first token, and is aborted by the second
+        assertThat(responses.get(2).getRespType())
+                .isEqualTo(TokenType.TX_ABORT_CONFLICT);
+        // The query is served after the allocations that precede it in the batch
+        final int query = requests.size() - 1;
+        assertThat(responses.get(query).getTokenValue())
+                .isEqualTo(responses.get(1).getTokenValue());
+    }
+
     @Test
     public void SequencerWillResetTails() throws Exception {
         UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
@@ -219,4 +279,317 @@ public class SequencerServerTest extends AbstractServerTest {
                 new TokenRequest(0L, Collections.singleton(streamC))));
         assertThat(getLastPayloadMessageAs(TokenResponse.class).getToken().getTokenValue()).isEqualTo(newTailC);
     }
+
+    private TokenRequest txRequest(UUID streamId, long snapshotTimestamp, String conflictParam) {
+        Map<UUID, Set<byte[]>> conflictParams = Collections.singletonMap(streamId,
+                Collections.singleton(conflictParam.getBytes()));
+        return new TokenRequest(1L, Collections.singleton(streamId),
+                new TxResolutionInfo(UUID.randomUUID(), snapshotTimestamp, conflictParams,
+                        conflictParams));
+    }
+
+    @Test
+    public void restartedSequencerResumesFromSnapshot() {
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        UUID streamB = UUID.nameUUIDFromBytes("streamB".getBytes());
+        ServerContextBuilder contextBuilder = new ServerContextBuilder()
+                .setMemory(false)
+                .setLogPath(PARAMETERS.TEST_TEMP_DIR)
+                .setSequencerSnapshotInterval("3600");
+
+        ServerContext serverContext = contextBuilder.build();
+        SequencerServer sequencer = new SequencerServer(serverContext);
+        setServer(sequencer);
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.BOOTSTRAP_SEQUENCER,
+                new SequencerTailsRecoveryMsg(1L, Collections.emptyMap(), 0L)));
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                txRequest(streamA, 0L, "key")));
+        final long keyTimestamp = getLastPayloadMessageAs(TokenResponse.class).getTokenValue();
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                txRequest(streamB, 0L, "key")));
+        sequencer.shutdown();
+        serverContext.close();
+
+        // The log recovers a write on streamB which the snapshot doesn't know
+        final long streamBTail = keyTimestamp + 2;
+        Map<UUID, Long> tails = new HashMap<>();
+        tails.put(streamA, keyTimestamp);
+        tails.put(streamB, streamBTail);
+
+        serverContext = contextBuilder.build();
+        sequencer = new SequencerServer(serverContext);
+        setServer(sequencer);
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.BOOTSTRAP_SEQUENCER,
+                new SequencerTailsRecoveryMsg(streamBTail + 1, tails, 1L)));
+        assertThat(getLastMessage().getMsgType()).isEqualTo(CorfuMsgType.ACK);
+        sequencer.setReadyStateEpoch(0L);
+
+        // The restored conflict parameters abort the conflicting transactions only
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                txRequest(streamA, keyTimestamp - 1, "key")));
+        assertThat(getLastPayloadMessageAs(TokenResponse.class).getRespType())
+                .isEqualTo(TokenType.TX_ABORT_CONFLICT);
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                txRequest(streamA, keyTimestamp, "other")));
+        assertThat(getLastPayloadMessageAs(TokenResponse.class).getRespType())
+                .isEqualTo(TokenType.NORMAL);
+
+        // The conflict parameters of the unknown write on streamB abort conservatively
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                txRequest(streamB, streamBTail - 1, "other")));
+        assertThat(getLastPayloadMessageAs(TokenResponse.class).getRespType())
+                .isEqualTo(TokenType.TX_ABORT_SEQ_OVERFLOW);
+        sequencer.shutdown();
+        serverContext.close();
+    }
+
+    @Test
+    public void unknownConflictStreamsSurviveConsecutiveRestarts() {
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        UUID streamB = UUID.nameUUIDFromBytes("streamB".getBytes());
+        ServerContextBuilder contextBuilder = new ServerContextBuilder()
+                .setMemory(false)
+                .setLogPath(PARAMETERS.TEST_TEMP_DIR)
+                .setSequencerSnapshotInterval("3600");
+
+        ServerContext serverContext = contextBuilder.build();
+        SequencerServer sequencer = new SequencerServer(serverContext);
+        setServer(sequencer);
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.BOOTSTRAP_SEQUENCER,
+                new SequencerTailsRecoveryMsg(1L, Collections.emptyMap(), 0L)));
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                txRequest(streamA, 0L, "key")));
+        final long streamATail = getLastPayloadMessageAs(TokenResponse.class).getTokenValue();
+        sequencer.shutdown();
+        serverContext.close();
+
+        // The first restart recovers a write on streamB which the snapshot doesn't know
+        final long streamBTail = streamATail + 2;
+        Map<UUID, Long> tails = new HashMap<>();
+        tails.put(streamA, streamATail);
+        tails.put(streamB, streamBTail);
+        serverContext = contextBuilder.build();
+        sequencer = new SequencerServer(serverContext);
+        setServer(sequencer);
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.BOOTSTRAP_SEQUENCER,
+                new SequencerTailsRecoveryMsg(streamBTail + 1, tails, 1L)));
+        sequencer.setReadyStateEpoch(0L);
+
+        // The next snapshot is taken past the unknown write on streamB
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                txRequest(streamA, streamBTail, "other")));
+        final long newStreamATail = getLastPayloadMessageAs(TokenResponse.class).getTokenValue();
+        assertThat(newStreamATail).isGreaterThan(streamBTail);
+        sequencer.shutdown();
+        serverContext.close();
+
+        // The second restart still doesn't know the conflict parameters of that write
+        tails.put(streamA, newStreamATail);
+        serverContext = contextBuilder.build();
+        sequencer = new SequencerServer(serverContext);
+        setServer(sequencer);
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.BOOTSTRAP_SEQUENCER,
+                new SequencerTailsRecoveryMsg(newStreamATail + 1, tails, 2L)));
+        assertThat(getLastMessage().getMsgType()).isEqualTo(CorfuMsgType.ACK);
+        sequencer.setReadyStateEpoch(0L);
+
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                txRequest(streamB, streamBTail - 1, "key")));
+        assertThat(getLastPayloadMessageAs(TokenResponse.class).getRespType())
+                .isEqualTo(TokenType.TX_ABORT_SEQ_OVERFLOW);
+        // The restored conflict parameters are still known
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                txRequest(streamA, streamATail, "key")));
+        assertThat(getLastPayloadMessageAs(TokenResponse.class).getRespType())
+                .isEqualTo(TokenType.NORMAL);
+        sequencer.shutdown();
+        serverContext.close();
+    }
+
+    /**
+     * Issues concurrent allocations and queries, and checks that the tokens are unique,
+     * that the backpointers of every stream form a chain, and that the queries never
+     * observe a stream tail which is not part of the global tail.
+     */
+    @Test
+    public void concurrentTokensAreLinearizable() throws Exception {
+        final int numStreams = 4;
+        final int numAllocators = PARAMETERS.CONCURRENCY_SOME;
+        final int numQueriers = PARAMETERS.CONCURRENCY_SOME;
+        final int numRequests = PARAMETERS.NUM_ITERATIONS_MODERATE;
+        final CyclicBarrier start = new CyclicBarrier(numAllocators + numQueriers);
+        final List<UUID> streams = new ArrayList<>();
+        for (int i = 0; i < numStreams; i++) {
+            streams.add(UUID.nameUUIDFromBytes(("stream" + i).getBytes()));
+        }
+
+        // The test router isn't thread safe, the responses are collected by request
+        Map<Long, TokenResponse> responses = new ConcurrentHashMap<>();
+        Map<Long, UUID> requestStreams = new ConcurrentHashMap<>();
+        AtomicLong requestIds = new AtomicLong();
+        TestServerRouter concurrentRouter = new TestServerRouter() {
+            @Override
+            public void sendResponse(ChannelHandlerContext ctx, CorfuMsg inMsg, CorfuMsg outMsg) {
+                responses.put(inMsg.getRequestID(),
+                        ((CorfuPayloadMsg<TokenResponse>) outMsg).getPayload());
+            }
+        };
+
+        scheduleConcurrently(numAllocators, t -> {
+            Random random = new Random(t);
+            start.await();
+            for (int i = 0; i < numRequests; i++) {
+                UUID stream = streams.get(random.nextInt(numStreams));
+                CorfuPayloadMsg<TokenRequest> msg = new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                        new TokenRequest(1L, Collections.singleton(stream)));
+                msg.setRequestID(requestIds.getAndIncrement());
+                requestStreams.put(msg.getRequestID(), stream);
+                server.tokenRequest(msg, null, concurrentRouter);
+            }
+        });
+
+        scheduleConcurrently(numQueriers, t -> {
+            UUID stream = streams.get(t % numStreams);
+            long lastStreamTail = Address.NON_EXIST;
+            long lastGlobalTail = Address.NON_EXIST;
+            start.await();
+            for (int i = 0; i < numRequests; i++) {
+                long streamTail = query(concurrentRouter, responses, requestIds,
+                        Collections.singleton(stream));
+                long globalTail = query(concurrentRouter, responses, requestIds,
+                        Collections.emptySet());
+                assertThat(streamTail).isGreaterThanOrEqualTo(lastStreamTail);
+                assertThat(globalTail).isGreaterThanOrEqualTo(lastGlobalTail)
+                        .isGreaterThanOrEqualTo(streamTail);
+                lastStreamTail = streamTail;
+                lastGlobalTail = globalTail;
+            }
+        });
+
+        long startTime = System.currentTimeMillis();
+        executeScheduled(numAllocators + numQueriers, PARAMETERS.TIMEOUT_LONG);
+        server.awaitQueuedRequests();
+        calculateRequestsPerSecond("TPS", (numAllocators + numQueriers * 2) * numRequests,
+                startTime);
+
+        // Every token is issued once, and each stream's backpointers chain its tokens
+        final int numTokens = numAllocators * numRequests;
+        Map<UUID, TreeMap<Long, Long>> streamTokens = new HashMap<>();
+        requestStreams.forEach((requestId, stream) -> {
+            TokenResponse response = responses.get(requestId);
+            streamTokens.computeIfAbsent(stream, s -> new TreeMap<>())
+                    .put(response.getToken().getTokenValue(),
+                            response.getBackpointerMap().get(stream));
+        });
+        assertThat(streamTokens.values().stream().mapToInt(Map::size).sum())
+                .isEqualTo(numTokens);
+        for (TreeMap<Long, Long> tokens : streamTokens.values()) {
+            long previous = Address.NON_EXIST;
+            for (Map.Entry<Long, Long> token : tokens.entrySet()) {
+                assertThat(token.getKey()).isBetween(0L, numTokens - 1L);
+                assertThat(token.getValue()).isEqualTo(previous);
+                previous = token.getKey();
+            }
+        }
+    }
+
+    /**
+     * Pauses the writer between the update of the stream tail of an allocation and the
+     * publication of its global tail, and checks that a query of the stream doesn't return
+     * the unpublished tail, which would be ahead of the global tail.
+     */
+    @Test
+    public void queriesDontObserveUnpublishedAllocations() throws Exception {
+        final UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        final long queryWait = 100;
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(1L, Collections.singleton(streamA))));
+        final long firstToken = getLastPayloadMessageAs(TokenResponse.class).getTokenValue();
+
+        Map<Long, TokenResponse> responses = new ConcurrentHashMap<>();
+        AtomicLong requestIds = new AtomicLong();
+        TestServerRouter concurrentRouter = new TestServerRouter() {
+            @Override
+            public void sendResponse(ChannelHandlerContext ctx, CorfuMsg inMsg, CorfuMsg outMsg) {
+                responses.put(inMsg.getRequestID(),
+                        ((CorfuPayloadMsg<TokenResponse>) outMsg).getPayload());
+            }
+        };
+
+        CountDownLatch paused = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        server.setBeforeTailPublished(() -> {
+            paused.countDown();
+            try {
+                resume.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        CorfuPayloadMsg<TokenRequest> allocation = new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(1L, Collections.singleton(streamA)));
+        allocation.setRequestID(requestIds.getAndIncrement());
+        server.tokenRequest(allocation, null, concurrentRouter);
+        assertThat(paused.await(PARAMETERS.TIMEOUT_NORMAL.toMillis(), TimeUnit.MILLISECONDS))
+                .isTrue();
+
+        // The global tail is not published yet, the stream tail already is
+        assertThat(query(concurrentRouter, responses, requestIds, Collections.emptySet()))
+                .isEqualTo(firstToken);
+        CompletableFuture<Long> streamQuery = CompletableFuture.supplyAsync(() ->
+                query(concurrentRouter, responses, requestIds, Collections.singleton(streamA)));
+        Thread.sleep(queryWait);
+        if (streamQuery.isDone()) {
+            assertThat(streamQuery.get()).isEqualTo(firstToken);
+        }
+
+        resume.countDown();
+        final long secondToken = firstToken + 1;
+        assertThat(streamQuery.get(PARAMETERS.TIMEOUT_NORMAL.toMillis(), TimeUnit.MILLISECONDS))
+                .isBetween(firstToken, secondToken);
+        server.awaitQueuedRequests();
+        assertThat(responses.get(allocation.getRequestID()).getTokenValue())
+                .isEqualTo(secondToken);
+        assertThat(query(concurrentRouter, responses, requestIds, Collections.singleton(streamA)))
+                .isEqualTo(secondToken);
+        server.setBeforeTailPublished(() -> { });
+    }
+
+    /**
+     * Queries a stream whose tail is not behind the global tail in a batch, which the
+     * writer serves, and checks that the writer doesn't wait for itself to read the tail.
+     */
+    @Test
+    public void batchedQueryDoesntWaitForTheWriter() throws Exception {
+        final UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        final long globalTail = 2L;
+        server.setReadyStateEpoch(-1L);
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.BOOTSTRAP_SEQUENCER,
+                new SequencerTailsRecoveryMsg(globalTail,
+                        Collections.singletonMap(streamA, globalTail), 0L)));
+
+        CompletableFuture<TokenBatchResponse> response = new CompletableFuture<>();
+        TestServerRouter batchRouter = new TestServerRouter() {
+            @Override
+            public void sendResponse(ChannelHandlerContext ctx, CorfuMsg inMsg, CorfuMsg outMsg) {
+                response.complete(((CorfuPayloadMsg<TokenBatchResponse>) outMsg).getPayload());
+            }
+        };
+        server.tokenBatchRequest(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_BATCH_REQ,
+                new TokenBatchRequest(Collections.singletonList(
+                        new TokenRequest(0L, Collections.singleton(streamA))))),
+                null, batchRouter);
+
+        assertThat(response.get(PARAMETERS.TIMEOUT_NORMAL.toMillis(), TimeUnit.MILLISECONDS)
+                .getResponses().get(0).getTokenValue()).isEqualTo(globalTail);
+    }
+
+    private long query(TestServerRouter router, Map<Long, TokenResponse> responses,
+                       AtomicLong requestIds, Set<UUID> streams) {
+        CorfuPayloadMsg<TokenRequest> msg = new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(0L, streams));
+        msg.setRequestID(requestIds.getAndIncrement());
+        server.tokenRequest(msg, null, router);
+        return responses.remove(msg.getRequestID()).getToken().getTokenValue();
+    }
 }
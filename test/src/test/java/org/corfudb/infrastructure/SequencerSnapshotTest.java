@@ -0,0 +1,103 @@
+package org.corfudb.infrastructure;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.corfudb.AbstractCorfuTest;
+import org.junit.Test;
+
+/**
+ * Tests the writes and reads of the sequencer state snapshots.
+ */
+public class SequencerSnapshotTest extends AbstractCorfuTest {
+
+    private static final long GLOBAL_TAIL = 3L;
+
+    private final String serviceDir = PARAMETERS.TEST_TEMP_DIR;
+
+    private final File snapshotFile = new File(serviceDir, SequencerSnapshot.SNAPSHOT_FILE);
+
+    private final UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+
+    private SequencerSnapshot newSnapshot(ConflictParameterCache cache) {
+        Map<UUID, Long> streamTails = new HashMap<>();
+        streamTails.put(streamA, 2L);
+
+        long[] fingerprints = new long[cache.size()];
+        long[] timestamps = new long[cache.size()];
+        int[] index = {0};
+        cache.forEachOldestFirst((fingerprint, timestamp) -> {
+            fingerprints[index[0]] = fingerprint;
+            timestamps[index[0]++] = timestamp;
+        });
+        return new SequencerSnapshot(1L, GLOBAL_TAIL, 0L, -1L, streamTails,
+                Collections.singletonMap(streamA, 1L), fingerprints, timestamps);
+    }
+
+    @Test
+    public void writeAndRestore() throws IOException {
+        final int numEntries = PARAMETERS.NUM_ITERATIONS_LOW;
+        ConflictParameterCache cache = new ConflictParameterCache(numEntries, v -> { });
+        for (int i = 0; i < numEntries; i++) {
+            cache.put(streamA, ("param" + i).getBytes(), i);
+        }
+        // Updating a parameter moves it to the end of the update order
+        cache.put(streamA, "param0".getBytes(), numEntries);
+        newSnapshot(cache).write(serviceDir);
+
+        SequencerSnapshot snapshot = SequencerSnapshot.read(serviceDir);
+        assertThat(snapshot).isNotNull();
+        assertThat(snapshot.getGeneration()).isEqualTo(1L);
+        assertThat(snapshot.getGlobalTail()).isEqualTo(GLOBAL_TAIL);
+        assertThat(snapshot.getMaxConflictWildcard()).isEqualTo(0L);
+        assertThat(snapshot.getTrimMark()).isEqualTo(-1L);
+        assertThat(snapshot.getStreamTails()).containsEntry(streamA, 2L).hasSize(1);
+        assertThat(snapshot.getUnknownConflictStreamTails()).containsEntry(streamA, 1L)
+                .hasSize(1);
+
+        // The restored cache evicts in the same order
+        List<Long> evicted = new ArrayList<>();
+        ConflictParameterCache restored = new ConflictParameterCache(numEntries, evicted::add);
+        snapshot.restoreConflictParameters(restored);
+        assertThat(restored.size()).isEqualTo(numEntries);
+        assertThat(restored.get(streamA, "param0".getBytes())).isEqualTo(numEntries);
+        restored.put(streamA, "other".getBytes(), numEntries + 1);
+        assertThat(evicted).containsExactly(1L);
+    }
+
+    @Test
+    public void corruptedSnapshotIsIgnored() throws IOException {
+        assertThat(SequencerSnapshot.read(serviceDir)).isNull();
+
+        ConflictParameterCache cache = new ConflictParameterCache(1, v -> { });
+        cache.put(streamA, "param".getBytes(), 1L);
+        newSnapshot(cache).write(serviceDir);
+        assertThat(SequencerSnapshot.read(serviceDir)).isNotNull();
+
+        // Flip a byte of the global tail
+        final int globalTailOffset = 2 * Integer.BYTES + Long.BYTES;
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw")) {
+            file.seek(globalTailOffset);
+            int value = file.read();
+            file.seek(globalTailOffset);
+            file.write(value ^ 1);
+        }
+        assertThat(SequencerSnapshot.read(serviceDir)).isNull();
+
+        // A truncated snapshot is ignored as well
+        newSnapshot(cache).write(serviceDir);
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        assertThat(SequencerSnapshot.read(serviceDir)).isNull();
+    }
+}
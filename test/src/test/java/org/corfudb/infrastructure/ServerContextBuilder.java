@@ -20,6 +20,14 @@ public class ServerContextBuilder {
     boolean memory = true;
     String logPath = null;
     boolean noVerify = false;
+    boolean mmapReads = false;
+    String cacheOffHeap = null;
+    String segmentRecords = null;
+    String segmentPreallocation = null;
+    String logCompression = null;
+    String logDirs = null;
+    String dataStore = null;
+    String sequencerSnapshotInterval = null;
 
     boolean tlsEnabled = false;
     boolean tlsMutualAuthEnabled = false;
@@ -62,11 +70,33 @@ public class ServerContextBuilder {
         if (logPath != null) {
          builder.put("--log-path", logPath);
         }
+        if (cacheOffHeap != null) {
+            builder.put("--cache-off-heap", cacheOffHeap);
+        }
+        if (segmentRecords != null) {
+            builder.put("--segment-records", segmentRecords);
+        }
+        if (segmentPreallocation != null) {
+            builder.put("--segment-preallocation", segmentPreallocation);
+        }
+        if (logCompression != null) {
+            builder.put("--log-compression", logCompression);
+        }
+        if (logDirs != null) {
+            builder.put("--log-dirs", logDirs);
+        }
+        if (dataStore != null) {
+            builder.put("--data-store", dataStore);
+        }
+        if (sequencerSnapshotInterval != null) {
+            builder.put("--sequencer-snapshot-interval", sequencerSnapshotInterval);
+        }
         if (managementBootstrapEndpoint != null) {
             builder.put("--management-server", managementBootstrapEndpoint);
         }
          builder
                  .put("--no-verify", noVerify)
+                 .put("--mmap-reads", mmapReads)
                  .put("--address", address)
                  .put("--cache-heap-ratio", cacheSizeHeapRatio)
                  .put("--enable-tls", tlsEnabled)
@@ -0,0 +1,72 @@
+package org.corfudb.infrastructure.log;
+
+import org.corfudb.AbstractCorfuTest;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests the per-segment address sets and address spaces of the stream log.
+ */
+public class AddressBitSetTest extends AbstractCorfuTest {
+
+    private static final long FIRST_ADDRESS = 20_000L;
+
+    private static final int CAPACITY = 10_000;
+
+    @Test
+    public void addAndRemoveAddresses() {
+        AddressBitSet pending = new AddressBitSet(FIRST_ADDRESS, CAPACITY);
+        AddressBitSet trimmed = new AddressBitSet(FIRST_ADDRESS, CAPACITY);
+        final long lastAddress = FIRST_ADDRESS + CAPACITY - 1;
+        final int added = 3;
+
+        assertThat(pending.add(FIRST_ADDRESS)).isTrue();
+        assertThat(pending.add(FIRST_ADDRESS)).isFalse();
+        assertThat(pending.add(FIRST_ADDRESS + Long.SIZE)).isTrue();
+        assertThat(pending.add(lastAddress)).isTrue();
+        assertThat(pending.size()).isEqualTo(added);
+        assertThat(pending.contains(FIRST_ADDRESS + 1)).isFalse();
+        assertThat(pending.contains(FIRST_ADDRESS - 1)).isFalse();
+        assertThatThrownBy(() -> pending.add(lastAddress + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        trimmed.add(FIRST_ADDRESS + Long.SIZE);
+        AddressBitSet compacted = pending.copy();
+        compacted.removeAll(trimmed);
+
+        assertThat(compacted.toArray()).containsExactly(FIRST_ADDRESS, lastAddress);
+        assertThat(compacted.size()).isEqualTo(2);
+        assertThat(pending.toArray())
+                .containsExactly(FIRST_ADDRESS, FIRST_ADDRESS + Long.SIZE, lastAddress);
+    }
+
+    @Test
+    public void putAndOverwriteRecords() {
+        SegmentAddressSpace addresses = new SegmentAddressSpace(FIRST_ADDRESS, CAPACITY);
+        final int length = 100;
+        final long offset = 64L;
+        final long overwriteOffset = 512L;
+        final int overwriteChecksum = 3;
+
+        assertThat(addresses.get(FIRST_ADDRESS)).isNull();
+        assertThat(addresses.getMaxAddress()).isEqualTo(-1L);
+
+        addresses.put(FIRST_ADDRESS, new AddressMetaData(1, length, offset));
+        addresses.put(FIRST_ADDRESS + 2, new AddressMetaData(2, length, offset + length));
+        addresses.put(FIRST_ADDRESS,
+                new AddressMetaData(overwriteChecksum, length + 1, overwriteOffset));
+
+        assertThat(addresses.size()).isEqualTo(2);
+        assertThat(addresses.containsKey(FIRST_ADDRESS + 1)).isFalse();
+        assertThat(addresses.getMaxAddress()).isEqualTo(FIRST_ADDRESS + 2);
+
+        AddressMetaData metaData = addresses.get(FIRST_ADDRESS);
+        assertThat(metaData.checksum).isEqualTo(overwriteChecksum);
+        assertThat(metaData.length).isEqualTo(length + 1);
+        assertThat(metaData.offset).isEqualTo(overwriteOffset);
+        assertThatThrownBy(() -> addresses.get(FIRST_ADDRESS + CAPACITY))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -5,16 +5,25 @@ import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.corfudb.infrastructure.log.StreamLogFiles.METADATA_SIZE;
 import static org.corfudb.infrastructure.log.StreamLogFiles.RECORDS_PER_LOG_FILE;
 
+import com.codahale.metrics.Counter;
+import com.google.protobuf.ByteString;
 import io.netty.buffer.ByteBuf;
 
 import java.io.File;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import io.netty.buffer.Unpooled;
 import org.apache.commons.io.FileUtils;
@@ -23,6 +32,8 @@ import org.corfudb.format.Types;
 import org.corfudb.format.Types.Metadata;
 import org.corfudb.infrastructure.ServerContext;
 import org.corfudb.infrastructure.ServerContextBuilder;
+import org.corfudb.protocols.logprotocol.CheckpointEntry;
+import org.corfudb.protocols.logprotocol.SMREntry;
 import org.corfudb.protocols.wireprotocol.DataType;
 import org.corfudb.protocols.wireprotocol.ILogData;
 import org.corfudb.protocols.wireprotocol.LogData;
@@ -71,6 +82,35 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
         assertThat(log.read(address0).getPayload(null)).isEqualTo(streamEntry);
     }
 
+    @Test
+    public void testReadSerialized() {
+        StreamLog log = new StreamLogFiles(getContext(), false);
+        ByteBuf b = Unpooled.buffer();
+        byte[] streamEntry = "Payload".getBytes();
+        Serializers.CORFU.serialize(streamEntry, b);
+        long address0 = 0;
+        LogData entry = new LogData(DataType.DATA, b);
+        entry.setBackpointerMap(Collections.singletonMap(UUID.randomUUID(), address0 - 1));
+        log.append(address0, entry);
+
+        // The serialized form read from the segment is what the record
+        // encodes to on the wire
+        LogData serialized = log.readSerialized(address0);
+        assertThat(serialized.isSerializedOnly()).isTrue();
+        assertThat(serialized.getGlobalAddress()).isEqualTo(address0);
+        assertThat(serialized.getBackpointerMap()).isEqualTo(entry.getBackpointerMap());
+
+        ByteBuf expected = Unpooled.buffer();
+        log.read(address0).doSerialize(expected);
+        ByteBuf actual = Unpooled.buffer();
+        serialized.doSerialize(actual);
+        assertThat(actual).isEqualTo(expected);
+        assertThat(serialized.getPayload(null)).isEqualTo(streamEntry);
+
+        serialized.releaseBuffer();
+        assertThat(serialized.tryAcquireBuffer()).isFalse();
+    }
+
     @Test
     public void testBatchWrite() throws Exception {
         ServerContext sc = getContext();
@@ -92,6 +132,363 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
         assertThat(writeEntries).isEqualTo(readEntries);
     }
 
+    @Test
+    public void testReadAll() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+
+        // A range that spans two segments, with a sparse trim and a hole in the range
+        final int numIter = StreamLogFiles.RECORDS_PER_LOG_FILE + 2;
+        final long trimmedAddress = 1;
+        final long unwrittenAddress = 2;
+        List<LogData> writeEntries = new ArrayList<>();
+        for (int x = 0; x < numIter; x++) {
+            if (x != unwrittenAddress) {
+                writeEntries.add(getEntry(x));
+            }
+        }
+        writeEntries.forEach(entry -> log.append(entry.getGlobalAddress(), entry));
+        log.trim(trimmedAddress);
+        log.sync(true);
+
+        List<Long> addresses = new ArrayList<>();
+        for (long x = 0; x < numIter; x++) {
+            addresses.add(x);
+        }
+
+        Map<Long, LogData> entries = log.readAll(addresses, false);
+        assertThat(entries).doesNotContainKey(unwrittenAddress);
+        assertThat(entries.get(trimmedAddress).isTrimmed()).isTrue();
+        for (LogData entry : writeEntries) {
+            if (entry.getGlobalAddress() != trimmedAddress) {
+                assertThat(entries.get(entry.getGlobalAddress())).isEqualTo(entry);
+            }
+        }
+
+        // The serialized entries read in bulk match the ones read one by one
+        Map<Long, LogData> serialized = log.readAll(addresses, true);
+        assertThat(serialized.keySet()).isEqualTo(entries.keySet());
+        serialized.forEach((address, entry) -> {
+            ByteBuf expected = Unpooled.buffer();
+            log.read(address).doSerialize(expected);
+            ByteBuf actual = Unpooled.buffer();
+            entry.doSerialize(actual);
+            assertThat(actual).isEqualTo(expected);
+            entry.releaseBuffer();
+        });
+    }
+
+    @Test
+    public void testMemoryMappedReads() throws Exception {
+        ServerContext sc = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setMmapReads(true)
+                .build();
+        StreamLogFiles log = new StreamLogFiles(sc, false);
+
+        // Fill the first segment and write a single entry in the second one
+        final int numIter = StreamLogFiles.RECORDS_PER_LOG_FILE + 1;
+        List<LogData> writeEntries = new ArrayList<>();
+        for (int x = 0; x < numIter; x++) {
+            writeEntries.add(getEntry(x));
+        }
+
+        log.append(writeEntries);
+        log.sync(true);
+
+        assertThat(readRange(0, numIter, log)).isEqualTo(writeEntries);
+
+        // Only the full segment should be mapped
+        SegmentHandle full = log.getSegmentHandleForAddress(0);
+        SegmentHandle partial = log.getSegmentHandleForAddress(RECORDS_PER_LOG_FILE);
+        assertThat(full.getMappedBuffer()).isNotNull();
+        assertThat(partial.getMappedBuffer()).isNull();
+        full.release();
+        partial.release();
+
+        log.close();
+        assertThat(full.getMappedBuffer()).isNull();
+    }
+
+    @Test
+    public void testSegmentIndex() throws Exception {
+        ServerContext sc = getContext();
+        StreamLogFiles log = new StreamLogFiles(sc, false);
+
+        // Fill the first segment and write a single entry in the second one
+        final int numIter = StreamLogFiles.RECORDS_PER_LOG_FILE + 1;
+        List<LogData> writeEntries = new ArrayList<>();
+        for (int x = 0; x < numIter; x++) {
+            writeEntries.add(getEntry(x));
+        }
+
+        log.append(writeEntries);
+        log.sync(true);
+        log.close();
+
+        // Only the full segment is indexed
+        String logDir = sc.getServerConfig().get("--log-path") + File.separator + "log";
+        File index = new File(StreamLogFiles.getIndexFilePath(logDir + File.separator + "0.log"));
+        assertThat(index).exists();
+        assertThat(new File(StreamLogFiles.getIndexFilePath(logDir + File.separator + "1.log")))
+                .doesNotExist();
+
+        // The address space is loaded from the index
+        StreamLogFiles log2 = new StreamLogFiles(sc, false);
+        assertThat(readRange(0, numIter, log2)).isEqualTo(writeEntries);
+        log2.append(numIter, getEntry(numIter));
+        log2.close();
+
+        // A corrupted index is ignored and rebuilt from the segment
+        final long indexLength = index.length();
+        FileUtils.writeByteArrayToFile(index, new byte[(int) indexLength]);
+        StreamLogFiles log3 = new StreamLogFiles(sc, false);
+        assertThat(readRange(0, numIter, log3)).isEqualTo(writeEntries);
+        assertThatThrownBy(() -> log3.append(0, getEntry(0)))
+                .isInstanceOf(OverwriteException.class);
+        log3.close();
+        assertThat(index.length()).isEqualTo(indexLength);
+    }
+
+    @Test
+    public void testRecoveryWithStaleTailSegment() throws Exception {
+        ServerContext sc = getContext();
+        StreamLogFiles log = new StreamLogFiles(sc, false);
+
+        final long numSegments = 3;
+        final long lastAddress = RECORDS_PER_LOG_FILE * (numSegments - 1) + 1;
+        log.append(0, getEntry(0));
+        log.append(RECORDS_PER_LOG_FILE, getEntry(RECORDS_PER_LOG_FILE));
+        log.append(lastAddress, getEntry(lastAddress));
+        log.sync(true);
+        log.close();
+
+        // Simulate a crash before the tail segment was persisted, all the
+        // segments on disk past the persisted tail segment are recovered
+        sc.setTailSegment(0);
+        StreamLogFiles log2 = new StreamLogFiles(sc, false);
+        assertThat(log2.getGlobalTail()).isEqualTo(lastAddress);
+        assertThat(sc.getTailSegment()).isEqualTo(numSegments - 1);
+        assertThat(log2.read(lastAddress)).isEqualTo(getEntry(lastAddress));
+        log2.close();
+    }
+
+    @Test
+    public void testRecoveryRebuildsMissingIndexes() throws Exception {
+        final int recordsPerSegment = 10;
+        final int numSegments = 6;
+        final long numEntries = recordsPerSegment * numSegments + recordsPerSegment / 2;
+        ServerContext sc = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setSegmentRecords(Integer.toString(recordsPerSegment))
+                .build();
+        StreamLogFiles log = new StreamLogFiles(sc, false);
+        UUID streamId = UUID.randomUUID();
+        for (long x = 0; x < numEntries; x++) {
+            LogData entry = getEntry(x);
+            entry.setBackpointerMap(Collections.singletonMap(streamId, x - 1));
+            log.append(x, entry);
+        }
+        log.sync(true);
+        log.close();
+
+        // Drop the indexes of the full segments, as a compaction or a migration does
+        File logDir = new File(getDirPath() + File.separator + "log");
+        List<Long> fullSegments = new ArrayList<>();
+        List<File> indexes = new ArrayList<>();
+        for (long segment = 0; segment < numSegments; segment++) {
+            File index = new File(StreamLogFiles.getIndexFilePath(logDir + File.separator
+                    + segment + ".log"));
+            assertThat(index.delete()).isTrue();
+            fullSegments.add(segment);
+            indexes.add(index);
+        }
+
+        // The indexes are rebuilt while the log is recovered, and the segments that were
+        // only opened to be indexed aren't kept open
+        StreamLogFiles log2 = new StreamLogFiles(sc, false);
+        assertThat(indexes).allMatch(File::exists);
+        assertThat(log2.getSegmentHandles()).extracting(SegmentHandle::getSegment)
+                .doesNotContainAnyElementsOf(fullSegments);
+
+        assertThat(log2.getGlobalTail()).isEqualTo(numEntries - 1);
+        assertThat(log2.getStreamTails()).containsEntry(streamId, numEntries - 1);
+        for (long x = 0; x < numEntries; x++) {
+            LogData entry = log2.read(x);
+            assertThat(entry.getGlobalAddress()).isEqualTo(x);
+            assertThat(entry.getBackpointerMap())
+                    .isEqualTo(Collections.singletonMap(streamId, x - 1));
+        }
+        log2.close();
+    }
+
+    @Test
+    public void testStreamTails() throws Exception {
+        final int recordsPerSegment = 10;
+        final long checkpointAddress = 12;
+        final long checkpointStart = 5;
+        final long lastAddress = 21;
+        final long newAddress = 25;
+        ServerContext sc = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setSegmentRecords(Integer.toString(recordsPerSegment))
+                .build();
+        UUID streamA = UUID.randomUUID();
+        UUID streamB = UUID.randomUUID();
+        UUID checkpointStream = UUID.randomUUID();
+        UUID checkpointedStream = UUID.randomUUID();
+
+        // Fill the first segment, so that its stream tails are indexed
+        StreamLogFiles log = new StreamLogFiles(sc, false);
+        List<LogData> range = new ArrayList<>();
+        for (long x = 0; x < recordsPerSegment; x++) {
+            LogData entry = getEntry(x);
+            entry.setBackpointerMap(Collections.singletonMap(
+                    x < recordsPerSegment - 1 ? streamA : streamB, x - 1));
+            range.add(entry);
+        }
+        log.append(range);
+
+        LogData checkpoint = getEntry(checkpointAddress);
+        checkpoint.setBackpointerMap(Collections.singletonMap(checkpointStream, -1L));
+        checkpoint.setCheckpointType(CheckpointEntry.CheckpointEntryType.END);
+        checkpoint.setCheckpointId(UUID.randomUUID());
+        checkpoint.setCheckpointedStreamId(checkpointedStream);
+        checkpoint.setCheckpointedStreamStartLogAddress(checkpointStart);
+        log.append(checkpointAddress, checkpoint);
+
+        LogData last = getEntry(lastAddress);
+        last.setBackpointerMap(Collections.singletonMap(streamB, recordsPerSegment - 1L));
+        log.append(lastAddress, last);
+        log.sync(true);
+        log.close();
+
+        Map<UUID, Long> expected = new HashMap<>();
+        expected.put(streamA, recordsPerSegment - 2L);
+        expected.put(streamB, lastAddress);
+        expected.put(checkpointStream, checkpointAddress);
+        expected.put(checkpointedStream, checkpointStart);
+
+        // The tails are loaded from the index of the first segment and by
+        // scanning the others
+        StreamLogFiles log2 = new StreamLogFiles(sc, false);
+        assertThat(log2.getStreamTails()).isEqualTo(expected);
+
+        LogData next = getEntry(newAddress);
+        next.setBackpointerMap(Collections.singletonMap(streamA, recordsPerSegment - 2L));
+        log2.append(newAddress, next);
+        expected.put(streamA, newAddress);
+        assertThat(log2.getStreamTails()).isEqualTo(expected);
+        log2.close();
+    }
+
+    /**
+     * Returns the backpointers of an address, every address is on stream A, every
+     * other address is on stream B and every third one is on stream C.
+     */
+    private Map<UUID, Long> getBackpointers(List<UUID> streams, long address) {
+        Map<UUID, Long> backpointers = new HashMap<>();
+        for (int i = 0; i < streams.size(); i++) {
+            if (address % (i + 1) == 0) {
+                backpointers.put(streams.get(i), address - (i + 1));
+            }
+        }
+        return backpointers;
+    }
+
+    @Test
+    public void testBackpointersOfSeveralStreams() throws Exception {
+        final int recordsPerSegment = 10;
+        final int numIter = recordsPerSegment * 2 + recordsPerSegment / 2;
+        ServerContext sc = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setSegmentRecords(Integer.toString(recordsPerSegment))
+                .build();
+        List<UUID> streams = Arrays.asList(UUID.randomUUID(), UUID.randomUUID(),
+                UUID.randomUUID());
+
+        // Two full segments written as a range, and a partial one written record by record
+        StreamLogFiles log = new StreamLogFiles(sc, false);
+        List<LogData> range = new ArrayList<>();
+        for (long x = 0; x < recordsPerSegment * 2; x++) {
+            LogData entry = getEntry(x);
+            entry.setBackpointerMap(getBackpointers(streams, x));
+            range.add(entry);
+        }
+        log.append(range);
+        for (long x = recordsPerSegment * 2; x < numIter; x++) {
+            LogData entry = getEntry(x);
+            entry.setBackpointerMap(getBackpointers(streams, x));
+            log.append(x, entry);
+        }
+        for (long x = 0; x < numIter; x++) {
+            assertThat(log.read(x).getBackpointerMap())
+                    .isEqualTo(getBackpointers(streams, x));
+        }
+        log.sync(true);
+        log.close();
+
+        // The full segments are loaded from their index and the partial one is scanned
+        StreamLogFiles log2 = new StreamLogFiles(sc, false);
+        for (long x = 0; x < numIter; x++) {
+            LogData entry = log2.read(x);
+            assertThat(entry.getGlobalAddress()).isEqualTo(x);
+            assertThat(entry.getPayload(null)).isEqualTo("Payload".getBytes());
+            assertThat(entry.getBackpointerMap()).isEqualTo(getBackpointers(streams, x));
+
+            LogData serialized = log2.readSerialized(x);
+            assertThat(serialized.getBackpointerMap())
+                    .isEqualTo(getBackpointers(streams, x));
+            serialized.releaseBuffer();
+        }
+        log2.close();
+    }
+
+    @Test
+    public void testOpenMigratedSegment() throws Exception {
+        final int numIter = 5;
+        List<UUID> streams = Arrays.asList(UUID.randomUUID(), UUID.randomUUID(),
+                UUID.randomUUID());
+
+        // A segment as the log format 2 to 3 migration leaves it, records without
+        // compression, a header that isn't preallocated and no index
+        File logDir = new File(getDirPath(), "log");
+        assertThat(logDir.mkdirs()).isTrue();
+        try (FileChannel fc = FileChannel.open(new File(logDir, "0.log").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            StreamLogFiles.writeHeader(fc, StreamLogFiles.VERSION, true);
+            for (long x = 0; x < numIter; x++) {
+                Types.LogEntry.Builder entry = Types.LogEntry.newBuilder()
+                        .setDataType(Types.DataType.DATA)
+                        .setData(ByteString.copyFrom(getEntry(x).getData()))
+                        .setGlobalAddress(x);
+                getBackpointers(streams, x).forEach((stream, address) ->
+                        entry.addStreamBackpointers(stream.getMostSignificantBits())
+                                .addStreamBackpointers(stream.getLeastSignificantBits())
+                                .addStreamBackpointers(address));
+                fc.write(StreamLogFiles.getByteBufferWithMetaData(entry.build()));
+            }
+        }
+
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        for (long x = 0; x < numIter; x++) {
+            LogData entry = log.read(x);
+            assertThat(entry.getGlobalAddress()).isEqualTo(x);
+            assertThat(entry.getPayload(null)).isEqualTo("Payload".getBytes());
+            assertThat(entry.getBackpointerMap()).isEqualTo(getBackpointers(streams, x));
+        }
+
+        // The log is writable past the migrated records
+        assertThatThrownBy(() -> log.append(0, getEntry(0)))
+                .isInstanceOf(OverwriteException.class);
+        log.append(numIter, getEntry(numIter));
+        assertThat(log.read(numIter).getPayload(null)).isEqualTo("Payload".getBytes());
+        log.close();
+    }
+
     @Test
     public void testRangeWriteTrim() throws Exception {
         StreamLog log = new StreamLogFiles(getContext(), false);
@@ -374,6 +771,40 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
         }
     }
 
+    @Test
+    public void concurrentReadsDuringCompaction() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+
+        ByteBuf b = Unpooled.buffer();
+        byte[] streamEntry = "Payload".getBytes();
+        Serializers.CORFU.serialize(streamEntry, b);
+
+        // Fill two segments and sparse trim every other address
+        final long numEntries = StreamLogFiles.RECORDS_PER_LOG_FILE * 2;
+        for (long address = 0; address < numEntries; address++) {
+            log.append(address, new LogData(DataType.DATA, b));
+        }
+        for (long address = 0; address < numEntries; address += 2) {
+            log.trim(address);
+        }
+
+        // Readers must never observe a segment while it's being closed by compaction
+        final int numThreads = PARAMETERS.CONCURRENCY_SOME;
+        scheduleConcurrently(numThreads, threadNumber -> {
+            for (long address = 0; address < numEntries; address++) {
+                LogData data = log.read(address);
+                if (address % 2 == 0) {
+                    assertThat(data.isTrimmed()).isTrue();
+                } else {
+                    assertThat((byte[]) data.getPayload(null)).isEqualTo(streamEntry);
+                }
+            }
+        });
+        scheduleConcurrently(1, ignored -> log.compact());
+
+        executeScheduled(numThreads + 1, PARAMETERS.TIMEOUT_LONG);
+    }
+
     @Test
     @SuppressWarnings("checkstyle:magicnumber")
     public void testSync() throws Exception {
@@ -396,6 +827,51 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
         assertThat(log.getChannelsToSync().size()).isEqualTo(0);
     }
 
+    @Test
+    public void concurrentSegmentOpens() throws Exception {
+        final int recordsPerSegment = 10;
+        final int numSegments = 4;
+        ServerContext sc = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setSegmentRecords(Integer.toString(recordsPerSegment))
+                .build();
+        StreamLogFiles log = new StreamLogFiles(sc, false);
+        for (long x = 0; x < recordsPerSegment * numSegments; x++) {
+            writeToLog(log, x);
+        }
+        log.sync(true);
+        log.close();
+
+        // Every thread looks up every segment, the segments that aren't open yet are
+        // opened once and the other lookups wait for that open
+        StreamLogFiles log2 = new StreamLogFiles(sc, false);
+        // The handles are compared by identity, their hash code changes with their refCount
+        Map<Long, Set<SegmentHandle>> handles = new HashMap<>();
+        for (long segment = 0; segment < numSegments; segment++) {
+            handles.put(segment, Collections.synchronizedSet(
+                    Collections.newSetFromMap(new IdentityHashMap<>())));
+        }
+        final int numThreads = PARAMETERS.CONCURRENCY_SOME;
+        scheduleConcurrently(numThreads, threadNumber -> {
+            for (long segment = 0; segment < numSegments; segment++) {
+                long address = ((segment + threadNumber) % numSegments) * recordsPerSegment;
+                SegmentHandle sh = log2.getSegmentHandleForAddress(address);
+                handles.get(address / recordsPerSegment).add(sh);
+                assertThat((byte[]) log2.read(address).getPayload(null))
+                        .isEqualTo("Payload".getBytes());
+                sh.release();
+            }
+        });
+        executeScheduled(numThreads, PARAMETERS.TIMEOUT_LONG);
+
+        for (Set<SegmentHandle> segmentHandles : handles.values()) {
+            assertThat(segmentHandles).hasSize(1);
+            assertThat(log2.getSegmentHandles()).containsAll(segmentHandles);
+        }
+        log2.close();
+    }
+
     @Test
     public void testSameAddressTrim() throws Exception {
         StreamLogFiles log = new StreamLogFiles(getContext(), false);
@@ -493,6 +969,352 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
         }
     }
 
+    @Test
+    public void testCompactMultipleSegments() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        final int numSegments = 2;
+        final int numEntries = StreamLogFiles.RECORDS_PER_LOG_FILE * numSegments;
+
+        // Fill two segments and trim every other address in both of them
+        for (long x = 0; x < numEntries; x++) {
+            writeToLog(log, x);
+        }
+        for (long x = 0; x < numEntries; x += 2) {
+            log.trim(x);
+        }
+
+        List<File> segments = new ArrayList<>();
+        long sizeBeforeCompact = 0;
+        for (long x = 0; x < numEntries; x += StreamLogFiles.RECORDS_PER_LOG_FILE) {
+            SegmentHandle sh = log.getSegmentHandleForAddress(x);
+            segments.add(new File(sh.getFileName()));
+            sizeBeforeCompact += new File(sh.getFileName()).length();
+            sh.release();
+        }
+
+        Counter reclaimed = ServerContext.getMetrics()
+                .counter("corfu.server.logunit.compaction.bytes-reclaimed");
+        long reclaimedBeforeCompact = reclaimed.getCount();
+        log.compact();
+
+        // Both segments are compacted, and the reclaimed space is reported
+        long sizeAfterCompact = 0;
+        for (File segment : segments) {
+            sizeAfterCompact += segment.length();
+        }
+        assertThat(sizeAfterCompact).isLessThan(sizeBeforeCompact);
+        assertThat(reclaimed.getCount() - reclaimedBeforeCompact)
+                .isEqualTo(sizeBeforeCompact - sizeAfterCompact);
+
+        for (long x = 0; x < numEntries; x++) {
+            if (x % 2 == 0) {
+                assertThat(log.read(x).isTrimmed()).isTrue();
+            } else {
+                assertThat(log.read(x).getGlobalAddress()).isEqualTo(x);
+            }
+        }
+    }
+
+    @Test
+    public void testSegmentGeometry() throws Exception {
+        final int recordsPerSegment = 100;
+        final int numSegments = 3;
+        ServerContext sc = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setSegmentRecords(Integer.toString(recordsPerSegment))
+                .build();
+        StreamLogFiles log = new StreamLogFiles(sc, false);
+        assertThat(log.getRecordsPerSegment()).isEqualTo(recordsPerSegment);
+
+        final long numEntries = recordsPerSegment * numSegments;
+        for (long x = 0; x < numEntries; x++) {
+            writeToLog(log, x);
+        }
+        log.close();
+
+        String logDir = getDirPath() + File.separator + "log";
+        for (int segment = 0; segment < numSegments; segment++) {
+            assertThat(new File(logDir + File.separator + segment + ".log")).exists();
+        }
+
+        // An existing log keeps the geometry it was created with
+        StreamLogFiles log2 = new StreamLogFiles(getContext(), false);
+        assertThat(log2.getRecordsPerSegment()).isEqualTo(recordsPerSegment);
+        for (long x = 0; x < numEntries; x++) {
+            assertThat(log2.read(x).getGlobalAddress()).isEqualTo(x);
+        }
+        assertThat(log2.getGlobalTail()).isEqualTo(numEntries - 1);
+    }
+
+    @Test
+    public void testPreallocatedSegments() throws Exception {
+        final int recordsPerSegment = 10;
+        final int preallocationSize = 64 * 1024;
+        final long tornSegment = 2;
+        final long numEntries = 25;
+        ServerContext sc = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setSegmentRecords(Integer.toString(recordsPerSegment))
+                .setSegmentPreallocation(Integer.toString(preallocationSize))
+                .build();
+        StreamLogFiles log = new StreamLogFiles(sc, false);
+        for (long x = 0; x < numEntries; x++) {
+            writeToLog(log, x);
+        }
+        log.sync(true);
+        assertThat(log.getChannelsToSync()).isEmpty();
+
+        long logicalEnd = log.getSegmentHandles().stream()
+                .filter(sh -> sh.getSegment() == tornSegment)
+                .findFirst().get()
+                .getWriteChannel().position();
+        log.close();
+
+        // Segments past the first one are created ahead of the appends
+        String logDir = getDirPath() + File.separator + "log";
+        File segmentFile = new File(logDir + File.separator + tornSegment + ".log");
+        assertThat(segmentFile.length()).isEqualTo(preallocationSize);
+        assertThat(logicalEnd).isLessThan(preallocationSize);
+        assertThat(new File(logDir).list((dir, name) -> name.endsWith(".prealloc"))).isEmpty();
+
+        // Simulate an append that was torn by a crash within the preallocated region
+        final byte garbage = 0x7F;
+        final int tornLength = 16;
+        byte[] torn = new byte[tornLength];
+        Arrays.fill(torn, garbage);
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile, "rw")) {
+            file.seek(logicalEnd);
+            file.write(torn);
+        }
+
+        StreamLogFiles log2 = new StreamLogFiles(sc, false);
+        for (long x = 0; x < numEntries; x++) {
+            assertThat(log2.read(x).getGlobalAddress()).isEqualTo(x);
+        }
+        assertThat(log2.getGlobalTail()).isEqualTo(numEntries - 1);
+
+        writeToLog(log2, numEntries);
+        log2.sync(true);
+        log2.close();
+
+        StreamLogFiles log3 = new StreamLogFiles(sc, false);
+        for (long x = 0; x <= numEntries; x++) {
+            assertThat(log3.read(x).getGlobalAddress()).isEqualTo(x);
+        }
+        assertThat(segmentFile.length()).isEqualTo(preallocationSize);
+    }
+
+    @Test
+    public void testRestartsDontPreallocateMoreSegments() throws Exception {
+        final int recordsPerSegment = 10;
+        final int preallocationSize = 64 * 1024;
+        final long numEntries = 25;
+        final int restarts = 3;
+        ServerContext sc = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setSegmentRecords(Integer.toString(recordsPerSegment))
+                .setSegmentPreallocation(Integer.toString(preallocationSize))
+                .build();
+        StreamLogFiles log = new StreamLogFiles(sc, false);
+        for (long x = 0; x < numEntries; x++) {
+            writeToLog(log, x);
+        }
+        log.sync(true);
+        log.close();
+
+        File logDir = new File(getDirPath() + File.separator + "log");
+        final long tailSegment = (numEntries - 1) / recordsPerSegment;
+        assertSegmentFiles(logDir, tailSegment);
+
+        for (int i = 0; i < restarts; i++) {
+            log = new StreamLogFiles(sc, false);
+            assertThat(log.getGlobalTail()).isEqualTo(numEntries - 1);
+            log.close();
+            assertSegmentFiles(logDir, tailSegment);
+        }
+    }
+
+    /**
+     * Checks that the log has the segments up to the tail segment, and at most the next
+     * one preallocated. Closing the log cancels a preallocation which is still running.
+     */
+    private void assertSegmentFiles(File logDir, long tailSegment) {
+        List<String> segments = Arrays.asList(logDir.list((dir, name) -> name.endsWith(".log")));
+        for (long segment = 0; segment <= tailSegment; segment++) {
+            assertThat(segments).contains(segment + ".log");
+        }
+        assertThat(segments.size()).isLessThanOrEqualTo((int) tailSegment + 2);
+    }
+
+    private byte[] getSMRPayload(long address) {
+        final int owners = 10;
+        String value = "{\"id\": " + address + ", \"owner\": \"user-" + (address % owners)
+                + "\", \"state\": \"ACTIVE\", \"labels\": [\"region:us-west\", \"tier:gold\"],"
+                + " \"history\": [{\"event\": \"created\", \"by\": \"admin\"},"
+                + " {\"event\": \"updated\", \"by\": \"admin\"},"
+                + " {\"event\": \"updated\", \"by\": \"scheduler\"},"
+                + " {\"event\": \"updated\", \"by\": \"scheduler\"}],"
+                + " \"description\": \"Replicated state of an entry in the example table\"}";
+        SMREntry smrEntry = new SMREntry("put", new Object[]{"key-" + address, value},
+                Serializers.PRIMITIVE);
+        ByteBuf b = Unpooled.buffer();
+        Serializers.CORFU.serialize(smrEntry, b);
+        byte[] payload = new byte[b.readableBytes()];
+        b.readBytes(payload);
+        return payload;
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        final long numEntries = 100;
+        final long uncompressedEntries = numEntries / 2;
+
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        for (long x = 0; x < uncompressedEntries; x++) {
+            log.append(x, new LogData(DataType.DATA, Unpooled.wrappedBuffer(getSMRPayload(x))));
+        }
+        log.close();
+
+        // Uncompressed records stay readable once compression is enabled
+        ServerContext sc = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setLogCompression("deflate")
+                .build();
+        Counter rawBytes = ServerContext.getMetrics()
+                .counter("corfu.server.logunit.compression.raw-bytes");
+        Counter compressedBytes = ServerContext.getMetrics()
+                .counter("corfu.server.logunit.compression.compressed-bytes");
+        long rawBefore = rawBytes.getCount();
+        long compressedBefore = compressedBytes.getCount();
+
+        StreamLogFiles log2 = new StreamLogFiles(sc, false);
+        long payloadBytes = 0;
+        for (long x = uncompressedEntries; x < numEntries; x++) {
+            log2.append(x, new LogData(DataType.DATA, Unpooled.wrappedBuffer(getSMRPayload(x))));
+            payloadBytes += getSMRPayload(x).length;
+        }
+
+        long raw = rawBytes.getCount() - rawBefore;
+        long compressed = compressedBytes.getCount() - compressedBefore;
+        assertThat(raw).isEqualTo(payloadBytes);
+        assertThat(compressed).isGreaterThan(0).isLessThan(raw);
+
+        for (long x = 0; x < numEntries; x++) {
+            assertThat(log2.read(x).getData()).isEqualTo(getSMRPayload(x));
+            LogData serialized = log2.readSerialized(x);
+            assertThat(serialized.getData()).isEqualTo(getSMRPayload(x));
+            serialized.releaseBuffer();
+        }
+        assertThat(log2.readAll(Arrays.asList(numEntries - 2, numEntries - 1), false)
+                .get(numEntries - 1).getData()).isEqualTo(getSMRPayload(numEntries - 1));
+        log2.close();
+
+        StreamLogFiles log3 = new StreamLogFiles(getContext(), false);
+        for (long x = 0; x < numEntries; x++) {
+            assertThat(log3.read(x).getData()).isEqualTo(getSMRPayload(x));
+        }
+    }
+
+    @Test
+    public void testCompressionCodecsAreReused() throws Exception {
+        ServerContext sc = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setLogCompression("deflate")
+                .build();
+        StreamLogFiles log = new StreamLogFiles(sc, false);
+
+        final int numThreads = PARAMETERS.CONCURRENCY_SOME;
+        final int numEntries = PARAMETERS.NUM_ITERATIONS_LOW;
+        scheduleConcurrently(numThreads, threadNumber -> {
+            long base = (long) threadNumber * numEntries;
+            for (long x = base; x < base + numEntries; x++) {
+                log.append(x, new LogData(DataType.DATA,
+                        Unpooled.wrappedBuffer(getSMRPayload(x))));
+                assertThat(log.read(x).getData()).isEqualTo(getSMRPayload(x));
+            }
+        });
+        executeScheduled(numThreads, PARAMETERS.TIMEOUT_LONG);
+
+        // At most one deflater and one inflater per thread, rather than one per record
+        assertThat(log.getIdleCodecs()).isGreaterThan(0).isLessThanOrEqualTo(numThreads * 2);
+
+        // Closing the log ends the idle codecs
+        log.close();
+        assertThat(log.getIdleCodecs()).isZero();
+
+        StreamLogFiles log2 = new StreamLogFiles(sc, false);
+        for (long x = 0; x < (long) numThreads * numEntries; x++) {
+            assertThat(log2.read(x).getData()).isEqualTo(getSMRPayload(x));
+        }
+        log2.close();
+    }
+
+    @Test
+    public void testMultipleLogDirs() throws Exception {
+        final int recordsPerSegment = 10;
+        final long numEntries = 35;
+        String secondPath = getDirPath() + File.separator + "device2";
+        ServerContext sc = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setSegmentRecords(Integer.toString(recordsPerSegment))
+                .setLogDirs(secondPath)
+                .build();
+        StreamLogFiles log = new StreamLogFiles(sc, false);
+        assertThat(log.getDevices()).isEqualTo(2);
+
+        // A range that spans two segments is appended to both devices
+        List<LogData> range = new ArrayList<>();
+        for (long x = 0; x < numEntries; x++) {
+            if (x < recordsPerSegment - 2) {
+                writeToLog(log, x);
+            } else {
+                range.add(new LogData(DataType.DATA, Unpooled.wrappedBuffer(getSMRPayload(x))));
+                range.get(range.size() - 1).setGlobalAddress(x);
+            }
+            if (range.size() == recordsPerSegment) {
+                log.append(range);
+                range.clear();
+            }
+        }
+        log.append(range);
+
+        assertThat(log.getChannelsToSync()).hasSize(2 * 2);
+        log.sync(1, true);
+        assertThat(log.getChannelsToSync()).hasSize(2);
+        log.sync(true);
+        log.close();
+
+        // Segments are placed round-robin by segment number
+        File firstDir = new File(getDirPath() + File.separator + "log");
+        File secondDir = new File(secondPath + File.separator + "log");
+        assertThat(firstDir.list((dir, name) -> name.matches("\\d+\\.log")))
+                .containsExactlyInAnyOrder("0.log", "2.log");
+        assertThat(secondDir.list((dir, name) -> name.matches("\\d+\\.log")))
+                .containsExactlyInAnyOrder("1.log", "3.log");
+
+        StreamLogFiles log2 = new StreamLogFiles(sc, false);
+        assertThat(log2.getGlobalTail()).isEqualTo(numEntries - 1);
+        for (long x = 0; x < numEntries; x++) {
+            assertThat(log2.read(x).getGlobalAddress()).isEqualTo(x);
+            assertThat(log2.getDevice(x)).isEqualTo((int) (x / recordsPerSegment % 2));
+        }
+        log2.close();
+
+        // The log directories of a log can't be changed
+        assertThatThrownBy(() -> new StreamLogFiles(new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setSegmentRecords(Integer.toString(recordsPerSegment))
+                .build(), false))
+                .isInstanceOf(RuntimeException.class);
+    }
+
     @Test
     public void testWritingFileHeader() throws Exception {
         StreamLogFiles log = new StreamLogFiles(getContext(), false);
@@ -640,9 +1462,11 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
         log = new StreamLogFiles(getContext(), false);
         log.compact();
 
+        // Segment index files are optional, only count the segment files
         File logs = new File(logDir);
         final int lastTwoSegmentsFiles = 3 * 2;
-        assertThat(logs.list()).hasSize(lastTwoSegmentsFiles);
+        assertThat(logs.list((dir, name) -> !name.endsWith(".index")))
+                .hasSize(lastTwoSegmentsFiles);
     }
 
     /**
@@ -15,6 +15,7 @@ import org.corfudb.protocols.wireprotocol.ILogData;
 import org.corfudb.protocols.wireprotocol.IMetadata;
 import org.corfudb.protocols.wireprotocol.LogData;
 import org.corfudb.protocols.wireprotocol.ReadResponse;
+import org.corfudb.protocols.wireprotocol.WriteMode;
 import org.corfudb.runtime.CorfuRuntime;
 import org.corfudb.runtime.CorfuRuntime.CorfuRuntimeParameters;
 import org.corfudb.runtime.exceptions.DataCorruptionException;
@@ -102,6 +103,53 @@ public class LogUnitHandlerTest extends AbstractClientTest {
                 .isEqualTo(testString);
     }
 
+    @Test
+    public void asyncWritesBecomeDurable() throws Exception {
+        final long address1 = 1;
+        final long address2 = 2;
+        client.write(getLogDataWithoutId(0)).get();
+        assertThat(client.getDurableTail().get()).isEqualTo(0L);
+
+        // Asynchronous writes are acknowledged before they are synced
+        client.write(getLogDataWithoutId(address1), WriteMode.ASYNC).get();
+        client.write(getLogDataWithoutId(address2), WriteMode.ASYNC).get();
+        assertThat(client.read(address2).get().getAddresses().get(address2).getType())
+                .isEqualTo(DataType.DATA);
+        assertThatThrownBy(() -> client.write(getLogDataWithoutId(address1),
+                WriteMode.ASYNC).get())
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(OverwriteException.class);
+
+        // They are synced within the async sync interval
+        long durableTail = client.getDurableTail().get();
+        for (int x = 0; x < PARAMETERS.NUM_ITERATIONS_LOW && durableTail < address2; x++) {
+            Thread.sleep(PARAMETERS.TIMEOUT_VERY_SHORT.toMillis());
+            durableTail = client.getDurableTail().get();
+        }
+        assertThat(durableTail).isEqualTo(address2);
+        assertThat(client.getTail().get()).isEqualTo(address2);
+    }
+
+    @Test
+    public void streamTailsOfWrites() throws Exception {
+        final long address1 = 1;
+        final long address2 = 2;
+        UUID streamA = UUID.randomUUID();
+        UUID streamB = UUID.randomUUID();
+        assertThat(client.getStreamTails().get()).isEmpty();
+
+        LogData ld = getLogDataWithoutId(0);
+        ld.setBackpointerMap(ImmutableMap.of(streamA, -1L, streamB, -1L));
+        client.write(ld).get();
+        ld = getLogDataWithoutId(address2);
+        ld.setBackpointerMap(Collections.singletonMap(streamB, 0L));
+        client.write(ld).get();
+        client.write(getLogDataWithoutId(address1)).get();
+
+        assertThat(client.getStreamTails().get())
+                .isEqualTo(ImmutableMap.of(streamA, 0L, streamB, address2));
+    }
+
     @Test
     public void readingEmptyAddress() throws Exception {
         final long address0 = 0;
@@ -331,6 +379,30 @@ public class LogUnitHandlerTest extends AbstractClientTest {
                 .hasCauseInstanceOf(OverwriteException.class);
     }
 
+    @Test
+    public void multipleHoleFill()
+            throws Exception {
+        byte[] testString = "hello world".getBytes();
+        final long writtenAddress = 1;
+        final long numAddresses = 4;
+        client.write(writtenAddress, Collections.<UUID>emptySet(), null, testString,
+                Collections.emptyMap()).get();
+
+        List<Long> addresses = new ArrayList<>();
+        for (long x = 0; x < numAddresses; x++) {
+            addresses.add(x);
+        }
+
+        // Only the written address is reported, the others are filled
+        assertThat(client.fillHoles(addresses).get()).containsExactly(writtenAddress);
+        ReadResponse resp = client.read(addresses).get();
+        for (long x = 0; x < numAddresses; x++) {
+            assertThat(resp.getAddresses().get(x).getType())
+                    .isEqualTo(x == writtenAddress ? DataType.DATA : DataType.HOLE);
+        }
+        assertThat(client.fillHoles(addresses).get()).containsExactlyElementsOf(addresses);
+    }
+
     @Test
     public void multiReadTest() throws Exception {
         byte[] payload = "payload".getBytes();
@@ -4,12 +4,18 @@ import com.google.common.collect.ImmutableSet;
 import org.corfudb.infrastructure.AbstractServer;
 import org.corfudb.infrastructure.SequencerServer;
 import org.corfudb.protocols.wireprotocol.Token;
+import org.corfudb.protocols.wireprotocol.TokenResponse;
+import org.corfudb.runtime.view.Address;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -86,4 +92,30 @@ public class SequencerHandlerTest extends AbstractClientTest {
         assertThat(tokenA3)
                 .isEqualTo(tokenA2);
     }
+
+    @Test
+    public void concurrentRequestsGetDistinctTokens()
+            throws Exception {
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        List<CompletableFuture<TokenResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < PARAMETERS.NUM_ITERATIONS_LOW; i++) {
+            futures.add(client.nextToken(Collections.singleton(streamA), 1));
+        }
+
+        List<Long> tokens = new ArrayList<>();
+        List<Long> backpointers = new ArrayList<>();
+        for (CompletableFuture<TokenResponse> future : futures) {
+            TokenResponse response = future.get();
+            tokens.add(response.getTokenValue());
+            backpointers.add(response.getBackpointerMap().get(streamA));
+        }
+
+        // Every token is distinct, and the backpointers chain all of them
+        assertThat(tokens).doesNotHaveDuplicates();
+        List<Long> chain = tokens.stream().sorted().collect(Collectors.toList());
+        chain.add(0, Address.NON_EXIST);
+        chain.remove(chain.size() - 1);
+        assertThat(backpointers.stream().sorted().collect(Collectors.toList()))
+                .isEqualTo(chain);
+    }
 }
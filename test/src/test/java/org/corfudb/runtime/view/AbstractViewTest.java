@@ -296,6 +296,7 @@ public abstract class AbstractViewTest extends AbstractCorfuTest {
         primarySequencerNode.sequencerServer
                 .handleMessage(CorfuMsgType.BOOTSTRAP_SEQUENCER.payloadMsg(new SequencerTailsRecoveryMsg(0L,
                         Collections.EMPTY_MAP, l.getEpoch())), null, primarySequencerNode.serverRouter);
+        primarySequencerNode.sequencerServer.awaitQueuedRequests();
     }
 
     /** Get a default CorfuRuntime. The default CorfuRuntime is connected to a single-node
@@ -1,6 +1,7 @@
 package org.corfudb.runtime.view.replication;
 
 import org.corfudb.infrastructure.TestLayoutBuilder;
+import org.corfudb.protocols.wireprotocol.DataType;
 import org.corfudb.protocols.wireprotocol.ILogData;
 import org.corfudb.protocols.wireprotocol.LogData;
 import org.corfudb.runtime.CorfuRuntime;
@@ -10,6 +11,11 @@ import org.corfudb.runtime.view.RuntimeLayout;
 import org.corfudb.runtime.view.Layout;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.fail;
@@ -106,6 +112,47 @@ public class ChainReplicationProtocolTest extends AbstractReplicationProtocolTes
                 .isEqualTo("incomplete".getBytes());
     }
 
+    /** Check that a bulk read hole fills the unwritten addresses together,
+     * and completes a failed write from another client.
+     */
+    @Test
+    public void readAllFillsHoles() throws Exception {
+        setupNodes();
+        //begin tests
+        final CorfuRuntime r = getDefaultRuntime();
+        final IReplicationProtocol rp = getProtocol();
+        final RuntimeLayout runtimeLayout = r.getLayoutView().getRuntimeLayout();
+
+        final long numAddresses = 5;
+        final long writtenAddress = 1;
+        final long incompleteAddress = 3;
+        rp.write(runtimeLayout, getLogData(writtenAddress, "written".getBytes()));
+        runtimeLayout.getLogUnitClient(SERVERS.ENDPOINT_0)
+                .write(getLogData(incompleteAddress, "incomplete".getBytes())).get();
+
+        List<Long> addresses = new ArrayList<>();
+        for (long x = 0; x < numAddresses; x++) {
+            addresses.add(x);
+        }
+        Map<Long, ILogData> readResult = rp.readAll(runtimeLayout, addresses);
+        assertThat(readResult).containsOnlyKeys(addresses.toArray(new Long[0]));
+
+        // Every unit of the chain agrees on the result
+        for (String endpoint : Arrays.asList(SERVERS.ENDPOINT_0, SERVERS.ENDPOINT_1,
+                SERVERS.ENDPOINT_2)) {
+            Map<Long, LogData> unitResult = runtimeLayout.getLogUnitClient(endpoint)
+                    .read(addresses).get().getAddresses();
+            for (long x = 0; x < numAddresses; x++) {
+                DataType type = x == writtenAddress || x == incompleteAddress
+                        ? DataType.DATA : DataType.HOLE;
+                assertThat(unitResult.get(x).getType()).isEqualTo(type);
+                assertThat(readResult.get(x).getType()).isEqualTo(type);
+            }
+            assertThat(unitResult.get(incompleteAddress).getPayload(r))
+                    .isEqualTo("incomplete".getBytes());
+        }
+    }
+
     private void removeLogunit(Layout currentLayout, String endpoint) throws Exception {
         CorfuRuntime corfuRuntime = getRuntime(currentLayout).connect();
         Layout layout = new Layout(corfuRuntime.getLayoutView().getLayout());